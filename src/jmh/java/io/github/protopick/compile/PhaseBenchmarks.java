@@ -0,0 +1,84 @@
+package io.github.protopick.compile;
+
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import io.github.protopick.generate.Indented;
+import io.github.protopick.generate.MessagesMongo;
+import io.github.protopick.generate.Plugin;
+import io.github.protopick.parse.ParserContext;
+
+/** One benchmark per phase of Run: parse, resolve, generate and render. Each phase (other than parse) starts from the
+ * result of the previous phases, prepared once per trial. See build.gradle for the modes and the GC profiler.
+ * */
+public class PhaseBenchmarks {
+    @State(Scope.Benchmark)
+    public static class Parsed {
+        ParserContext context;
+
+        @Setup(Level.Trial)
+        public void setUp (SchemaState schema) {
+            context= schema.parse();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Generated {
+        final Plugin plugin= new MessagesMongo();
+        CompiledSet compiledSet;
+
+        @Setup(Level.Trial)
+        public void setUp (Parsed parsed) {
+            compiledSet= SchemaState.generate(parsed.context);
+        }
+    }
+
+    /** ParserContext: parse all files (including imports), order the types, and build the TypeIndex. */
+    @Benchmark
+    public ParserContext parse (SchemaState schema) {
+        return schema.parse();
+    }
+
+    /** Like parse(..), but with FastLexer instead of the generated token manager. */
+    @Benchmark
+    public ParserContext parseFastLexer (SchemaState schema) {
+        return schema.parse( true );
+    }
+
+    /** TypeNameOfField.resolve(..) of every field (and map value) type. On a new TypeIndex each time, so that its
+     * memos start empty - as in a real run. */
+    @Benchmark
+    public void resolve (Parsed parsed, Blackhole blackhole) {
+        final TypeIndex index;
+        synchronized (parsed.context.newTypes) {
+            index= new TypeIndex( parsed.context.newTypes, null );
+            for (TypeDefinition type: parsed.context.newTypes.values()) {
+                if (type==null)
+                    continue;
+                for (Field field: type.fields) {
+                    for (TypeNameOfField fieldType: new TypeNameOfField[] {field.typeNameOfField, field.typeNameOfMapValues}) {
+                        if (fieldType!=null && !fieldType.use.isPrimitive())
+                            blackhole.consume( index.resolve(fieldType) );
+                    }
+                }
+            }
+        }
+    }
+
+    /** MessagesMongo.generate(..) of all types, through CompiledSet. */
+    @Benchmark
+    public CompiledSet generate (Parsed parsed) {
+        return SchemaState.generate(parsed.context);
+    }
+
+    /** MessagesMongo.wrap(..) and Indented.toString() of all generated types. */
+    @Benchmark
+    public void render (Generated generated, Blackhole blackhole) {
+        for (Map.Entry<TypeDefinition, Indented> entry: generated.compiledSet.generated.entrySet())
+            blackhole.consume( generated.plugin.wrap(entry.getKey(), entry.getValue()).toString() );
+    }
+}
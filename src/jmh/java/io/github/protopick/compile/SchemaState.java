@@ -0,0 +1,136 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import io.github.protopick.generate.MessagesMongo;
+import io.github.protopick.parse.ParseScheduler;
+import io.github.protopick.parse.ParserContext;
+
+/** Input .proto files for the benchmarks: either a SyntheticSchema, or the samples under src/test/config (then run
+ * JMH from the project directory, as 'gradle jmh' does). All files get parsed into one ParserContext. Samples that this
+ * tool doesn't support (see Limitations in README), or that clash with the samples before them (several define the
+ * same types, like SearchRequest), get skipped, and listed at setup.
+ * */
+@State(Scope.Benchmark)
+public class SchemaState {
+    public static final String SYNTHETIC= "synthetic";
+
+    /** SYNTHETIC, or a subdirectory of src/test/config. */
+    @Param({SYNTHETIC, "proto2", "proto3"})
+    public String schema;
+
+    // Settings of SyntheticSchema. Ignored for the samples.
+    @Param("20") public int files;
+    @Param("20") public int messagesPerFile;
+    @Param("2") public int nestingDepth;
+    @Param("10") public int fieldsPerMessage;
+    @Param("2") public int mapsPerMessage;
+    @Param("3") public int enumsPerFile;
+    @Param("3") public int importsPerFile;
+
+    Path directory;
+    /** Files to parse, relative to directory. */
+    final List<String> rootFiles= new ArrayList<>();
+    /** Shared by all ParserContext instances, rather than a new pool per context (per benchmark invocation). */
+    ExecutorService scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        scheduler= ParseScheduler.forkJoin();
+        if (SYNTHETIC.equals(schema)) {
+            final SyntheticSchema synthetic= new SyntheticSchema();
+            synthetic.files= files;
+            synthetic.messagesPerFile= messagesPerFile;
+            synthetic.nestingDepth= nestingDepth;
+            synthetic.fieldsPerMessage= fieldsPerMessage;
+            synthetic.mapsPerMessage= mapsPerMessage;
+            synthetic.enumsPerFile= enumsPerFile;
+            synthetic.importsPerFile= importsPerFile;
+            directory= Files.createTempDirectory("protopick-jmh");
+            rootFiles.addAll( synthetic.writeTo(directory) );
+        }
+        else {
+            directory= Paths.get("src/test/config", schema);
+            try (Stream<Path> paths= Files.list(directory)) {
+                for (Path path: (Iterable<Path>) paths.sorted()::iterator) {
+                    final String fileName= path.getFileName().toString();
+                    if (fileName.endsWith(".proto") && isSupported(fileName))
+                        rootFiles.add(fileName);
+                }
+            }
+            if (rootFiles.isEmpty())
+                throw new IllegalStateException("No supported samples in " +directory);
+        }
+    }
+
+    /** Whether the given sample parses and generates along with rootFiles (the samples accepted so far). */
+    private boolean isSupported (String fileName) {
+        try {
+            final ParserContext context= newContext();
+            for (String rootFile: rootFiles)
+                context.parse(rootFile);
+            context.parse(fileName);
+            context.waitUntilComplete();
+            generate(context);
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("Skipping unsupported (or clashing) sample " +directory.resolve(fileName)+ ": " +e);
+            return false;
+        }
+    }
+
+    ParserContext newContext() {
+        final ParserContext context= new ParserContext();
+        context.includePaths= new String[] { directory.toString() };
+        context.setScheduler(scheduler);
+        return context;
+    }
+
+    ParserContext parse() {
+        return parse( false );
+    }
+
+    /** @param fastLexer See ParserContext.fastLexer. */
+    ParserContext parse (boolean fastLexer) {
+        final ParserContext context= newContext();
+        context.fastLexer= fastLexer;
+        for (String rootFile: rootFiles)
+            context.parse(rootFile);
+        context.waitUntilComplete();
+        return context;
+    }
+
+    static CompiledSet generate (ParserContext context) {
+        final CompiledSet compiledSet= new CompiledSet(context);
+        compiledSet.out= "";
+        compiledSet.exportItems= new Properties();
+        compiledSet.collectExportItems();
+        compiledSet.generateAll( new MessagesMongo() );
+        return compiledSet;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scheduler.shutdown();
+        if (SYNTHETIC.equals(schema)) {
+            try (Stream<Path> paths= Files.walk(directory)) {
+                for (Path path: (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                    Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.protopick.compile;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Param;
+import io.github.protopick.parse.ParserContext;
+
+/** Smoke test of the benchmark setup (run by 'gradle jmhTest', not by JMH): SchemaState sets up for every value of its
+ * "schema" @Param, and the phases run over the result once - as the benchmarks would, but without measuring. */
+public class SchemaStateTest {
+    /** @return New state, with every @Param field set to its first value (other than schema), as JMH would. */
+    private static SchemaState newState (String schema) throws ReflectiveOperationException {
+        final SchemaState state= new SchemaState();
+        for (Field field: SchemaState.class.getFields()) {
+            final Param param= field.getAnnotation( Param.class );
+            if (param!=null && field.getType()==int.class)
+                field.setInt( state, Integer.parseInt(param.value()[0]) );
+        }
+        state.schema= schema;
+        return state;
+    }
+
+    @Test
+    public void setsUpEverySchema() throws Exception {
+        final String schemas[]= SchemaState.class.getField( "schema" ).getAnnotation( Param.class ).value();
+        for (String schema: schemas) {
+            final SchemaState state= newState( schema );
+            state.setUp();
+            try {
+                assertFalse( "No files for schema " +schema, state.rootFiles.isEmpty() );
+                for (boolean fastLexer: new boolean[] {false, true}) {
+                    final ParserContext context= state.parse( fastLexer );
+                    assertFalse( "No types for schema " +schema, context.newTypes.isEmpty() );
+                    assertTrue( !SchemaState.generate(context).generated.isEmpty() );
+                }
+            } finally {
+                state.tearDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/** Deterministic generator of a synthetic set of proto3 files, for benchmarks. The same settings (including the seed)
+ * always generate the same files.
+ * <br/>
+ * File i (file_i.proto) has package synthetic.fi. It imports up to importsPerFile files with lower indexes (hence
+ * there are no import cycles). Its messages (M0, M1...) each have a chain of nestingDepth nested messages (M0.N1,
+ * M0.N1.N2...). Fields are of primitive types, of the file's own enums, of messages defined earlier in the same file
+ * (by a relative name, possibly into their nested messages), or of messages from imported files (by a full name). So
+ * types never refer to each other in a cycle (which generation doesn't support).
+ * */
+final class SyntheticSchema {
+    int files= 20;
+    int messagesPerFile= 20;
+    int nestingDepth= 2;
+    int fieldsPerMessage= 10;
+    int mapsPerMessage= 2;
+    int enumsPerFile= 3;
+    int importsPerFile= 3;
+    long seed= 42;
+
+    private static final String PRIMITIVES[]= { "string", "int32", "int64", "bool", "double", "bytes" };
+    private static final int ENUM_VALUES= 4;
+
+    static String fileName (int file) {
+        return "file_" +file+ ".proto";
+    }
+
+    /** Write the files into the given directory.
+     * @return Names of all files (relative to directory), in order. */
+    List<String> writeTo (Path directory) throws IOException {
+        final Random random= new Random(seed);
+        final List<String> names= new ArrayList<>();
+        for (int file=0; file<files; file++) {
+            Files.write( directory.resolve(fileName(file)), generate(file, random).getBytes(StandardCharsets.UTF_8) );
+            names.add( fileName(file) );
+        }
+        return names;
+    }
+
+    private String generate (int file, Random random) {
+        final StringBuilder out= new StringBuilder();
+        out.append( "syntax = \"proto3\";\n" );
+        out.append( "package synthetic.f" ).append( file ).append( ";\n\n" );
+
+        final Set<Integer> imports= new LinkedHashSet<>();
+        for (int i=0; i<importsPerFile && file>0; i++)
+            imports.add( random.nextInt(file) );
+        for (int imported: imports)
+            out.append( "import \"" ).append( fileName(imported) ).append( "\";\n" );
+        out.append( '\n' );
+
+        for (int e=0; e<enumsPerFile; e++) {
+            out.append( "enum E" ).append( e ).append( " {\n" );
+            for (int value=0; value<ENUM_VALUES; value++)
+                out.append( "  E" ).append( e ).append( "_V" ).append( value ).append( " = " ).append( value ).append( ";\n" );
+            out.append( "}\n\n" );
+        }
+
+        for (int m=0; m<messagesPerFile; m++) {
+            appendMessage( out, "M" +m, 0, file, m, new ArrayList<>(imports), random, "" );
+            out.append( '\n' );
+        }
+        return out.toString();
+    }
+
+    /** @param message Index of the top-level message. Fields refer only to top-level messages with lower indexes. */
+    private void appendMessage (StringBuilder out, String name, int depth, int file, int message, List<Integer> imports,
+                                Random random, String indent) {
+        out.append( indent ).append( "message " ).append( name ).append( " {\n" );
+        final String inner= indent+ "  ";
+        int number= 1;
+        for (int f=0; f<fieldsPerMessage; f++) {
+            out.append( inner );
+            if (random.nextInt(4)==0)
+                out.append( "repeated " );
+            out.append( fieldType(file, message, imports, random) ).append( " f" ).append( f ).append( " = " ).append( number++ ).append( ";\n" );
+        }
+        for (int f=0; f<mapsPerMessage; f++)
+            out.append( inner ).append( "map<string, " ).append( fieldType(file, message, imports, random) )
+               .append( "> map" ).append( f ).append( " = " ).append( number++ ).append( ";\n" );
+        if (depth<nestingDepth)
+            appendMessage( out, "N" +(depth+1), depth+1, file, message, imports, random, inner );
+        out.append( indent ).append( "}\n" );
+    }
+
+    private String fieldType (int file, int message, List<Integer> imports, Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                if (enumsPerFile>0)
+                    return "E" +random.nextInt(enumsPerFile);
+                break;
+            case 1:
+                if (message>0)
+                    return nestedPath( "M" +random.nextInt(message), random );
+                break;
+            case 2:
+                if (!imports.isEmpty() && messagesPerFile>0)
+                    return "synthetic.f" +imports.get( random.nextInt(imports.size()) )+ "." +nestedPath( "M" +random.nextInt(messagesPerFile), random );
+                break;
+        }
+        return PRIMITIVES[ random.nextInt(PRIMITIVES.length) ];
+    }
+
+    /** The given message, or one of its nested messages. */
+    private String nestedPath (String message, Random random) {
+        final StringBuilder path= new StringBuilder(message);
+        final int depth= random.nextInt( nestingDepth+1 );
+        for (int d=1; d<=depth; d++)
+            path.append( ".N" ).append( d );
+        return path.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Writes a file through a temporary sibling, which then gets moved over it. So nothing (no other run, see BuildCache)
+ * sees a partially written file. For BuildCache, ModelSnapshot and ExportWriter.
+ * <br/>
+ * The temporary file gets created like any other file. So the result has the default permissions (as per umask), as
+ * if written directly - unlike with Files.createTempFile(..), which makes it readable by its owner only.
+ * */
+final class AtomicFiles {
+    private AtomicFiles() {}
+
+    interface Content {
+        /** Write the content into the given (empty) file. */
+        void writeTo (FileChannel channel) throws IOException;
+    }
+
+    /** Write the given file (and any missing parent directories), replacing it if it exists. */
+    static void write (Path target, Content content) throws IOException {
+        final Path file= target.toAbsolutePath();
+        if (file.getParent()!=null)
+            Files.createDirectories( file.getParent() );
+        final Path temporary= createSibling( file );
+        try {
+            try (FileChannel channel= FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                content.writeTo( channel );
+            }
+            try {
+                Files.move( temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING );
+            }
+        } finally {
+            Files.deleteIfExists( temporary );
+        }
+    }
+
+    /** @return A new empty file next to the given one, with a name that no other thread (or process) uses. */
+    private static Path createSibling (Path file) throws IOException {
+        while (true) {
+            final Path sibling= file.resolveSibling( file.getFileName()+ "." +
+                Long.toHexString( ThreadLocalRandom.current().nextLong() )+ ".tmp" );
+            try {
+                return Files.createFile( sibling );
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Manifest of a batch (option -b in Run): several jobs that share one ParserContext. So a file that many jobs import
+ * gets parsed once, rather than once per job. Then the jobs generate in parallel, each with its own CompiledSet that
+ * covers only the types of its own root files (and their imports) - as if each job were a separate run.
+ * <br/>
+ * Format: One job per line, with the arguments of Run for that job (its -f, -p, and any -ep, -o, -s and -gt),
+ * separated by whitespace. An argument containing whitespace goes in double quotes (with \" for a quote, and \\ for a
+ * backslash). Empty lines and lines starting with # are ignored. Relative paths are relative to the working directory
+ * (not to the manifest), as on the command line. Jobs must not export to the same files.
+ * */
+final class Batch {
+    private Batch() {}
+
+    /** @return Arguments per job, in the order of the manifest. */
+    static List<String[]> readManifest (Path manifest) throws IOException {
+        final List<String[]> jobs= new ArrayList<>();
+        int lineNumber= 0;
+        for (String line: Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            final String trimmed= line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+            jobs.add( split(trimmed, manifest, lineNumber) );
+        }
+        return jobs;
+    }
+
+    private static String[] split (String line, Path manifest, int lineNumber) {
+        final List<String> args= new ArrayList<>();
+        final StringBuilder arg= new StringBuilder();
+        boolean inArg= false, quoted= false;
+        for (int i=0; i<line.length(); i++) {
+            final char c= line.charAt(i);
+            if (quoted) {
+                if (c=='"')
+                    quoted= false;
+                else if (c=='\\' && i+1<line.length() && (line.charAt(i+1)=='"' || line.charAt(i+1)=='\\'))
+                    arg.append( line.charAt(++i) );
+                else
+                    arg.append( c );
+            }
+            else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add( arg.toString() );
+                    arg.setLength( 0 );
+                    inArg= false;
+                }
+            }
+            else {
+                inArg= true;
+                if (c=='"')
+                    quoted= true;
+                else
+                    arg.append( c );
+            }
+        }
+        if (quoted)
+            throw new IllegalArgumentException( "Unterminated quote in " +manifest+ " at line " +lineNumber );
+        if (inArg)
+            args.add( arg.toString() );
+        return args.toArray( new String[0] );
+    }
+}
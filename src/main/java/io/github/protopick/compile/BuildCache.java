@@ -0,0 +1,371 @@
+package io.github.protopick.compile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import io.github.protopick.generate.Plugin;
+
+/** On-disk cache (option --cache_dir in Run), shared across runs:
+ * <br/>- model/HASH: the model parsed from a .proto file, keyed by a hash of that file's content. See ModelCodec.
+ * <br/>- output/HASH: rendered (wrapped) output of one type by one plugin, keyed by the plugin, the type's full
+ * name, and the "deep" key of its file (its content hash, combined with the deep keys of the files it imports).
+ * See ParserContext.fileKey(String).
+ * <br/>
+ * Entries are immutable: a changed input means a different key. Writes are atomic (see AtomicFiles), so
+ * concurrent runs may share the same directory. Corrupt or unreadable entries count as missing. Nothing gets evicted;
+ * remove the directory to clean it up (and when upgrading libraries that plugins use, see pluginKey(..)).
+ * <br/>
+ * Optionally, it keeps the most recently used entries in memory, too (or in memory only, without a directory). That's
+ * for Daemon, which serves many runs from the same JVM.
+ * */
+public final class BuildCache {
+    /** Increase whenever the format of entries, or the way we parse or generate, changes. */
+    private static final int VERSION= 1;
+    private static final int MAGIC= 0x50504331; // "PPC1"
+
+    /** Null if in memory only. */
+    private final Path modelDirectory, outputDirectory;
+
+    /** Entry (its relative path, like "model/HASH") -> payload. Least recently used first. Null if not kept in memory.
+     * Guarded by itself. */
+    private final Map<String, byte[]> memory;
+
+    /** On disk only. */
+    public BuildCache (Path directory) throws IOException {
+        this( directory, 0 );
+    }
+
+    /** @param directory Null for memory only. Then memoryEntries must be positive.
+     * @param memoryEntries Maximum number of entries to keep in memory. 0 for none. */
+    public BuildCache (Path directory, int memoryEntries) throws IOException {
+        if (directory!=null) {
+            modelDirectory= directory.resolve("model");
+            outputDirectory= directory.resolve("output");
+            Files.createDirectories(modelDirectory);
+            Files.createDirectories(outputDirectory);
+        }
+        else {
+            if (memoryEntries<=0)
+                throw new IllegalArgumentException("A cache without a directory needs memory entries.");
+            modelDirectory= outputDirectory= null;
+        }
+        memory= memoryEntries>0
+            ? new LinkedHashMap<String, byte[]>( 16, 0.75f, true ) {
+                  protected boolean removeEldestEntry (Map.Entry<String, byte[]> eldest) {
+                      return size()>memoryEntries;
+                  }
+              }
+            : null;
+    }
+
+    /** @return Hex SHA-256 of the file's content. Reads the file through a memory map. */
+    public static String contentHash (File file) throws IOException {
+        final MessageDigest digest= sha256();
+        try (RandomAccessFile raf= new RandomAccessFile(file, "r"); FileChannel channel= raf.getChannel()) {
+            digest.update( channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) );
+        }
+        return hex( digest.digest() );
+    }
+
+    /** @return Hex SHA-256 of the given parts (each followed by a separator). */
+    public static String hash (String... parts) {
+        final MessageDigest digest= sha256();
+        for (String part: parts) {
+            digest.update( part.getBytes(StandardCharsets.UTF_8) );
+            digest.update( (byte)0 );
+        }
+        return hex( digest.digest() );
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // Every JRE has it
+        }
+    }
+
+    private static String hex (byte bytes[]) {
+        final char result[]= new char[bytes.length*2];
+        for (int i=0; i<bytes.length; i++) {
+            result[2*i]= Character.forDigit( (bytes[i]>>4) & 0xF, 16 );
+            result[2*i+1]= Character.forDigit( bytes[i] & 0xF, 16 );
+        }
+        return new String(result);
+    }
+
+    /** Replay the cached model of a file with the given content hash, if any.
+     * @return Whether it was cached (and hence replayed). If not, the sink didn't receive anything. */
+    public boolean loadModel (String contentHash, ModelCodec.Sink sink) {
+        final byte payload[]= read( modelDirectory, "model", contentHash );
+        if (payload==null)
+            return false;
+        try {
+            // The payload passed its checksum, so a failure here is a bug, rather than a corrupt entry.
+            ModelCodec.read( new DataInputStream(new ByteArrayInputStream(payload)), sink );
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    /** @param declarations See ModelCodec.write(..). If the model can't be represented, this doesn't cache it. */
+    public void storeModel (String contentHash, List<?> declarations) {
+        final ByteArrayOutputStream payload= new ByteArrayOutputStream();
+        try {
+            ModelCodec.write( new DataOutputStream(payload), declarations );
+        } catch (UnsupportedOperationException e) {
+            return;
+        } catch (IOException e) {
+            throw new RuntimeException(e); // ByteArrayOutputStream doesn't throw it
+        }
+        write( modelDirectory, "model", contentHash, payload.toByteArray() );
+    }
+
+    /** Rendered output of a type, together with the types that its generation requested (see CompiledSet). */
+    public static final class Output {
+        /** Full names, in the order requested. */
+        public final List<String> requested;
+        public final String text;
+
+        public Output (List<String> givenRequested, String givenText) {
+            requested= givenRequested;
+            text= givenText;
+        }
+    }
+
+    /** Identifies a plugin, including its code: the jar (or class directory) that it comes from, and the one of this
+     * tool, since the output depends on ours, too (Indented, TypeWalker etc.). So upgrading either of them misses the
+     * cache, without changing VERSION. Libraries that the plugin uses (other than this tool) aren't included. */
+    public static String pluginKey (Plugin plugin) {
+        final Class<?> pluginClass= plugin.getClass();
+        final MessageDigest digest= sha256();
+        digest.update( pluginClass.getName().getBytes(StandardCharsets.UTF_8) );
+        digest.update( (byte)0 );
+        final Set<Path> codeSources= new HashSet<>();
+        try {
+            for (Class<?> codeOf: new Class<?>[] {pluginClass, Plugin.class})
+                digestCode( codeOf, digest, codeSources );
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return hex( digest.digest() );
+    }
+
+    /** Digest the code source (a jar, or a directory of classes) of the given class, unless it's in codeSources already.
+     * If it has no such code source, then digest the bytes of the class itself. */
+    private static void digestCode (Class<?> codeOf, MessageDigest digest, Set<Path> codeSources) throws IOException {
+        final CodeSource codeSource= codeOf.getProtectionDomain().getCodeSource();
+        Path location= null;
+        if (codeSource!=null && codeSource.getLocation()!=null) {
+            try {
+                location= Paths.get( codeSource.getLocation().toURI() );
+            } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+                // Not a local file: fall back to the class below
+            }
+        }
+        if (location!=null && (Files.isRegularFile(location) || Files.isDirectory(location))) {
+            if (codeSources.add(location))
+                digest.update( codeHash(location).getBytes(StandardCharsets.UTF_8) );
+            return;
+        }
+        try (InputStream in= codeOf.getResourceAsStream( codeOf.getSimpleName()+ ".class" )) {
+            if (in!=null) {
+                final byte buffer[]= new byte[8192];
+                for (int read; (read= in.read(buffer))>0; )
+                    digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /** Jar path, size and last modified time -> its contentHash(..). So that Daemon hashes a jar once per version. */
+    private static final ConcurrentHashMap<String, String> jarHashes= new ConcurrentHashMap<>();
+
+    /** @param location A jar, or a directory of classes.
+     * @return Hex SHA-256 of the jar's content, or of the paths and the content of the directory's class files. */
+    static String codeHash (Path location) throws IOException {
+        if (Files.isRegularFile(location)) {
+            final File jar= location.toFile();
+            try {
+                return jarHashes.computeIfAbsent( jar+ "|" +jar.length()+ "|" +jar.lastModified(), key -> {
+                    try {
+                        return contentHash( jar );
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        final List<Path> classFiles;
+        try (Stream<Path> paths= Files.walk(location)) {
+            classFiles= paths.filter( path -> path.toString().endsWith(".class") ).sorted()
+                .collect( Collectors.toList() );
+        }
+        final MessageDigest digest= sha256();
+        for (Path classFile: classFiles) {
+            digest.update( location.relativize(classFile).toString().getBytes(StandardCharsets.UTF_8) );
+            digest.update( (byte)0 );
+            digest.update( Files.readAllBytes(classFile) );
+        }
+        return hex( digest.digest() );
+    }
+
+    /** @param fileKey See ParserContext.fileKey(String) for the type's source file. */
+    public static String outputKey (String pluginKey, TypeDefinition type, String fileKey) {
+        return hash( pluginKey, type.typeNameDefinition.fullName(), fileKey );
+    }
+
+    /** @return The cached output, or null if none. */
+    public Output loadOutput (String outputKey) {
+        final byte payload[]= read( outputDirectory, "output", outputKey );
+        if (payload==null)
+            return null;
+        try {
+            final DataInputStream in= new DataInputStream( new ByteArrayInputStream(payload) );
+            final List<String> requested= new ArrayList<>();
+            for (int count= in.readInt(); count>0; count--)
+                requested.add( readString(in) );
+            return new Output( requested, readString(in) );
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void storeOutput (String outputKey, Output output) {
+        final ByteArrayOutputStream payload= new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out= new DataOutputStream(payload);
+            out.writeInt( output.requested.size() );
+            for (String requested: output.requested)
+                writeString( out, requested );
+            writeString( out, output.text );
+        } catch (IOException e) {
+            throw new RuntimeException(e); // ByteArrayOutputStream doesn't throw it
+        }
+        write( outputDirectory, "output", outputKey, payload.toByteArray() );
+    }
+
+    private static void writeString (DataOutputStream out, String string) throws IOException {
+        final byte bytes[]= string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString (DataInputStream in) throws IOException {
+        final byte bytes[]= new byte[ in.readInt() ];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** @param directory Null if in memory only.
+     * @return The payload, or null if there's no such entry (or if it's unusable on disk, see readFile(Path)). */
+    private byte[] read (Path directory, String kind, String key) {
+        if (memory!=null) {
+            synchronized (memory) {
+                final byte payload[]= memory.get( kind+ "/" +key );
+                if (payload!=null)
+                    return payload;
+            }
+        }
+        if (directory==null)
+            return null;
+        final byte payload[]= readFile( directory.resolve(key) );
+        if (payload!=null && memory!=null) {
+            synchronized (memory) {
+                memory.put( kind+ "/" +key, payload );
+            }
+        }
+        return payload;
+    }
+
+    private void write (Path directory, String kind, String key, byte payload[]) {
+        if (memory!=null) {
+            synchronized (memory) {
+                memory.put( kind+ "/" +key, payload );
+            }
+        }
+        if (directory!=null)
+            writeFile( directory.resolve(key), payload );
+    }
+
+    /** Entry format: MAGIC, VERSION, payload length, CRC32 of the payload, payload.
+     * @return The payload, or null if there's no such entry, or if it's corrupt or of another version. */
+    private static byte[] readFile (Path path) {
+        final byte entry[];
+        try {
+            entry= Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable cache entry " +path+ ": " +e);
+            return null;
+        }
+        try {
+            final DataInputStream in= new DataInputStream( new ByteArrayInputStream(entry) );
+            if (in.readInt()!=MAGIC || in.readInt()!=VERSION)
+                return null;
+            final int length= in.readInt();
+            final long checksum= in.readLong();
+            final byte payload[]= new byte[length];
+            in.readFully(payload);
+            final CRC32 crc= new CRC32();
+            crc.update(payload);
+            return crc.getValue()==checksum
+                ? payload
+                : null;
+        } catch (IOException | NegativeArraySizeException e) { // Truncated or garbled
+            return null;
+        }
+    }
+
+    private static void writeFile (Path path, byte payload[]) {
+        final CRC32 crc= new CRC32();
+        crc.update(payload);
+        try {
+            AtomicFiles.write( path, channel -> {
+                final ByteBuffer entry= ByteBuffer.allocate( 4+4+4+8+payload.length );
+                entry.putInt(MAGIC);
+                entry.putInt(VERSION);
+                entry.putInt(payload.length);
+                entry.putLong(crc.getValue());
+                entry.put(payload);
+                entry.flip();
+                while (entry.hasRemaining())
+                    channel.write(entry);
+            });
+        } catch (IOException e) {
+            // A cache is an optimization only. Failing to write to it must not fail the build.
+            System.err.println("Couldn't write cache entry " +path+ ": " +e);
+        }
+    }
+}
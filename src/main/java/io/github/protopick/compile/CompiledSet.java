@@ -1,11 +1,28 @@
 package io.github.protopick.compile;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import io.github.protopick.generate.Indented;
+import io.github.protopick.generate.IndentedWriter;
 import io.github.protopick.generate.Plugin;
+import io.github.protopick.generate.StreamingPlugin;
 import io.github.protopick.parse.ParserContext;
 
 public final class CompiledSet {
@@ -14,61 +31,381 @@ public final class CompiledSet {
     public String inputFileNames[];
     public String out; // Output directory, if specified. If the specified directory didn't contain a trailing slash (or backslash on Windows), it's added. An empty string if not specified (then use the current folder).
     public Properties exportItems; // Export pair(s), if specified. See option "ep" in Run.java. Guaranteed not to be null, but it may be empty.
-    // @TODO Do Properties preserve the order? IF not, use a LinkedHasHMap
+    /** Optional. If set, generateAll(..) skips types whose (wrapped) output has been cached, and writeWrapped(..)
+     * caches any new output. Set at the beginning only. */
+    public BuildCache cache;
+    /** Whether this covers only the types of inputFileNames and (transitively) their imports, rather than all types of
+     * the context. For jobs of a batch (see option -b in Run), which share one context. Set at the beginning only. */
+    boolean scopedToInputFiles;
+    /** Null, unless profiling. Then generateAll(..) reports the memory allocated by its threads (see
+     * Profile.generateAllocated(..)). Set at the beginning only. */
+    Profile profile;
 
     /* package-visible only */
     CompiledSet(ParserContext givenContext) {
         context= givenContext;
     }
 
+    /** See forPlugin(). */
+    private CompiledSet(CompiledSet model) {
+        context= model.context;
+        inputFileNames= model.inputFileNames;
+        out= model.out;
+        exportItems= model.exportItems;
+        cache= model.cache;
+        scopedToInputFiles= model.scopedToInputFiles;
+        profile= model.profile;
+        exports.putAll( model.exports );
+        frozenTypes= model.frozenTypes;
+    }
+
+    /** Types to generate, as per typesToGenerate() at the time of freeze(). Null until then. */
+    private List<TypeDefinition> frozenTypes;
+
+    /** Resolve everything that generating may need (with lazy imports, that parses any further files), and then
+     * freeze the model (see ParserContext.freeze()). Call after collectExportItems(), and before forPlugin(). */
+    void freeze() {
+        frozenTypes= typesToGenerate();
+        reachableFrom( frozenTypes );
+        context.freeze();
+    }
+
+    /** A CompiledSet for one plugin. It shares this one's frozen model and settings, but it has its own generation
+     * state (like this.generated). So several plugins can generate concurrently, each with its own CompiledSet,
+     * and one plugin doesn't get the other plugin's output. Call only after freeze(). */
+    CompiledSet forPlugin() {
+        if (frozenTypes==null)
+            throw new IllegalStateException("Call freeze() first.");
+        return new CompiledSet(this);
+    }
+
+    /** Exported types -> output file path (already prefixed with out). In the order of context.newTypes. Empty if
+     * there are no export pairs: then we generate all types. Filled in by collectExportItems(). */
+    final Map<TypeDefinition, String> exports= new LinkedHashMap<>();
+
+    /** Call once parsing is complete. */
     void collectExportItems() {
-        if (!exportItems.isEmpty()) {
-            for (String itemName : exportItems.stringPropertyNames()) {
-                // Prefix with the output path. (.stringPropertyNames() is a snapshot, so we can change the properties object within this loop)
-                exportItems.setProperty( itemName, out + exportItems.getProperty(itemName) );
+        final Map<TypeDefinition, String> unordered= new HashMap<>();
+        final Map<TypeDefinition, String> itemNames= new HashMap<>();
+        for (String itemName : exportItems.stringPropertyNames()) {
+            TypeDefinition typeDefinition= context.typeIndex().get(itemName);
+            if (typeDefinition==null) // Full names start with a dot, see TypeIndex
+                typeDefinition= context.typeIndex().get("." +itemName);
+            if (typeDefinition==null)
+                throw new IllegalArgumentException("Export item " +itemName+ " not found in the source.");
+            unordered.put( typeDefinition, out + exportItems.getProperty(itemName) );
+            itemNames.put( typeDefinition, itemName );
+        }
+        // Only now: With lazy imports, the lookups above may have parsed further files.
+        final Map<String, TypeDefinition> types= typesInScope();
+        if (scopedToInputFiles) {
+            for (Map.Entry<TypeDefinition, String> item: itemNames.entrySet()) {
+                if (!types.containsValue(item.getKey()))
+                    throw new IllegalArgumentException("Export item " +item.getValue()+ " not found in the source.");
             }
         }
-        else {
-            for( Map.Entry<String, TypeDefinition> n: context.newTypes.entrySet() ) {
+        // Properties don't preserve the order of the export pairs. Hence we use the (deterministic) order of newTypes.
+        for (TypeDefinition typeDefinition: types.values()) {
+            if (unordered.containsKey(typeDefinition))
+                exports.put( typeDefinition, unordered.get(typeDefinition) );
+        }
+    }
+
+    /** Full type name -> type (null for Any), in the order of context.newTypes. If scopedToInputFiles, then only the
+     * types of inputFileNames and their imports, in the order they'd have if only those files had been parsed. */
+    private Map<String, TypeDefinition> typesInScope() {
+        if (!scopedToInputFiles)
+            return context.orderedNewTypes();
+        synchronized (context.newTypes) {
+            final Map<String, TypeDefinition> result= new LinkedHashMap<>();
+            for (String fullName: context.typesOf( Arrays.asList(inputFileNames) ))
+                result.put( fullName, context.newTypes.get(fullName) );
+            return result;
+        }
+    }
+
+    /** Types to generate, in the order of typesInScope(). If there are any exports, then those and all types that
+     * they use through their fields (transitively). Otherwise all types in scope. */
+    private List<TypeDefinition> typesToGenerate() {
+        final Set<TypeDefinition> reachable= exports.isEmpty()
+            ? null
+            : reachableFrom( exports.keySet() );
+        final List<TypeDefinition> types= new ArrayList<>();
+        for (Map.Entry<String, TypeDefinition> entry: typesInScope().entrySet()) {
+            if( entry.getValue()!=null ) {
+                if( reachable==null || reachable.contains(entry.getValue()) )
+                    types.add( entry.getValue() );
+            }
+            else {
+                if( !entry.getKey().equals(ParserContext.ANY_QUALIFIED) )
+                    throw new IllegalStateException( "Missing TypeDefinition for " +entry.getKey() );
             }
-            throw new Error("Take them all -TODO");
         }
-        for (final String itemName : exportItems.stringPropertyNames()) {
-            final String outputFilePath = exportItems.getProperty(itemName);
-            System.out.println( "context.newTypes: " +context.newTypes.keySet());
+        return types;
+    }
 
-            if (context.newTypes.containsKey(itemName)) {
-                final TypeDefinition typeDefinition= context.newTypes.get(itemName);
-                final Indented generated= generateOrReuse(typeDefinition, null/*@TODO plugin*/);
-                throw new Error("@TODO");
+    /** The given types, and the types of their fields (or of map keys and values), transitively. */
+    Set<TypeDefinition> reachableFrom( Collection<TypeDefinition> roots ) {
+        final Set<TypeDefinition> reachable= new HashSet<>(roots);
+        final Deque<TypeDefinition> toVisit= new ArrayDeque<>(roots);
+        while (!toVisit.isEmpty()) {
+            for (Field field: toVisit.pop().fields) {
+                for (TypeNameOfField fieldType: new TypeNameOfField[] {field.typeNameOfField, field.typeNameOfMapValues}) {
+                    // Enum values are fields without a type. Primitives don't have a definition.
+                    if (fieldType!=null && !fieldType.use.isPrimitive()) {
+                        final TypeDefinition used= fieldType.resolve(context);
+                        if (reachable.add(used))
+                            toVisit.push(used);
+                    }
+                }
             }
-            else
-                throw new IllegalArgumentException("Export item " +itemName+ " not found in the source.");
         }
+        return reachable;
     }
 
-    /** Already compiled items with generated output. */
+    /** Already compiled items with generated output, in the order that a sequential generateAll(..) generates them
+     * (dependencies before the types that use them). Filled in by generateAll(..). With a cache, types whose output
+     * was cached (and hence not generated) map to null. Use writeWrapped(..) for the output of either. */
     final Map<TypeDefinition, Indented> generated = new LinkedHashMap<>();
 
+    /** Generation of one type: finished, or in progress. */
+    private static final class Generation {
+        final TypeDefinition typeDefinition;
+        final Thread owner= Thread.currentThread();
+        final CompletableFuture<Indented> result= new CompletableFuture<>();
+        /** Types that this generation asked for through generateOrReuse(..), in that order. Only accessed by owner. */
+        final List<TypeDefinition> requested= new ArrayList<>();
+
+        Generation(TypeDefinition givenTypeDefinition) {
+            typeDefinition= givenTypeDefinition;
+        }
+    }
+
+    /** All generations started so far. Each type is generated once, even if several threads ask for it. */
+    private final ConcurrentHashMap<TypeDefinition, Generation> generations= new ConcurrentHashMap<>();
+
+    /** Generation that the current Thread is running, if any. */
+    private final ThreadLocal<Generation> currentGeneration= new ThreadLocal<>();
+
+    /** Thread -> generation (of another thread) that it waits for. Guarded by itself. */
+    private final Map<Thread, Generation> waits= new HashMap<>();
+
+    /** Generate all types (see typesToGenerate()) sequentially. */
     void generateAll(Plugin plugin) {
-        // @TODO use this.exportItems instead
-        for (Map.Entry<String, TypeDefinition> entry: context.newTypes.entrySet()) {
-            if( entry.getValue()!=null ) {
-                generateOrReuse(entry.getValue(), plugin);
+        generateAll( plugin, 1 );
+    }
+
+    /** Generate all types (see typesToGenerate(), or the types as of freeze()), on the given number of threads. The result (this.generated) is the same regardless of the
+     * number of threads, including its order. With more than one thread, the plugin's generate(..) gets called
+     * concurrently (but never twice for the same type). */
+    void generateAll(Plugin plugin, int threads) {
+        final List<TypeDefinition> types= frozenTypes!=null
+            ? frozenTypes
+            : typesToGenerate();
+        final List<TypeDefinition> toGenerate= loadCachedOutputs( plugin, types );
+        if (threads<=1) {
+            for (TypeDefinition type: toGenerate)
+                generateOrReuse(type, plugin);
+        }
+        else {
+            // Not a ForkJoinPool: While a worker waits there, it may run another task on the same Thread. That would
+            // break the ownership of generations (see await(..)).
+            final ExecutorService pool= Executors.newFixedThreadPool(threads);
+            try {
+                final List<CompletableFuture<Void>> tasks= new ArrayList<>();
+                for (TypeDefinition type: toGenerate)
+                    tasks.add( CompletableFuture.runAsync( profile==null
+                        ? () -> generateOrReuse(type, plugin)
+                        : () -> {
+                            final long startAllocated= profile.allocatedBytes();
+                            generateOrReuse(type, plugin);
+                            profile.generateAllocated( plugin.getClass().getName(), profile.allocatedBytes()-startAllocated );
+                        }, pool ) );
+                for (CompletableFuture<Void> task: tasks)
+                    join(task);
+            } finally {
+                pool.shutdown();
             }
-            else {
-                if( !entry.getKey().equals(ParserContext.ANY_QUALIFIED) )
-                    throw new IllegalStateException( "Missing TypeDefinition for " +entry.getKey() );
+        }
+        collectGenerated(types);
+    }
+
+    /** Fill in this.generated in the order of a sequential run: A type comes after the types it requested (in
+     * the order it requested them), and the types come in the order of context.newTypes. */
+    private void collectGenerated(List<TypeDefinition> types) {
+        generated.clear();
+        for (TypeDefinition type: types)
+            collectGenerated(type);
+    }
+
+    private void collectGenerated(TypeDefinition type) {
+        if (generated.containsKey(type))
+            return;
+        final Generation generation= generations.get(type);
+        if (generation!=null) {
+            for (TypeDefinition requested: generation.requested)
+                collectGenerated(requested);
+            generated.put( type, join(generation.result) );
+        }
+        else { // Cached
+            for (String requested: cachedOutputs.get(type).requested)
+                collectGenerated( context.typeIndex().get(requested) );
+            generated.put( type, null );
+        }
+    }
+
+    /** Only if cache!=null: Types whose output (by the current plugin) was cached -> that output. */
+    private final Map<TypeDefinition, BuildCache.Output> cachedOutputs= new HashMap<>();
+    /** Only if cache!=null: Key of the current plugin. See BuildCache.pluginKey(Plugin). */
+    private String pluginKey;
+
+    /** Load cached outputs (if any) of the given types by the given plugin.
+     * @return The types that were not cached, in the same order. */
+    private List<TypeDefinition> loadCachedOutputs(Plugin plugin, List<TypeDefinition> types) {
+        cachedOutputs.clear();
+        if (cache==null)
+            return types;
+        pluginKey= BuildCache.pluginKey(plugin);
+        final List<TypeDefinition> toGenerate= new ArrayList<>();
+        for (TypeDefinition type: types) {
+            final BuildCache.Output output= cache.loadOutput( outputKey(type) );
+            boolean valid= output!=null;
+            // All requested types must still exist (and have an output, cached or not) for collectGenerated(..).
+            for (int i=0; valid && i<output.requested.size(); i++)
+                valid= context.typeIndex().get( output.requested.get(i) )!=null;
+            if (valid)
+                cachedOutputs.put( type, output );
+            else
+                toGenerate.add( type );
+        }
+        return toGenerate;
+    }
+
+    private String outputKey(TypeDefinition type) {
+        return BuildCache.outputKey( pluginKey, type, context.fileKey(context.sourceFileOf(type)) );
+    }
+
+    /** Write the output of the given plugin.wrap(..) for the given type (which must be in generated), followed by a
+     * line separator - unless it's empty. With a cache, reuse the cached output, or cache the new one. */
+    void writeWrapped(Plugin plugin, TypeDefinition type, Appendable out) throws IOException {
+        if (cache==null) {
+            final Indented wrapped= plugin.wrap( type, generated.get(type) );
+            if (!wrapped.isEmpty()) {
+                wrapped.writeTo( out );
+                out.append( System.lineSeparator() );
             }
+            return;
         }
+        BuildCache.Output output= cachedOutputs.get(type);
+        if (output==null) {
+            final Indented wrapped= plugin.wrap( type, generated.get(type) );
+            final StringBuilder text= new StringBuilder();
+            if (!wrapped.isEmpty()) {
+                wrapped.writeTo( text );
+                text.append( System.lineSeparator() );
+            }
+            final List<String> requested= new ArrayList<>();
+            for (TypeDefinition requestedType: generations.get(type).requested)
+                requested.add( requestedType.typeNameDefinition.fullName() );
+            output= new BuildCache.Output( requested, text.toString() );
+            cache.storeOutput( outputKey(type), output );
+            cachedOutputs.put( type, output );
+        }
+        out.append( output.text );
+    }
+
+    /** Types that a StreamingPlugin writes when there are no exports: all types to generate (see typesToGenerate(),
+     * or the types as of freeze()), but each after the types of its fields (transitively, in the order of the fields).
+     * That's the order of generated for a Plugin that generates the types of fields in the order of the fields. */
+    List<TypeDefinition> typesToStream() {
+        final List<TypeDefinition> types= frozenTypes!=null
+            ? frozenTypes
+            : typesToGenerate();
+        final Set<TypeDefinition> ordered= new LinkedHashSet<>();
+        final Set<TypeDefinition> visited= new HashSet<>();
+        for (TypeDefinition type: types)
+            addAfterFieldTypes( type, visited, ordered );
+        return new ArrayList<>(ordered);
+    }
+
+    private void addAfterFieldTypes(TypeDefinition type, Set<TypeDefinition> visited, Set<TypeDefinition> ordered) {
+        if (!visited.add(type))
+            return; // Already added, or a recursive type (which TypeWalker reports)
+        for (Field field: type.fields) {
+            for (TypeNameOfField fieldType: new TypeNameOfField[] {field.typeNameOfField, field.typeNameOfMapValues}) {
+                if (fieldType!=null && !fieldType.use.isPrimitive())
+                    addAfterFieldTypes( fieldType.resolve(context), visited, ordered );
+            }
+        }
+        ordered.add(type);
+    }
+
+    /** Write the output of the given streaming plugin for the given type, followed by a line separator - unless it's
+     * empty. It doesn't use generated, nor the cache: it generates as it writes. */
+    void writeStreamed(StreamingPlugin plugin, TypeDefinition type, Appendable out) throws IOException {
+        final IndentedWriter writer= new IndentedWriter(out);
+        plugin.wrap( type, new TypeWalker(context, plugin, writer), writer );
+        if (!writer.isEmpty())
+            out.append( System.lineSeparator() );
     }
 
     public Indented generateOrReuse (TypeDefinition typeDefinition, Plugin plugin) {
-        final Indented existing = generated.get (typeDefinition);
+        final Generation caller= currentGeneration.get();
+        if (caller!=null)
+            caller.requested.add(typeDefinition);
+
+        final Generation fresh= new Generation(typeDefinition);
+        final Generation existing= generations.putIfAbsent(typeDefinition, fresh);
         if (existing!=null)
-            return existing;
-        final Indented generatedNow= plugin.generate (typeDefinition, this);
-        generated.put (typeDefinition, generatedNow);
-        return generatedNow;
+            return existing.result.isDone()
+                ? join(existing.result)
+                : await(existing);
+
+        currentGeneration.set(fresh);
+        try {
+            final Indented generatedNow= plugin.generate (typeDefinition, this);
+            fresh.result.complete(generatedNow);
+            return generatedNow;
+        } catch (RuntimeException | Error e) {
+            fresh.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            currentGeneration.set(caller);
+        }
+    }
+
+    /** Wait for a generation in progress. If that (transitively) waits for the current Thread, then the types
+     * refer to each other in a cycle, which we don't support. Then fail, rather than deadlock. */
+    private Indented await(Generation generation) {
+        final Thread current= Thread.currentThread();
+        synchronized (waits) {
+            // A finished generation ends the chain: its owner may have moved on to other (unrelated) work.
+            for (Generation next= generation; next!=null && !next.result.isDone(); next= waits.get(next.owner)) {
+                if (next.owner==current)
+                    throw new IllegalStateException( "Type " +generation.typeDefinition.typeNameDefinition.fullName()
+                            + " refers to itself (directly or indirectly). Recursive types are not supported." );
+            }
+            waits.put(current, generation);
+        }
+        try {
+            return join(generation.result);
+        } finally {
+            synchronized (waits) {
+                waits.remove(current);
+            }
+        }
+    }
+
+    /** Like future.join(), but rethrow the original failure (rather than CompletionException). */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
     }
 }
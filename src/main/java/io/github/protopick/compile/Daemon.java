@@ -0,0 +1,128 @@
+package io.github.protopick.compile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import io.github.protopick.parse.ParseScheduler;
+
+/** Long-lived process that runs Run for each request, so that the requests share a warm JVM: loaded (and JIT-compiled)
+ * classes, plugin classes, parse threads, and a BuildCache in memory (plus on disk, if a request passes --cache_dir).
+ * Each request still gets its own ParserContext. Files with the same content as before get replayed from the cache
+ * rather than parsed, and types whose files (and their imports) didn't change don't get generated again. So the
+ * cost of a request is mostly that of what changed.
+ * <br/>
+ * Protocol over standard input and output (framed, big-endian), one request at a time:
+ * <br/>- request: number of arguments (negative to stop the daemon), then per argument: length of its UTF-8 bytes, the bytes.
+ * The arguments are the same as for Run. Relative paths are relative to the daemon's working directory.
+ * <br/>- response: status (0 on success, 1 on failure), then standard output, then standard error, each as length
+ * of its UTF-8 bytes, the bytes.
+ * <br/>
+ * (Not a Unix domain socket, since Java supports those only since version 16.)
+ * */
+public final class Daemon {
+    /** Maximum number of cache entries (per cache directory, or without a directory) to keep in memory. */
+    static final int MEMORY_ENTRIES= 10000;
+
+    final Executor parseScheduler= ParseScheduler.forkJoin();
+
+    /** Class name -> plugin class. Guarded by itself. */
+    private final Map<String, Class<?>> pluginClasses= new HashMap<>();
+
+    /** Cache directory (or null for memory only) -> cache. Guarded by itself. */
+    private final Map<String, BuildCache> caches= new HashMap<>();
+
+    Class<?> pluginClass (String className) throws ClassNotFoundException {
+        synchronized (pluginClasses) {
+            Class<?> result= pluginClasses.get(className);
+            if (result==null) {
+                result= Class.forName(className);
+                pluginClasses.put(className, result);
+            }
+            return result;
+        }
+    }
+
+    /** @param directory Cache directory, or null for a cache in memory only. */
+    BuildCache cache (String directory) {
+        synchronized (caches) {
+            BuildCache result= caches.get(directory);
+            if (result==null) {
+                try {
+                    result= new BuildCache( directory!=null ? Paths.get(directory) : null, MEMORY_ENTRIES );
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                caches.put(directory, result);
+            }
+            return result;
+        }
+    }
+
+    /** Serve requests until the end of input, or until a request to stop. */
+    public void serve (InputStream input, OutputStream output) throws IOException {
+        final DataInputStream in= new DataInputStream( new BufferedInputStream(input) );
+        final DataOutputStream out= new DataOutputStream( new BufferedOutputStream(output) );
+        while (true) {
+            final int argumentCount;
+            try {
+                argumentCount= in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (argumentCount<0)
+                return;
+            final String args[]= new String[argumentCount];
+            for (int i=0; i<argumentCount; i++)
+                args[i]= readString(in);
+
+            final StringWriter standardOutput= new StringWriter();
+            final ByteArrayOutputStream standardError= new ByteArrayOutputStream();
+            int status= 0;
+            try (PrintStream err= new PrintStream(standardError, true, StandardCharsets.UTF_8.name())) {
+                try {
+                    if (!Run.run( standardOutput, err, this, args ))
+                        status= 1;
+                } catch (RuntimeException | Error e) {
+                    status= 1;
+                    e.printStackTrace(err);
+                }
+            }
+            out.writeInt(status);
+            writeString( out, standardOutput.toString() );
+            writeString( out, new String(standardError.toByteArray(), StandardCharsets.UTF_8) );
+            out.flush();
+        }
+    }
+
+    private static String readString (DataInputStream in) throws IOException {
+        final byte bytes[]= new byte[ in.readInt() ];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString (DataOutputStream out, String string) throws IOException {
+        final byte bytes[]= string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    public static void main (String... args) throws IOException {
+        final PrintStream protocolOut= System.out;
+        // Anything else that printed to standard output would break the protocol.
+        System.setOut(System.err);
+        new Daemon().serve( System.in, protocolOut );
+    }
+}
@@ -0,0 +1,202 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Writes export files (see option -ep in Run) on a small pool of threads, so that rendering further exports and the
+ * disk I/O overlap. The queue of pending files is bounded: when it's full, the thread that submits a file writes it
+ * itself. That limits how much rendered output waits in memory.
+ * <br/>
+ * Each file is encoded (UTF-8) through one buffer at a time, into a FileChannel. A file whose content is the same as
+ * before (by size, then by SHA-256) doesn't get rewritten. That keeps its modification time, and hence downstream
+ * incremental builds (and Watch) quiet. The hashes of files that we wrote (or read) are remembered for the life of the
+ * JVM (which may serve many runs, see Daemon and Watch), so an unchanged file (by size and modification time) doesn't
+ * get read again.
+ * <br/>
+ * Call write(..) from one thread only, and at most once per file. Then awaitAll(), and close() in any case.
+ * */
+final class ExportWriter implements AutoCloseable {
+    static final int THREADS= 4;
+    /** Files that may wait for a writer thread, beyond those being written. */
+    static final int MAX_QUEUED= 16;
+    private static final int BUFFER_SIZE= 64*1024;
+
+    /** State of a file when we last wrote or hashed it. */
+    private static final class FileState {
+        final long size, modified;
+        final byte hash[];
+
+        FileState (long givenSize, long givenModified, byte givenHash[]) {
+            size= givenSize;
+            modified= givenModified;
+            hash= givenHash;
+        }
+    }
+    /** Absolute path -> its state as we last knew it. Shared by all instances in this JVM. */
+    private static final Map<Path, FileState> knownFiles= new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor pool;
+    /** Writes submitted so far. Each returns whether it wrote the file (rather than finding it unchanged). */
+    private final List<Future<Boolean>> writes= new ArrayList<>();
+
+    ExportWriter() {
+        this( THREADS, MAX_QUEUED );
+    }
+
+    ExportWriter (int threads, int maxQueued) {
+        pool= new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued),
+                                      new ThreadPoolExecutor.CallerRunsPolicy() );
+    }
+
+    /** Write the given content to the given file (creating any directories), asynchronously - unless the file has that
+     * content already. */
+    void write (Path path, String content) {
+        writes.add( pool.submit( () -> writeIfChanged(path, content) ) );
+    }
+
+    /** Like write(Path, String), but for binary content (as is). */
+    void write (Path path, byte content[]) {
+        writes.add( pool.submit( () -> writeIfChanged(path, content) ) );
+    }
+
+    /** Wait until all files are written (or found unchanged).
+     * @return Number of files that were written.
+     * @throws IOException The first failure of any write, if any. */
+    int awaitAll() throws IOException, InterruptedException {
+        int written= 0;
+        for (Future<Boolean> write: writes) {
+            try {
+                if (write.get())
+                    written++;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new RuntimeException( e.getCause() );
+            }
+        }
+        writes.clear();
+        return written;
+    }
+
+    /** Stop the threads. Any writes in progress still finish. */
+    @Override public void close() {
+        pool.shutdown();
+    }
+
+    /** @return Whether it wrote the file (false if the file had that content already). */
+    static boolean writeIfChanged (Path path, String content) throws IOException {
+        final MessageDigest digest= BuildCache.sha256();
+        final long size= encode( content, digest, null );
+        return writeIfChanged( path, size, digest.digest(), channel -> encode(content, null, channel) );
+    }
+
+    /** Like writeIfChanged(Path, String), but for binary content. */
+    static boolean writeIfChanged (Path path, byte content[]) throws IOException {
+        return writeIfChanged( path, content.length, BuildCache.sha256().digest(content), channel -> {
+            final ByteBuffer buffer= ByteBuffer.wrap(content);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        });
+    }
+
+    private static boolean writeIfChanged (Path path, long size, byte hash[], AtomicFiles.Content content) throws IOException {
+        final Path file= path.toAbsolutePath().normalize();
+        if (hasContent(file, size, hash))
+            return false;
+
+        // So that nothing sees a partially written file
+        AtomicFiles.write( file, content );
+        final BasicFileAttributes attributes= Files.readAttributes( file, BasicFileAttributes.class );
+        knownFiles.put( file, new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), hash) );
+        return true;
+    }
+
+    /** Whether the given file exists with the given size and hash. */
+    private static boolean hasContent (Path file, long size, byte hash[]) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes= Files.readAttributes( file, BasicFileAttributes.class );
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!attributes.isRegularFile() || attributes.size()!=size)
+            return false;
+        final long modified= attributes.lastModifiedTime().toMillis();
+        FileState known= knownFiles.get(file);
+        if (known==null || known.size!=size || known.modified!=modified) {
+            known= new FileState( size, modified, hashFile(file) );
+            knownFiles.put( file, known );
+        }
+        return MessageDigest.isEqual( known.hash, hash );
+    }
+
+    private static byte[] hashFile (Path file) throws IOException {
+        final MessageDigest digest= BuildCache.sha256();
+        final ByteBuffer buffer= ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel= FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer)>=0) {
+                buffer.flip();
+                digest.update( buffer );
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /** Encode the given content as UTF-8 (like String.getBytes(..) does), one buffer at a time, into the given digest
+     * and/or channel (either may be null).
+     * @return Number of bytes. */
+    private static long encode (String content, MessageDigest digest, FileChannel channel) throws IOException {
+        final CharsetEncoder encoder= StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput( CodingErrorAction.REPLACE )
+            .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        final CharBuffer chars= CharBuffer.wrap(content);
+        final ByteBuffer buffer= ByteBuffer.allocate(BUFFER_SIZE);
+        long size= 0;
+        for (boolean flushing= false; ; ) {
+            final CoderResult result= flushing
+                ? encoder.flush(buffer)
+                : encoder.encode(chars, buffer, true);
+            if (result.isError())
+                throw new CharacterCodingException(); // Not with CodingErrorAction.REPLACE
+            buffer.flip();
+            size+= buffer.remaining();
+            if (digest!=null)
+                digest.update( buffer.duplicate() );
+            while (channel!=null && buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+            if (result.isUnderflow()) {
+                if (flushing)
+                    return size;
+                flushing= true;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package io.github.protopick.compile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import io.github.protopick.parse.HandlingInstruction;
+import io.github.protopick.parse.ParserConstants;
+import io.github.protopick.parse.Token;
+
+/** Binary form of the model parsed from one .proto file: its imports and type definitions, in the order they are
+ * in that file. Reading replays them in that order through a Sink - the same as a Parser would register them.
+ * Used by BuildCache.
+ * */
+public final class ModelCodec {
+    private ModelCodec() {}
+
+    /** Receives what read(..) decodes, in order. */
+    public interface Sink {
+        void onImport (String filePath);
+        /** Register a new type, as ParserContext.addNewDefinition(..) does. The codec then fills in its fields. */
+        TypeDefinition onType (TypeNameDefinition typeName);
+    }
+
+    private static final byte END= 0, IMPORT= 1, TYPE= 2;
+    private static final byte NO_TYPE= 0, PRIMITIVE= 1, REFERENCE= 2;
+
+    /** @param declarations Import paths (String) and TypeDefinition instances, in the order they are in the file. All
+     * type definitions must come from the same file, parent types before their nested types.
+     * @throws UnsupportedOperationException If the model has anything that this format can't represent. Then don't cache it.
+     */
+    public static void write (DataOutput out, List<?> declarations) throws IOException {
+        final Map<TypeNameDefinition, Integer> typeIndexes= new HashMap<>();
+        for (Object declaration: declarations) {
+            if (declaration instanceof String) {
+                out.writeByte(IMPORT);
+                writeString( out, (String)declaration );
+            }
+            else {
+                final TypeDefinition type= (TypeDefinition)declaration;
+                final TypeNameDefinition typeName= type.typeNameDefinition;
+                out.writeByte(TYPE);
+                writeString( out, typeName.name );
+                out.writeBoolean( type.isEnum );
+                if (typeName.parentOrContext!=null) {
+                    final Integer parentIndex= typeIndexes.get(typeName.parentOrContext);
+                    if (parentIndex==null)
+                        throw new UnsupportedOperationException("Parent of " +typeName.fullName()+ " isn't a type defined (earlier) in the same file.");
+                    out.writeInt( parentIndex );
+                }
+                else {
+                    out.writeInt( -1 );
+                    writeString( out, typeName.packageName.name );
+                }
+                writeInstruction( out, type.getInstruction() );
+                out.writeInt( type.fields.size() );
+                for (Field field: type.fields) {
+                    out.writeByte( field.attribute!=null ? field.attribute.ordinal() : -1 );
+                    out.writeBoolean( field.isRepeated );
+                    out.writeBoolean( field.isMap );
+                    writeString( out, field.name );
+                    writeFieldType( out, field, field.typeNameOfField );
+                    writeFieldType( out, field, field.typeNameOfMapValues );
+                    writeInstruction( out, field.getInstruction() );
+                }
+                typeIndexes.put( typeName, typeIndexes.size() );
+            }
+        }
+        out.writeByte(END);
+    }
+
+    private static void writeFieldType (DataOutput out, Field field, TypeNameOfField fieldType) throws IOException {
+        if (fieldType==null)
+            out.writeByte(NO_TYPE);
+        else if (fieldType.use.isPrimitive()) {
+            out.writeByte(PRIMITIVE);
+            writeString( out, fieldType.name );
+        }
+        else {
+            if (fieldType.parentOrContext!=field.typeDefinition.typeNameDefinition)
+                throw new UnsupportedOperationException("Context of " +fieldType+ " isn't the type of " +field+ ".");
+            out.writeByte(REFERENCE);
+            writeString( out, fieldType.name );
+            writeString( out, fieldType.packageName!=null ? fieldType.packageName.name : null );
+        }
+    }
+
+    private static void writeInstruction (DataOutput out, HandlingInstruction instruction) throws IOException {
+        writeString( out, instruction!=null ? instruction.content : null );
+    }
+
+    /** Not DataOutput.writeUTF(..), because that's limited to 64KB (and comments can be long). */
+    private static void writeString (DataOutput out, String string) throws IOException {
+        if (string==null)
+            out.writeInt(-1);
+        else {
+            final byte bytes[]= string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    /** Decode what write(..) encoded, passing it to the given sink. */
+    public static void read (DataInput in, Sink sink) throws IOException {
+        final List<TypeNameDefinition> typeNames= new ArrayList<>();
+        for (byte tag= in.readByte(); tag!=END; tag= in.readByte()) {
+            if (tag==IMPORT) {
+                sink.onImport( readString(in) );
+                continue;
+            }
+            if (tag!=TYPE)
+                throw new IOException("Unexpected tag " +tag+ ".");
+            final String name= readString(in);
+            final boolean isEnum= in.readBoolean();
+            final Token newTypeToken= Token.newToken( isEnum ? ParserConstants.ENUM_TKN : ParserConstants.MESSAGE_TKN );
+            final int parentIndex= in.readInt();
+            final TypeNameDefinition typeName= parentIndex>=0
+                ? new TypeNameDefinition( newTypeToken, typeNames.get(parentIndex), name )
+                : new TypeNameDefinition( newTypeToken, newPackage(readString(in)), name );
+            final TypeDefinition type= sink.onType(typeName);
+            type.isEnum= isEnum;
+            type.setInstruction( readInstruction(in) );
+            for (int fieldCount= in.readInt(); fieldCount>0; fieldCount--) {
+                final Field field= new Field(type);
+                final byte attribute= in.readByte();
+                field.attribute= attribute>=0 ? Field.Attribute.values()[attribute] : null;
+                field.isRepeated= in.readBoolean();
+                field.isMap= in.readBoolean();
+                field.name= readString(in);
+                field.typeNameOfField= readFieldType( in, typeName );
+                field.typeNameOfMapValues= readFieldType( in, typeName );
+                field.setInstruction( readInstruction(in) );
+            }
+            typeNames.add(typeName);
+        }
+    }
+
+    private static TypeNamePackage newPackage (String name) {
+        return new TypeNamePackage( Token.newToken(ParserConstants.PACKAGE_TKN), name );
+    }
+
+    private static TypeNameOfField readFieldType (DataInput in, TypeNameDefinition context) throws IOException {
+        final byte kind= in.readByte();
+        switch (kind) {
+            case NO_TYPE: return null;
+            case PRIMITIVE: return new TypeNameOfField( Token.newToken(ParserConstants.TYPE_TKN, readString(in)) );
+            case REFERENCE: {
+                final String name= readString(in);
+                final String packageName= readString(in);
+                return new TypeNameOfField( packageName!=null ? newPackage(packageName) : null, context, name );
+            }
+            default: throw new IOException("Unexpected field type kind " +kind+ ".");
+        }
+    }
+
+    private static HandlingInstruction readInstruction (DataInput in) throws IOException {
+        final String content= readString(in);
+        return content!=null ? new HandlingInstruction(content) : null;
+    }
+
+    private static String readString (DataInput in) throws IOException {
+        final int length= in.readInt();
+        if (length<0)
+            return null;
+        final byte bytes[]= new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,338 @@
+package io.github.protopick.compile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import io.github.protopick.parse.HandlingInstruction;
+import io.github.protopick.parse.ParserConstants;
+import io.github.protopick.parse.Token;
+
+/** Binary snapshot of a whole parsed model: all files (with their imports and types, in order), all types and all
+ * their fields. Loading it rebuilds the model (see ParserContext.loadSnapshot(..)) without running any Parser.
+ * <br/>
+ * Layout (big-endian): MAGIC, VERSION, then sections:
+ * <br/>- string table: count, then per string: length of its UTF-8 bytes, the bytes. Everything else refers to strings by their index.
+ * <br/>- root files and include paths: count, string indexes (each).
+ * <br/>- files: count, then per file: path, size, last modified, number of declarations, and the declarations. A
+ * declaration is a type index (0 or higher), or an import: -1-(string index of the imported path).
+ * <br/>- types: count, then per type: name, flags, parent type (or -1), package (or -1), instruction (or -1), number of fields.
+ * Types come in the order they are declared in the files. Hence parents come before their nested types.
+ * <br/>- fields: for all types, in order: name, flags, two field types (kind, name, package), instruction.
+ * <br/>
+ * A file's size and last modified time tell whether it has changed since. Not as strict as a content hash (see
+ * BuildCache), but that would mean reading every file - which is what a snapshot avoids.
+ * */
+public final class ModelSnapshot {
+    private ModelSnapshot() {}
+
+    /** Increase whenever the layout changes. */
+    private static final int VERSION= 1;
+    private static final int MAGIC= 0x50505331; // "PPS1"
+
+    private static final int ENUM_FLAG= 1;
+    private static final int REPEATED_FLAG= 1, MAP_FLAG= 2, ATTRIBUTE_SHIFT= 2; // Attribute: 0 for none, or ordinal+1
+    private static final int NO_TYPE= 0, PRIMITIVE= 1, REFERENCE= 2;
+
+    /** Receives the model that read(..) decodes. */
+    public interface Sink {
+        /** @return Whether the given file still has the given size and last modified time. */
+        boolean isUnchanged (String filePath, long size, long lastModified);
+        /** Start of a file. Any onImport(..) and onType(..) that follow (until the next onFile(..)) are for that file. */
+        void onFile (String filePath);
+        void onImport (String importedPath);
+        /** Register a new type, as ParserContext.addNewDefinition(..) does. The snapshot then fills in its fields. */
+        TypeDefinition onType (TypeNameDefinition typeName);
+    }
+
+    /** Stat of a file, for write(..). */
+    public static final class FileStat {
+        public final long size, lastModified;
+
+        public FileStat (long givenSize, long givenLastModified) {
+            size= givenSize;
+            lastModified= givenLastModified;
+        }
+    }
+
+    /** Strings -> their indexes, in the order first added. */
+    private static final class StringTable {
+        final Map<String, Integer> indexes= new HashMap<>();
+        final List<String> strings= new ArrayList<>();
+
+        int indexOf (String string) {
+            if (string==null)
+                return -1;
+            Integer index= indexes.get(string);
+            if (index==null) {
+                index= strings.size();
+                strings.add(string);
+                indexes.put(string, index);
+            }
+            return index;
+        }
+    }
+
+    /** Write atomically (through a temporary file).
+     * @param files File path -> its imports (String) and type definitions, in the order they are in that file, as for
+     * ModelCodec.write(..). In the order to replay them.
+     * @param stats File path -> its stat. For every file in files.
+     * @throws UnsupportedOperationException If the model has anything that this format can't represent. Then the
+     * target doesn't get written.
+     * */
+    public static void write (Path target, List<String> rootFiles, List<String> includePaths, Map<String, List<?>> files,
+                              Map<String, FileStat> stats) throws IOException {
+        final StringTable strings= new StringTable();
+        final int roots[]= indexes( strings, rootFiles );
+        final int paths[]= indexes( strings, includePaths );
+
+        final Map<TypeNameDefinition, Integer> typeIndexes= new HashMap<>();
+        final List<TypeDefinition> types= new ArrayList<>();
+        final List<int[]> fileRecords= new ArrayList<>();
+        final int filePaths[]= new int[ files.size() ];
+        for (Map.Entry<String, List<?>> file: files.entrySet()) {
+            filePaths[ fileRecords.size() ]= strings.indexOf( file.getKey() );
+            final int record[]= new int[ file.getValue().size() ];
+            int i= 0;
+            for (Object declaration: file.getValue()) {
+                if (declaration instanceof String)
+                    record[i++]= -1 - strings.indexOf( (String)declaration );
+                else {
+                    final TypeDefinition type= (TypeDefinition)declaration;
+                    final TypeNameDefinition parent= type.typeNameDefinition.parentOrContext;
+                    if (parent!=null && !typeIndexes.containsKey(parent))
+                        throw new UnsupportedOperationException("Parent of " +type.typeNameDefinition.fullName()+ " isn't a type defined earlier.");
+                    typeIndexes.put( type.typeNameDefinition, types.size() );
+                    record[i++]= types.size();
+                    types.add(type);
+                }
+            }
+            fileRecords.add(record);
+        }
+
+        final ByteBuffer typeRecords= ByteBuffer.allocate( types.size()*6*4 );
+        int fieldCount= 0;
+        for (TypeDefinition type: types) {
+            final TypeNameDefinition typeName= type.typeNameDefinition;
+            typeRecords.putInt( strings.indexOf(typeName.name) );
+            typeRecords.putInt( type.isEnum ? ENUM_FLAG : 0 );
+            typeRecords.putInt( typeName.parentOrContext!=null ? typeIndexes.get(typeName.parentOrContext) : -1 );
+            typeRecords.putInt( typeName.parentOrContext==null ? strings.indexOf(typeName.packageName.name) : -1 );
+            typeRecords.putInt( instructionIndex(strings, type.getInstruction()) );
+            typeRecords.putInt( type.fields.size() );
+            fieldCount+= type.fields.size();
+        }
+        final ByteBuffer fieldRecords= ByteBuffer.allocate( fieldCount*9*4 );
+        for (TypeDefinition type: types) {
+            for (Field field: type.fields) {
+                fieldRecords.putInt( strings.indexOf(field.name) );
+                fieldRecords.putInt( (field.isRepeated ? REPEATED_FLAG : 0) | (field.isMap ? MAP_FLAG : 0)
+                        | (field.attribute!=null ? field.attribute.ordinal()+1 : 0) << ATTRIBUTE_SHIFT );
+                putFieldType( fieldRecords, strings, field, field.typeNameOfField );
+                putFieldType( fieldRecords, strings, field, field.typeNameOfMapValues );
+                fieldRecords.putInt( instructionIndex(strings, field.getInstruction()) );
+            }
+        }
+
+        final int fieldTotal= fieldCount;
+        AtomicFiles.write( target, channel -> {
+            final DataOutputStream out= new DataOutputStream(
+                new BufferedOutputStream( Channels.newOutputStream(channel), 64*1024 ) );
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt( strings.strings.size() );
+            for (String string: strings.strings) {
+                final byte bytes[]= string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+            writeInts( out, roots );
+            writeInts( out, paths );
+            out.writeInt( fileRecords.size() );
+            int fileIndex= 0;
+            for (String filePath: files.keySet()) {
+                final FileStat stat= stats.get(filePath);
+                out.writeInt( filePaths[fileIndex] );
+                out.writeLong( stat.size );
+                out.writeLong( stat.lastModified );
+                writeInts( out, fileRecords.get(fileIndex++) );
+            }
+            out.writeInt( types.size() );
+            out.write( typeRecords.array() );
+            out.writeInt( fieldTotal );
+            out.write( fieldRecords.array() );
+            out.flush(); // AtomicFiles closes the channel
+        });
+    }
+
+    private static int[] indexes (StringTable strings, List<String> list) {
+        final int result[]= new int[ list.size() ];
+        for (int i=0; i<result.length; i++)
+            result[i]= strings.indexOf( list.get(i) );
+        return result;
+    }
+
+    private static int instructionIndex (StringTable strings, HandlingInstruction instruction) {
+        return strings.indexOf( instruction!=null ? instruction.content : null );
+    }
+
+    private static void putFieldType (ByteBuffer records, StringTable strings, Field field, TypeNameOfField fieldType) {
+        if (fieldType==null) {
+            records.putInt(NO_TYPE).putInt(-1).putInt(-1);
+        }
+        else if (fieldType.use.isPrimitive()) {
+            records.putInt(PRIMITIVE).putInt( strings.indexOf(fieldType.name) ).putInt(-1);
+        }
+        else {
+            if (fieldType.parentOrContext!=field.typeDefinition.typeNameDefinition)
+                throw new UnsupportedOperationException("Context of " +fieldType+ " isn't the type of " +field+ ".");
+            records.putInt(REFERENCE).putInt( strings.indexOf(fieldType.name) )
+                   .putInt( fieldType.packageName!=null ? strings.indexOf(fieldType.packageName.name) : -1 );
+        }
+    }
+
+    private static void writeInts (DataOutputStream out, int values[]) throws IOException {
+        out.writeInt( values.length );
+        for (int value: values)
+            out.writeInt(value);
+    }
+
+    /** Load the snapshot (memory-mapped), if it exists, if it's valid and if it's for the given root files and include
+     * paths, and if none of its files has changed (see Sink.isUnchanged(..)). Only then does it replay the model
+     * through the sink: files in the order written, and within a file its imports and types in their order.
+     * @return Whether loaded.
+     * */
+    public static boolean read (Path source, List<String> rootFiles, List<String> includePaths, Sink sink) throws IOException {
+        if (!Files.isRegularFile(source))
+            return false;
+        final ByteBuffer in;
+        try (RandomAccessFile raf= new RandomAccessFile(source.toFile(), "r"); FileChannel channel= raf.getChannel()) {
+            in= channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        if (in.remaining()<8 || in.getInt()!=MAGIC || in.getInt()!=VERSION)
+            return false;
+
+        final String strings[]= new String[ in.getInt() ];
+        byte bytes[]= new byte[256];
+        for (int i=0; i<strings.length; i++) {
+            final int length= in.getInt();
+            if (length>bytes.length)
+                bytes= new byte[ Math.max(length, bytes.length*2) ];
+            in.get(bytes, 0, length);
+            strings[i]= new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        if (!Arrays.asList( strings(strings, readInts(in)) ).equals(rootFiles)
+            || !Arrays.asList( strings(strings, readInts(in)) ).equals(includePaths))
+            return false;
+
+        final int fileCount= in.getInt();
+        final String filePaths[]= new String[fileCount];
+        final int fileDeclarations[][]= new int[fileCount][];
+        for (int i=0; i<fileCount; i++) {
+            filePaths[i]= strings[ in.getInt() ];
+            final long size= in.getLong(), lastModified= in.getLong();
+            if (!sink.isUnchanged(filePaths[i], size, lastModified))
+                return false;
+            fileDeclarations[i]= readInts(in);
+        }
+
+        final int typeRecords[]= new int[ in.getInt()*6 ];
+        in.asIntBuffer().get(typeRecords);
+        in.position( in.position()+ typeRecords.length*4 );
+        final int fieldOffsets[]= new int[ typeRecords.length/6 ];
+        final int fieldRecords[]= new int[ in.getInt()*9 ];
+        in.asIntBuffer().get(fieldRecords);
+        for (int type=0, offset=0; type<fieldOffsets.length; type++) {
+            fieldOffsets[type]= offset;
+            offset+= typeRecords[type*6+5]*9;
+        }
+
+        final TypeNameDefinition typeNames[]= new TypeNameDefinition[fieldOffsets.length];
+        final Map<String, TypeNamePackage> packages= new HashMap<>();
+        for (int file=0; file<fileCount; file++) {
+            sink.onFile( filePaths[file] );
+            for (int declaration: fileDeclarations[file]) {
+                if (declaration<0) {
+                    sink.onImport( strings[-1-declaration] );
+                    continue;
+                }
+                final int record= declaration*6;
+                final boolean isEnum= (typeRecords[record+1] & ENUM_FLAG)!=0;
+                final Token newTypeToken= Token.newToken( isEnum ? ParserConstants.ENUM_TKN : ParserConstants.MESSAGE_TKN );
+                final String name= strings[ typeRecords[record] ];
+                final TypeNameDefinition typeName= typeRecords[record+2]>=0
+                    ? new TypeNameDefinition( newTypeToken, typeNames[typeRecords[record+2]], name )
+                    : new TypeNameDefinition( newTypeToken, packageOf(packages, strings[typeRecords[record+3]]), name );
+                typeNames[declaration]= typeName;
+                final TypeDefinition type= sink.onType(typeName);
+                type.isEnum= isEnum;
+                type.setInstruction( instruction(strings, typeRecords[record+4]) );
+                for (int field= 0, offset= fieldOffsets[declaration]; field<typeRecords[record+5]; field++, offset+= 9)
+                    readField( new Field(type), fieldRecords, offset, strings, packages );
+            }
+        }
+        return true;
+    }
+
+    private static void readField (Field field, int records[], int offset, String strings[], Map<String, TypeNamePackage> packages) {
+        field.name= strings[ records[offset] ];
+        final int flags= records[offset+1];
+        field.isRepeated= (flags & REPEATED_FLAG)!=0;
+        field.isMap= (flags & MAP_FLAG)!=0;
+        final int attribute= flags>>>ATTRIBUTE_SHIFT;
+        field.attribute= attribute>0 ? Field.Attribute.values()[attribute-1] : null;
+        final TypeNameDefinition context= field.typeDefinition.typeNameDefinition;
+        field.typeNameOfField= fieldType( records, offset+2, strings, packages, context );
+        field.typeNameOfMapValues= fieldType( records, offset+5, strings, packages, context );
+        field.setInstruction( instruction(strings, records[offset+8]) );
+    }
+
+    private static TypeNameOfField fieldType (int records[], int offset, String strings[], Map<String, TypeNamePackage> packages,
+                                              TypeNameDefinition context) {
+        switch (records[offset]) {
+            case NO_TYPE: return null;
+            case PRIMITIVE: return new TypeNameOfField( Token.newToken(ParserConstants.TYPE_TKN, strings[records[offset+1]]) );
+            default: return new TypeNameOfField(
+                records[offset+2]>=0 ? packageOf(packages, strings[records[offset+2]]) : null,
+                context, strings[records[offset+1]] );
+        }
+    }
+
+    private static TypeNamePackage packageOf (Map<String, TypeNamePackage> packages, String name) {
+        TypeNamePackage result= packages.get(name);
+        if (result==null) {
+            result= new TypeNamePackage( Token.newToken(ParserConstants.PACKAGE_TKN), name );
+            packages.put(name, result);
+        }
+        return result;
+    }
+
+    private static HandlingInstruction instruction (String strings[], int index) {
+        return index>=0 ? new HandlingInstruction( strings[index] ) : null;
+    }
+
+    private static int[] readInts (ByteBuffer in) {
+        final int result[]= new int[ in.getInt() ];
+        in.asIntBuffer().get(result);
+        in.position( in.position()+ result.length*4 );
+        return result;
+    }
+
+    private static String[] strings (String strings[], int indexes[]) {
+        final String result[]= new String[indexes.length];
+        for (int i=0; i<indexes.length; i++)
+            result[i]= strings[ indexes[i] ];
+        return result;
+    }
+}
@@ -0,0 +1,254 @@
+package io.github.protopick.compile;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Instrumentation of a run (option --profile in Run): where the time and the memory went, per phase. The phases report
+ * to it only if it's set (ParserContext.profile, CompiledSet.profile...). Otherwise they only check for null - no clock
+ * reads, no counting, no events.
+ * <br/>
+ * Allocated memory is per thread (see allocatedBytes()), as the HotSpot JVM tells it. Other JVMs may not: then the
+ * summary leaves it out.
+ * <br/>
+ * It reports both as a summary (see printSummary(PrintStream)), and as custom JFR events (see ProfileEvents), if JFR
+ * is available. Thread-safe: Parsing and generating report from several threads.
+ * */
+public final class Profile {
+    /** Number of the slowest files to list in the summary. */
+    private static final int SLOWEST_FILES= 10;
+
+    private final long startNanos= System.nanoTime();
+    private final boolean jfr= isJfrAvailable();
+    /** Charset of standard output, for the size of the output that goes there (see rendered(..)). As Run.main(..)
+     * encodes it, unless set otherwise. */
+    Charset standardOutputCharset= Charset.defaultCharset();
+    /** Null, unless the JVM tells the memory allocated by a thread. */
+    private final ThreadMXBean allocation= allocationBean();
+    private final Object resolveEvent;
+
+    public Profile() {
+        resolveEvent= jfr ? ProfileEvents.beginResolve() : null;
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /** @return The ThreadMXBean, if it's a com.sun.management.ThreadMXBean that tells allocated memory, or else null. */
+    private static ThreadMXBean allocationBean() {
+        try {
+            final ThreadMXBean bean= ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean sunBean= (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+                    return bean;
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {}
+        return null;
+    }
+
+    /** @return Bytes allocated by the current thread so far, or 0 if the JVM doesn't tell. Take the difference of two
+     * calls on the same thread, and pass it to fileParsed(..), generated(..) or rendered(..). */
+    public long allocatedBytes() {
+        return allocation!=null
+            ? ((com.sun.management.ThreadMXBean) allocation).getThreadAllocatedBytes( Thread.currentThread().getId() )
+            : 0;
+    }
+
+    private static final class FileStats {
+        final String file;
+        final long bytes, tokens, loadNanos, parseNanos, allocated;
+        final boolean fromCache;
+
+        FileStats (String givenFile, long givenBytes, long givenTokens, long givenLoadNanos, long givenParseNanos,
+                   long givenAllocated, boolean givenFromCache) {
+            file= givenFile;
+            bytes= givenBytes;
+            tokens= givenTokens;
+            loadNanos= givenLoadNanos;
+            parseNanos= givenParseNanos;
+            allocated= givenAllocated;
+            fromCache= givenFromCache;
+        }
+    }
+    private final ConcurrentLinkedQueue<FileStats> files= new ConcurrentLinkedQueue<>();
+
+    private final LongAdder resolutions= new LongAdder(), resolutionMemoHits= new LongAdder();
+
+    private static final class PluginStats {
+        final String plugin;
+        long generateNanos, renderNanos, bytes, generateAllocated, renderAllocated;
+        int types, cachedTypes;
+
+        PluginStats (String givenPlugin) {
+            plugin= givenPlugin;
+        }
+    }
+    /** In the order the plugins run. Guarded by itself. */
+    private final List<PluginStats> plugins= new ArrayList<>();
+
+    /** Call when starting to load a file.
+     * @return A handle to pass to fileParsed(..). */
+    public Object fileStarted() {
+        return jfr ? ProfileEvents.beginParseFile() : null;
+    }
+
+    /** @param handle From fileStarted().
+     * @param loadNanos Reading and decoding the file.
+     * @param parseNanos Lexing and parsing (or replaying the model from the cache).
+     * @param allocated Bytes allocated by loading and parsing. See allocatedBytes(). */
+    public void fileParsed (Object handle, String file, long bytes, long tokens, long loadNanos, long parseNanos,
+                            long allocated, boolean fromCache) {
+        files.add( new FileStats(file, bytes, tokens, loadNanos, parseNanos, allocated, fromCache) );
+        if (jfr)
+            ProfileEvents.commitParseFile( handle, file, bytes, tokens, fromCache );
+    }
+
+    /** A field type got resolved. See TypeIndex. */
+    void resolved (boolean memoHit) {
+        resolutions.increment();
+        if (memoHit)
+            resolutionMemoHits.increment();
+    }
+
+    private PluginStats pluginStats (String plugin) {
+        synchronized (plugins) {
+            for (PluginStats stats: plugins) {
+                if (stats.plugin.equals(plugin))
+                    return stats;
+            }
+            final PluginStats stats= new PluginStats(plugin);
+            plugins.add(stats);
+            return stats;
+        }
+    }
+
+    /** @return A handle to pass to generated(..). */
+    Object generateStarted() {
+        return jfr ? ProfileEvents.beginGenerate() : null;
+    }
+
+    /** @param allocated Bytes allocated by the thread that called generateStarted(). Any other threads that generate
+     * report through generateAllocated(..). */
+    void generated (Object handle, String plugin, long nanos, long allocated, int types, int cachedTypes) {
+        final PluginStats stats= pluginStats(plugin);
+        synchronized (plugins) {
+            stats.generateNanos+= nanos;
+            stats.generateAllocated+= allocated;
+            stats.types+= types;
+            stats.cachedTypes+= cachedTypes;
+        }
+        if (jfr)
+            ProfileEvents.commitGenerate( handle, plugin, types, cachedTypes );
+    }
+
+    /** Bytes allocated by a thread (other than the one that reports generated(..)) that generated for the given plugin.
+     * See CompiledSet.generateAll(..). */
+    void generateAllocated (String plugin, long allocated) {
+        final PluginStats stats= pluginStats(plugin);
+        synchronized (plugins) {
+            stats.generateAllocated+= allocated;
+        }
+    }
+
+    /** @return A handle to pass to rendered(..). */
+    Object renderStarted() {
+        return jfr ? ProfileEvents.beginRender() : null;
+    }
+
+    /** @param bytes Size of the output, encoded (see encodedLength(..)).
+     * @param allocated Bytes allocated by rendering. See allocatedBytes(). */
+    void rendered (Object handle, String plugin, long nanos, long bytes, long allocated) {
+        final PluginStats stats= pluginStats(plugin);
+        synchronized (plugins) {
+            stats.renderNanos+= nanos;
+            stats.bytes+= bytes;
+            stats.renderAllocated+= allocated;
+        }
+        if (jfr)
+            ProfileEvents.commitRender( handle, plugin, bytes );
+    }
+
+    /** @return Number of bytes that the given characters encode to in the given charset. For UTF-8 that's computed
+     * without encoding (and it assumes well-formed surrogate pairs, even if split across calls). */
+    static long encodedLength (CharSequence chars, int start, int end, Charset charset) {
+        if (!charset.equals(StandardCharsets.UTF_8))
+            return charset.encode( CharBuffer.wrap(chars, start, end) ).remaining();
+        long length= 0;
+        for (int i=start; i<end; i++) {
+            final char c= chars.charAt(i);
+            if (c<0x80)
+                length++;
+            else if (c<0x800)
+                length+= 2;
+            else if (Character.isHighSurrogate(c))
+                length+= 4; // Together with its low surrogate
+            else if (!Character.isLowSurrogate(c))
+                length+= 3;
+        }
+        return length;
+    }
+
+    private static String millis (long nanos) {
+        return String.format( Locale.ROOT, "%.1f ms", nanos/1e6 );
+    }
+
+    /** @return ", allocated ..." for the given bytes, or "" if the JVM doesn't tell allocated memory. */
+    private String allocated (long bytes) {
+        return allocation!=null
+            ? String.format( Locale.ROOT, ", allocated %.1f MB", bytes/1e6 )
+            : "";
+    }
+
+    /** Print a human-readable summary. Call once, at the end of the run. */
+    public void printSummary (PrintStream out) {
+        if (jfr)
+            ProfileEvents.commitResolve( resolveEvent, resolutions.sum(), resolutionMemoHits.sum() );
+
+        final List<FileStats> fileList= new ArrayList<>(files);
+        long bytes= 0, tokens= 0, loadNanos= 0, parseNanos= 0, allocated= 0;
+        int fromCache= 0;
+        for (FileStats file: fileList) {
+            bytes+= file.bytes;
+            tokens+= file.tokens;
+            loadNanos+= file.loadNanos;
+            parseNanos+= file.parseNanos;
+            allocated+= file.allocated;
+            if (file.fromCache)
+                fromCache++;
+        }
+        out.println("Profile (times and allocations of files are summed across threads):");
+        out.println("  parse: " +fileList.size()+ " file(s) (" +fromCache+ " from cache), " +bytes+ " bytes, "
+                    +tokens+ " tokens; load " +millis(loadNanos)+ ", parse " +millis(parseNanos) +allocated(allocated));
+        Collections.sort( fileList, (a, b) -> Long.compare(b.loadNanos+b.parseNanos, a.loadNanos+a.parseNanos) );
+        for (FileStats file: fileList.subList(0, Math.min(SLOWEST_FILES, fileList.size())))
+            out.println("    " +file.file+ ": " +file.bytes+ " bytes, " +file.tokens+ " tokens; load " +millis(file.loadNanos)
+                        + ", parse " +millis(file.parseNanos) +(file.fromCache ? " (from cache)" : ""));
+
+        final long lookups= resolutions.sum(), hits= resolutionMemoHits.sum();
+        out.println("  resolve: " +lookups+ " lookup(s), " +hits+ " memo hit(s)"
+                    +(lookups>0 ? String.format(Locale.ROOT, " (%.0f%%)", 100.0*hits/lookups) : ""));
+        synchronized (plugins) {
+            for (PluginStats stats: plugins)
+                out.println("  plugin " +stats.plugin+ ": generate " +millis(stats.generateNanos)+ " (" +stats.types+ " type(s), "
+                            +stats.cachedTypes+ " from cache)" +allocated(stats.generateAllocated)+ "; render "
+                            +millis(stats.renderNanos)+ ", " +stats.bytes+ " bytes" +allocated(stats.renderAllocated));
+        }
+        out.println("  total: " +millis( System.nanoTime()-startNanos ));
+    }
+}
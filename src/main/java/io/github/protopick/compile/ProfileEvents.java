@@ -0,0 +1,105 @@
+package io.github.protopick.compile;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Custom JDK Flight Recorder events of Profile. Only Profile uses this class, and only if jdk.jfr is available (Java 11+,
+ * or 8u262+). Record them with -XX:StartFlightRecording (together with --profile).
+ * <br/>
+ * Events are passed around as Object, so that callers don't need to load any jdk.jfr classes.
+ * */
+final class ProfileEvents {
+    private ProfileEvents() {}
+
+    private static final String CATEGORY= "Protopick";
+
+    @Name("io.github.protopick.ParseFile") @Label("Parse File") @Category(CATEGORY)
+    @Description("Loading and parsing one .proto file, or replaying it from the build cache")
+    static final class ParseFile extends Event {
+        @Label("File") String file;
+        @Label("Size") @DataAmount long bytes;
+        @Label("Tokens") long tokens;
+        @Label("From Cache") boolean fromCache;
+    }
+
+    @Name("io.github.protopick.Generate") @Label("Generate") @Category(CATEGORY)
+    @Description("Generating all types by one plugin")
+    static final class Generate extends Event {
+        @Label("Plugin") String plugin;
+        @Label("Types") int types;
+        @Label("Types From Cache") int cachedTypes;
+    }
+
+    @Name("io.github.protopick.Render") @Label("Render") @Category(CATEGORY)
+    @Description("Wrapping and rendering the output of one plugin")
+    static final class Render extends Event {
+        @Label("Plugin") String plugin;
+        @Label("Size") @DataAmount long bytes;
+    }
+
+    @Name("io.github.protopick.Resolve") @Label("Resolve") @Category(CATEGORY)
+    @Description("Resolution of field types, from the start of the run until its end")
+    static final class Resolve extends Event {
+        @Label("Lookups") long lookups;
+        @Label("Memo Hits") long memoHits;
+    }
+
+    static Object beginParseFile() {
+        final ParseFile event= new ParseFile();
+        event.begin();
+        return event;
+    }
+
+    static void commitParseFile (Object started, String file, long bytes, long tokens, boolean fromCache) {
+        final ParseFile event= (ParseFile) started;
+        event.file= file;
+        event.bytes= bytes;
+        event.tokens= tokens;
+        event.fromCache= fromCache;
+        event.commit();
+    }
+
+    static Object beginGenerate() {
+        final Generate event= new Generate();
+        event.begin();
+        return event;
+    }
+
+    static void commitGenerate (Object started, String plugin, int types, int cachedTypes) {
+        final Generate event= (Generate) started;
+        event.plugin= plugin;
+        event.types= types;
+        event.cachedTypes= cachedTypes;
+        event.commit();
+    }
+
+    static Object beginRender() {
+        final Render event= new Render();
+        event.begin();
+        return event;
+    }
+
+    static void commitRender (Object started, String plugin, long bytes) {
+        final Render event= (Render) started;
+        event.plugin= plugin;
+        event.bytes= bytes;
+        event.commit();
+    }
+
+    static Object beginResolve() {
+        final Resolve event= new Resolve();
+        event.begin();
+        return event;
+    }
+
+    static void commitResolve (Object started, long lookups, long memoHits) {
+        final Resolve event= (Resolve) started;
+        event.lookups= lookups;
+        event.memoHits= memoHits;
+        event.commit();
+    }
+}
@@ -1,21 +1,45 @@
 package io.github.protopick.compile;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 // Watch out: Both Apache Commons CLI, and JavaCC-generated code, define class "ParseException"
 import org.apache.commons.cli.ParseException;
-import io.github.protopick.generate.FirstPerGroup;
+import io.github.protopick.generate.BsonPlugin;
+import io.github.protopick.generate.BsonWriter;
 import io.github.protopick.generate.Indented;
 import io.github.protopick.generate.Plugin;
+import io.github.protopick.generate.StreamingPlugin;
 import io.github.protopick.generate.Tools;
+import io.github.protopick.parse.ParseScheduler;
 import io.github.protopick.parse.ParserContext;
 
 public class Run {
@@ -25,13 +49,15 @@ public class Run {
             .numberOfArgs(2) //@TODO test with hasArgs()
             .valueSeparator()
             .desc( "Export pair: package.qualified.type=output/file-with-extension. You can pass multiple, "
-                        +"one '-ep pair' or '--export_pair pair' per each type to be exported.")
+                        +"one '-ep pair' or '--export_pair pair' per each type to be exported. With a BsonPlugin (like "
+                        +"MongoCommands), files ending with .bson get binary BSON (then use only one plugin).")
             .build();
         options.addOption(exportsOpt);
 
         Option filesOpt= Option.builder("f").longOpt("files")
-           .desc(".proto file(s). Must exist in one of the import path(s).")
-           .hasArgs().required().build();
+           .desc(".proto file(s). Must exist in one of the import path(s) - or in the descriptor set, with '-ds'. "
+                 +"Required, unless with '-b'.")
+           .hasArgs().build();
         options.addOption(filesOpt);
 
         Option helpOpt= Option.builder("h").longOpt("help")
@@ -42,11 +68,32 @@ public class Run {
         // time. It's optional. However, even if you do import any files from the same folder as the 'start' file (on
         // which you're invoking this), you must pass '-IPATH' or `--proto_path` for that 'start' folder, too.
         Option protoPathOpt= Option.builder("I").longOpt( "proto_path" )
-           .desc( "Import path(s)." )
+           .desc( "Import path(s). Required, unless with '-ds'." )
            .hasArgs() // Since we use .hasArgs(), we have to have an option with .haArgs() for the .proto file(s), too. We can't use cli.getArgs() to get the .proto file(s) from the rest of the arguments (after any options), because hasArgs() would consume them (if this were the last option). But this choice makes it more robust. It also requires the commandline parameters to be more intentional.
-           .required().build();
+           .build();
         options.addOption (protoPathOpt);
 
+        Option cacheDirOpt= Option.builder("cd").longOpt("cache_dir")
+            .desc( "Directory for a build cache, shared across runs. Then unchanged .proto files don't get parsed "
+                   +"again, and types don't get generated again unless they, or any files they depend on, changed. "
+                   +"It tracks the code of this tool and of the plugins (their jars or class directories). Clear it "
+                   +"after upgrading any other libraries that plugins use.")
+            .hasArg().build();
+        options.addOption(cacheDirOpt);
+
+        Option lazyImportsOpt= Option.builder("li").longOpt("lazy_imports")
+            .desc( "Parse imported files only if (and once) a type from them is needed. Then, without any '-ep', "
+                   +"only the types of the -f file(s) (and the types they use) get generated." )
+            .build();
+        options.addOption(lazyImportsOpt);
+
+        Option descriptorSetOpt= Option.builder("ds").longOpt("descriptor_set")
+            .desc( "Load the model from a FileDescriptorSet written by 'protoc --descriptor_set_out' (best with "
+                   +"--include_imports and --include_source_info), rather than parsing .proto files. Then '-f' names "
+                   +"files of the set. Not with '-cd', '-li', '-ms' or '-w'.")
+            .hasArg().build();
+        options.addOption(descriptorSetOpt);
+
         // Later: '-ei item' or '--export_item item'
         // together with '-ee extension' or '--export_extension extension' and
         // '-en sand-wich', '-en under_score' or '-en lowercase' (or --export_naming with the same values)
@@ -57,11 +104,65 @@ public class Run {
             .hasArg().build();
         options.addOption(outputOpt);
 
+        Option modelSnapshotOpt= Option.builder("ms").longOpt("model_snapshot")
+            .desc( "Snapshot file of the parsed model. If it exists, and none of the .proto files has changed since "
+                   +"(by size and modification time), load the model from it rather than parsing. Otherwise parse, and "
+                   +"(re)write it. Not with '-li'.")
+            .hasArg().build();
+        options.addOption(modelSnapshotOpt);
+
         Option pluginsOpt= Option.builder("p").longOpt("plugin")
-            .desc( "Plugin(s). Full, package-qualified Java class name(s).")
-            .hasArgs().required().build();
+            .desc( "Plugin(s). Full, package-qualified Java class name(s). Several plugins generate concurrently, but "
+                   +"their outputs come in the given order. Required, unless with '-b'.")
+            .hasArgs().build();
         options.addOption(pluginsOpt);
 
+        Option streamOpt= Option.builder("s").longOpt("stream")
+            .desc( "Use the streaming API (StreamingPlugin) of plugins that implement both it and Plugin. That writes "
+                   +"as it generates, rather than keeping the output of all types in memory. Plugins that implement "
+                   +"only StreamingPlugin always stream. Streaming ignores -gt and the cached outputs (of -cd).")
+            .build();
+        options.addOption(streamOpt);
+
+        Option generateThreadsOpt= Option.builder("gt").longOpt("generate_threads")
+            .desc( "Number of threads to generate types with (per plugin). Default: 1. The output is the same, "
+                   +"regardless of the number of threads.")
+            .hasArg().build();
+        options.addOption(generateThreadsOpt);
+
+        Option profileOpt= Option.builder("pf").longOpt("profile")
+            .desc( "Print where the time went (per phase, and the slowest files), the memory each phase allocated (if "
+                   +"the JVM tells), and the size of the output in bytes to standard error at the end. If JFR is "
+                   +"available, then also emit custom JFR events (record them with -XX:StartFlightRecording).")
+            .build();
+        options.addOption(profileOpt);
+
+        Option fastLexerOpt= Option.builder("fl").longOpt("fast_lexer")
+            .desc( "Tokenize with a hand-written lexer (FastLexer) that scans bytes, rather than with the lexer "
+                   +"generated by JavaCC. The tokens are the same.")
+            .build();
+        options.addOption(fastLexerOpt);
+
+        Option parseThreadsOpt= Option.builder("pt").longOpt("parse_threads")
+            .desc( "Number of threads to parse .proto files with. Default: number of CPU cores. Or '"
+                   +ParseScheduler.VIRTUAL+ "' for one virtual thread per file (Java 21+).")
+            .hasArg().build();
+        options.addOption(parseThreadsOpt);
+
+        Option batchOpt= Option.builder("b").longOpt("batch")
+            .desc( "Manifest file of jobs that share one parsed model: each .proto file gets parsed once, however many "
+                   +"jobs use it, and the jobs generate in parallel. One job per line, with its own '-f', '-p', and any "
+                   +"'-ep', '-o', '-s' and '-gt' (and none of those on the command line). A job without '-ep' generates "
+                   +"the types of its '-f' files and their imports only. Not with '-li' or '-w'.")
+            .hasArg().build();
+        options.addOption(batchOpt);
+
+        Option watchOpt= Option.builder("w").longOpt("watch")
+            .desc( "After generating, keep watching the import path(s). Whenever a .proto file changes, generate again: "
+                   +"only what the change affects. Output files that would stay the same don't get rewritten.")
+            .build();
+        options.addOption(watchOpt);
+
         /* @TODO
         Option instructedOnly= Option
             .builder("io")
@@ -71,10 +172,51 @@ public class Run {
         return options;
     }
 
+    /** Counts the bytes that the characters it passes on encode to (in the given charset), for --profile. */
+    private static final class CountingAppendable implements Appendable {
+        private final Appendable target;
+        private final Charset charset;
+        long count;
+
+        CountingAppendable( Appendable givenTarget, Charset givenCharset ) {
+            target= givenTarget;
+            charset= givenCharset;
+        }
+
+        public Appendable append( CharSequence sequence ) throws IOException {
+            return append( sequence, 0, String.valueOf(sequence).length() );
+        }
+
+        public Appendable append( CharSequence sequence, int start, int end ) throws IOException {
+            count+= Profile.encodedLength( sequence, start, end, charset );
+            target.append( sequence, start, end );
+            return this;
+        }
+
+        public Appendable append( char c ) throws IOException {
+            count+= Profile.encodedLength( String.valueOf(c), 0, 1, charset );
+            target.append(c);
+            return this;
+        }
+    }
+
     public static void main(String... args) {
+        // Stream the output, rather than building (potentially many megabytes of) Strings for System.out.println(..).
+        if (!run( new BufferedWriter( new OutputStreamWriter(System.out), 64*1024 ), System.err, null, args ))
+            System.exit(1);
+    }
+
+    /** Run with the given arguments. Write any standard output to out (and flush it at the end), and any errors to err.
+     * @param daemon Null, unless run by Daemon: then reuse its warm state (its cache, parse threads and plugin classes).
+     * @return False if the arguments (or a line of the batch manifest) didn't parse: then it printed the error and the
+     * usage. Otherwise true. */
+    static boolean run( Writer out, PrintStream err, Daemon daemon, String... args ) {
         final ParserContext context= new ParserContext();
-        final CompiledSet compiledSet= new CompiledSet(context);
-        final List<Plugin> plugins= new java.util.ArrayList<>(); // Not a Set, because we apply them in order
+        // One job, or (with -b) one per line of the manifest
+        final List<Job> jobs= new ArrayList<>();
+        Path modelSnapshot= null;
+        Path descriptorSet= null;
+        Profile profile= null;
         {
             final Options options= createOptions();
             CommandLineParser parser = new DefaultParser();
@@ -84,8 +226,10 @@ public class Run {
                     cli = parser.parse(options, args);
                     if (cli.getArgs().length>0)
                         throw new ParseException("Unexpected value(s) at the end: " +cli.getArgList());
-                    compiledSet.inputFileNames= cli.getOptionValues('f');
+                    if (!cli.hasOption('h') && !cli.hasOption("b"))
+                        requireJobOptions(cli);
                 } catch (ParseException exp) {
+                    cli= null;
                     Options helpOnlyOptions= new Options();
                     helpOnlyOptions.addOption( options.getOption("h") );
                     // Alternatively we could use a regex: (\s|^)(-h|--help)(\s|$)
@@ -100,58 +244,474 @@ public class Run {
                         // The user didn't provide -h or --help, or they mixed it with other options
                         showParseErrors= true;
                     }
-                    if (showParseErrors)
-                        System.err.println("Error parsing the parameters: " + exp.getMessage());
+                    if (showParseErrors) {
+                        err.println("Error parsing the parameters: " + exp.getMessage());
+                        printHelp( out, options );
+                        return false;
+                    }
                 }
             }
             if (cli==null || cli.hasOption('h')) {
-                HelpFormatter formatter = new HelpFormatter();
-                String header= "Most options are multi-value. Some accept multiple values for the same option. Others accept one pair per option, but you can repeat the option with different pairs.";
-                String footer= "<footer @TODO>";
-                formatter.printHelp( "gradle run --args='args...' OR: java io.github.protopick", header, options, footer, true );
-                return;
+                printHelp( out, options );
+                return true;
             }
 
             // Don't use proto_path.getValue(), it was null!
+            if (cli.hasOption("ds")) {
+                for (String other: new String[] {"cd", "li", "ms", "w"}) {
+                    if (cli.hasOption(other))
+                        throw new IllegalArgumentException("Can't use both -ds (--descriptor_set) and -" +other+ " (--"
+                                                           +options.getOption(other).getLongOpt()+ ").");
+                }
+                descriptorSet= Paths.get( cli.getOptionValue("ds") );
+            }
             context.includePaths= cli.getOptionValues('I');
             //System.out.println( "context.includePaths: " +Arrays.asList(context.includePaths));
-            if (context.includePaths==null) // if the option is not present, this not an empty array, but null!
-                throw new IllegalArgumentException("Must pass some -I or --proto_path, even for the folder(s) where the start file(s) are.");
+            if (context.includePaths==null) { // if the option is not present, this not an empty array, but null!
+                if (descriptorSet==null)
+                    throw new IllegalArgumentException("Must pass some -I or --proto_path, even for the folder(s) where the start file(s) are.");
+                context.includePaths= new String[0];
+            }
 
-            String pluginClassNames[]= cli.getOptionValues('p');
-            if (pluginClassNames==null)
-                throw new IllegalArgumentException("Must pass a -p or --plugin option with a generator's full class name.");
-            for (String pluginClassName: pluginClassNames) {
+            if (cli.hasOption("b")) {
+                for (String jobOption: JOB_OPTIONS) {
+                    if (cli.hasOption(jobOption))
+                        throw new IllegalArgumentException("With -b (--batch), pass -" +jobOption+ " (--"
+                                                           +options.getOption(jobOption).getLongOpt()+ ") per job, in the manifest.");
+                }
+                for (String other: new String[] {"li", "w"}) {
+                    if (cli.hasOption(other))
+                        throw new IllegalArgumentException("Can't use both -b (--batch) and -" +other+ " (--"
+                                                           +options.getOption(other).getLongOpt()+ ").");
+                }
+                final List<String[]> manifest;
                 try {
-                    Class<Plugin> pluginClass = (Class<Plugin>) Class
-                            .forName(pluginClassName);
-                    plugins.add( pluginClass.newInstance() );
-                } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-                    throw new RuntimeException("Couldn't load a plugin class " + pluginClassName, e);
+                    manifest= Batch.readManifest( Paths.get(cli.getOptionValue("b")) );
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
+                for (String jobArgs[]: manifest) {
+                    final String where= "Batch job " +(jobs.size()+1)+ ": ";
+                    final CommandLine jobCli;
+                    try {
+                        jobCli= parser.parse(options, jobArgs);
+                        if (jobCli.getArgs().length>0)
+                            throw new ParseException("Unexpected value(s) at the end: " +jobCli.getArgList());
+                        requireJobOptions(jobCli);
+                    } catch (ParseException e) {
+                        err.println("Error parsing the parameters: " +where + e.getMessage());
+                        printHelp( out, options );
+                        return false;
+                    }
+                    for (Option option: jobCli.getOptions()) {
+                        if (!Arrays.asList(JOB_OPTIONS).contains(option.getOpt()))
+                            throw new IllegalArgumentException( where+ "Pass -" +option.getOpt()+ " (--" +option.getLongOpt()
+                                                                +") on the command line, rather than per job." );
+                    }
+                    final Job job= job( context, jobCli, daemon );
+                    job.compiledSet.scopedToInputFiles= true;
+                    jobs.add( job );
+                }
+                if (jobs.isEmpty())
+                    throw new IllegalArgumentException("The batch manifest has no jobs.");
             }
-            compiledSet.out= cli.getOptionValue('o');
-            if (compiledSet.out == null)
-                compiledSet.out = "";
-            else if (!compiledSet.out.endsWith(File.separator))
-                compiledSet.out += File.separatorChar;
+            else
+                jobs.add( job(context, cli, daemon) );
 
-            compiledSet.exportItems= cli.getOptionProperties("ep"); // Contrary to cli.getOptionValues(String), this is guaranteed non-null
+            context.lazyImports= cli.hasOption("li");
+            context.fastLexer= cli.hasOption("fl");
+            if (cli.hasOption("pf")) {
+                context.profile= profile= new Profile();
+                if (daemon!=null)
+                    profile.standardOutputCharset= StandardCharsets.UTF_8; // As Daemon sends it
+            }
+            if (cli.hasOption("ms")) {
+                if (context.lazyImports)
+                    throw new IllegalArgumentException("Can't use both -ms (--model_snapshot) and -li (--lazy_imports).");
+                modelSnapshot= Paths.get( cli.getOptionValue("ms") );
+            }
+            if (daemon!=null && descriptorSet==null) // Always, with or without a directory. But it's keyed by .proto files.
+                context.cache= daemon.cache( cli.getOptionValue("cd") );
+            else if (cli.hasOption("cd")) {
+                try {
+                    context.cache= new BuildCache( Paths.get(cli.getOptionValue("cd")) );
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            for (Job job: jobs) {
+                job.compiledSet.cache= context.cache;
+                job.compiledSet.profile= profile;
+            }
+            if (cli.hasOption("w") && daemon==null) { // Watch runs this again, with a daemon
+                Watch.watch( out, err, context.includePaths, args );
+                return true;
+            }
+            if (cli.hasOption("pt"))
+                context.setScheduler( ParseScheduler.fromOption(cli.getOptionValue("pt")) );
+            else if (daemon!=null)
+                context.setScheduler( daemon.parseScheduler );
         }
-        for (String fileName: compiledSet.inputFileNames) {
-            context.parse( fileName );
+        // The root files of all jobs, each once. Each file gets parsed once, even if several jobs need it.
+        final List<String> rootFiles= new ArrayList<>();
+        for (Job job: jobs) {
+            for (String fileName: job.compiledSet.inputFileNames) {
+                if (!rootFiles.contains(fileName))
+                    rootFiles.add( fileName );
+            }
         }
-        context.waitUntilComplete(); // that also synchronizes all fields etc.
-        //compiledSet.collectExportItems(); //@TODO
-        for (Plugin plugin: plugins) {
-            compiledSet.generateAll(plugin);
+        try {
+            final boolean loadedSnapshot= modelSnapshot!=null
+                && context.loadSnapshot( modelSnapshot, rootFiles );
+            if (descriptorSet!=null)
+                context.loadDescriptorSet( descriptorSet, rootFiles );
+            else if (!loadedSnapshot) {
+                for (String fileName: rootFiles) {
+                    context.parse( fileName );
+                }
+            }
+            context.waitUntilComplete(); // that also synchronizes all fields etc.
+            if (modelSnapshot!=null && !loadedSnapshot) {
+                try {
+                    context.writeSnapshot( modelSnapshot );
+                } catch (UnsupportedOperationException e) {
+                    err.println("Not writing a model snapshot: " +e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (Job job: jobs) {
+            job.compiledSet.collectExportItems();
+            job.compiledSet.freeze();
+        }
+        try {
+            if (jobs.size()==1)
+                generate( jobs.get(0), profile, out );
+            else {
+                // Jobs generate in parallel, each with its own standard output. We write those in the order of the jobs.
+                final List<StringBuilder> standardOutputs= new ArrayList<>();
+                final List<Callable<Void>> tasks= new ArrayList<>();
+                final Profile jobProfile= profile;
+                for (Job job: jobs) {
+                    final StringBuilder standardOutput= new StringBuilder();
+                    standardOutputs.add( standardOutput );
+                    tasks.add( () -> {
+                        generate( job, jobProfile, standardOutput );
+                        return null;
+                    });
+                }
+                final ExecutorService pool= Executors.newFixedThreadPool(
+                    Math.min( tasks.size(), Runtime.getRuntime().availableProcessors() ) );
+                try {
+                    for (Future<Void> task: pool.invokeAll(tasks))
+                        task.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw new RuntimeException( e.getCause() );
+                } finally {
+                    pool.shutdown();
+                }
+                for (StringBuilder standardOutput: standardOutputs)
+                    out.append( standardOutput );
+            }
+            out.flush();
+            if (profile!=null)
+                profile.printSummary(err);
+            return true;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) { // IOException, InterruptedException, or from Callable.call()
+            throw new RuntimeException(e);
+        }
+    }
 
-            for (Map.Entry<TypeDefinition, Indented> entry: compiledSet.generated.entrySet()) {
-                FirstPerGroup.clear();
-                Indented out= plugin.wrap( entry.getKey(), entry.getValue() );
-                if (!out.isEmpty())
-                    System.out.println( out );
+    /** Options that a job of a batch (see option -b) passes in its line of the manifest, and only there. */
+    private static final String JOB_OPTIONS[]= {"f", "p", "ep", "o", "s", "gt"};
+
+    /** Of JOB_OPTIONS, those that each job must have. Not required() by createOptions(), since they're not on the
+     * command line with -b. */
+    private static final String REQUIRED_JOB_OPTIONS[]= {"f", "p"};
+
+    /** Check the given command line (or line of the batch manifest) as if REQUIRED_JOB_OPTIONS were required(). */
+    private static void requireJobOptions( CommandLine cli ) throws MissingOptionException {
+        final List<String> missing= new ArrayList<>();
+        for (String option: REQUIRED_JOB_OPTIONS) {
+            if (!cli.hasOption(option))
+                missing.add(option);
+        }
+        if (!missing.isEmpty())
+            throw new MissingOptionException(missing);
+    }
+
+    private static void printHelp( Writer out, Options options ) {
+        HelpFormatter formatter = new HelpFormatter();
+        String header= "Most options are multi-value. Some accept multiple values for the same option. Others accept one pair per option, but you can repeat the option with different pairs.";
+        String footer= "<footer @TODO>";
+        final PrintWriter helpWriter= new PrintWriter(out);
+        formatter.printHelp( helpWriter, formatter.getWidth(), "gradle run --args='args...' OR: java io.github.protopick", header, options,
+                             formatter.getLeftPadding(), formatter.getDescPadding(), footer, true );
+        helpWriter.flush();
+    }
+
+    /** What to generate from the parsed model, and where to: the part of a run after parsing. A batch (see option -b)
+     * has several jobs that share one model. */
+    private static final class Job {
+        final CompiledSet compiledSet;
+        /** Plugin, StreamingPlugin or BsonPlugin instances. Not a Set, because we apply them in order (and we write their outputs in that order) */
+        final List<Object> plugins= new ArrayList<>();
+        int generateThreads= 1;
+        boolean stream;
+
+        Job (ParserContext context) {
+            compiledSet= new CompiledSet(context);
+        }
+    }
+
+    /** A job with the JOB_OPTIONS of the given command line. */
+    private static Job job( ParserContext context, CommandLine cli, Daemon daemon ) {
+        final Job job= new Job(context);
+        final CompiledSet compiledSet= job.compiledSet;
+        compiledSet.inputFileNames= cli.getOptionValues('f'); // Not null, see requireJobOptions(..)
+
+        String pluginClassNames[]= cli.getOptionValues('p');
+        for (String pluginClassName: pluginClassNames) {
+            try {
+                Class<?> pluginClass = daemon!=null
+                        ? daemon.pluginClass(pluginClassName)
+                        : Class.forName(pluginClassName);
+                if (!Plugin.class.isAssignableFrom(pluginClass) && !StreamingPlugin.class.isAssignableFrom(pluginClass)
+                    && !BsonPlugin.class.isAssignableFrom(pluginClass))
+                    throw new IllegalArgumentException("Plugin class " +pluginClassName+ " implements none of "
+                            +Plugin.class.getName()+ ", " +StreamingPlugin.class.getName()+ " and "
+                            +BsonPlugin.class.getName());
+                job.plugins.add( pluginClass.newInstance() );
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+                throw new RuntimeException("Couldn't load a plugin class " + pluginClassName, e);
+            }
+        }
+        compiledSet.out= cli.getOptionValue('o');
+        if (compiledSet.out == null)
+            compiledSet.out = "";
+        else if (!compiledSet.out.endsWith(File.separator))
+            compiledSet.out += File.separatorChar;
+
+        compiledSet.exportItems= cli.getOptionProperties("ep"); // Contrary to cli.getOptionValues(String), this is guaranteed non-null
+        job.stream= cli.hasOption("s");
+        if (cli.hasOption("gt"))
+            job.generateThreads= Integer.parseInt( cli.getOptionValue("gt") );
+        return job;
+    }
+
+    /** Generate and render the given job (whose CompiledSet is frozen) by all its plugins.
+     * @param out Standard output. */
+    private static void generate( Job job, Profile profile, Appendable out ) throws Exception {
+        final CompiledSet compiledSet= job.compiledSet;
+        // Export files get written as soon as they're complete, while rendering goes on
+        final ExportWriter exportWriter= compiledSet.exports.isEmpty()
+            ? null
+            : new ExportWriter();
+        try {
+            // Each plugin generates on its own thread, with its own CompiledSet (see CompiledSet.forPlugin()) and its
+            // own output. The first plugin streams to out. The others buffer their standard output, which we write
+            // after that of the first one, in the order of the plugins.
+            final List<StringBuilder> standardOutputs= new ArrayList<>();
+            // Per plugin: export file path -> its content. Each exported type goes to its own file. Any further
+            // plugins append to the same file. So with several plugins, a file is complete only once all of them are.
+            final List<Map<Path, StringBuilder>> exportContents= new ArrayList<>();
+            final List<Callable<Void>> tasks= new ArrayList<>();
+            for (Object plugin: job.plugins) {
+                final Appendable standardOutput= tasks.isEmpty() ? out : new StringBuilder();
+                if (standardOutput!=out)
+                    standardOutputs.add( (StringBuilder)standardOutput );
+                final Map<Path, StringBuilder> pluginExportContents= new LinkedHashMap<>();
+                exportContents.add( pluginExportContents );
+                final boolean streaming= plugin instanceof StreamingPlugin && (job.stream || !(plugin instanceof Plugin));
+                final ExportWriter pluginExportWriter= job.plugins.size()==1 ? exportWriter : null;
+                tasks.add( () -> {
+                    if (plugin instanceof BsonPlugin)
+                        bsonPlugin( compiledSet.forPlugin(), (BsonPlugin) plugin, profile, standardOutput,
+                                    pluginExportContents, pluginExportWriter );
+                    else if (streaming)
+                        streamPlugin( compiledSet.forPlugin(), (StreamingPlugin) plugin, profile, standardOutput,
+                                      pluginExportContents, pluginExportWriter );
+                    else
+                        runPlugin( compiledSet.forPlugin(), (Plugin) plugin, job.generateThreads, profile,
+                                   standardOutput, pluginExportContents, pluginExportWriter );
+                    return null;
+                });
+            }
+            if (tasks.size()==1)
+                tasks.get(0).call();
+            else {
+                final ExecutorService pool= Executors.newFixedThreadPool( tasks.size() );
+                try {
+                    for (Future<Void> task: pool.invokeAll(tasks))
+                        task.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw new RuntimeException( e.getCause() );
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            for (StringBuilder standardOutput: standardOutputs)
+                out.append( standardOutput );
+
+            // Any remaining export files (only with several plugins)
+            final Map<Path, StringBuilder> mergedExportContents= new LinkedHashMap<>();
+            for (Map<Path, StringBuilder> pluginExportContents: exportContents) {
+                for (Map.Entry<Path, StringBuilder> export: pluginExportContents.entrySet())
+                    mergedExportContents.computeIfAbsent( export.getKey(), path -> new StringBuilder() ).append( export.getValue() );
+            }
+            for (Map.Entry<Path, StringBuilder> export: mergedExportContents.entrySet())
+                exportWriter.write( export.getKey(), export.getValue().toString() );
+            if (exportWriter!=null)
+                exportWriter.awaitAll();
+        } finally {
+            if (exportWriter!=null)
+                exportWriter.close();
+        }
+    }
+
+    /** Writes the output of one type by one plugin. */
+    private interface TypeWriter {
+        void write( TypeDefinition type, Appendable out ) throws IOException;
+    }
+
+    /** Generate and render by one plugin.
+     * @param compiledSet For this plugin only.
+     * @param profile Null, unless profiling.
+     * @param standardOutput Where to write the output, if there are no exports.
+     * @param exportContents Export file path -> its content, to append this plugin's output to, if there are exports. */
+    private static void runPlugin( CompiledSet compiledSet, Plugin plugin, int generateThreads, Profile profile,
+                                   Appendable standardOutput, Map<Path, StringBuilder> exportContents,
+                                   ExportWriter exportWriter ) throws IOException {
+        final Object generating= profile!=null ? profile.generateStarted() : null;
+        final long generateStartNanos= profile!=null ? System.nanoTime() : 0;
+        final long generateStartAllocated= profile!=null ? profile.allocatedBytes() : 0;
+        compiledSet.generateAll(plugin, generateThreads);
+        if (profile!=null) {
+            int cachedTypes= 0;
+            for (Indented generated: compiledSet.generated.values()) {
+                if (generated==null)
+                    cachedTypes++;
+            }
+            profile.generated( generating, plugin.getClass().getName(), System.nanoTime()-generateStartNanos,
+                               profile.allocatedBytes()-generateStartAllocated, compiledSet.generated.size(), cachedTypes );
+        }
+
+        render( compiledSet, compiledSet.generated.keySet(), (type, out) -> compiledSet.writeWrapped(plugin, type, out),
+                plugin.getClass().getName(), profile, standardOutput, exportContents, exportWriter );
+    }
+
+    /** Like runPlugin(..), but for a StreamingPlugin: It generates as it writes, one type after another. */
+    private static void streamPlugin( CompiledSet compiledSet, StreamingPlugin plugin, Profile profile,
+                                      Appendable standardOutput, Map<Path, StringBuilder> exportContents,
+                                      ExportWriter exportWriter ) throws IOException {
+        render( compiledSet, compiledSet.typesToStream(), (type, out) -> compiledSet.writeStreamed(plugin, type, out),
+                plugin.getClass().getName(), profile, standardOutput, exportContents, exportWriter );
+    }
+
+    /** Like streamPlugin(..), but for a BsonPlugin: Its documents go to standard output and to export files as canonical
+     * Extended JSON, or as binary BSON to export files ending with .bson (which then get written as soon as they're
+     * complete, so that needs exportWriter). */
+    private static void bsonPlugin( CompiledSet compiledSet, BsonPlugin plugin, Profile profile,
+                                    Appendable standardOutput, Map<Path, StringBuilder> exportContents,
+                                    ExportWriter exportWriter ) throws IOException {
+        final BsonWriter bson= new BsonWriter(); // Reused for all types
+        final TypeWriter typeWriter= (type, out) -> {
+            plugin.write( type, compiledSet.context, bson.reset() );
+            bson.writeExtendedJson( out );
+        };
+        boolean anyBinary= false;
+        for (String path: compiledSet.exports.values())
+            anyBinary|= path.endsWith(".bson");
+        if (!anyBinary) {
+            render( compiledSet, compiledSet.typesToStream(), typeWriter, plugin.getClass().getName(), profile,
+                    standardOutput, exportContents, exportWriter );
+            return;
+        }
+        if (exportWriter==null)
+            throw new IllegalArgumentException("Export files ending with .bson need a single plugin.");
+        final Object rendering= profile!=null ? profile.renderStarted() : null;
+        final long renderStartNanos= profile!=null ? System.nanoTime() : 0;
+        final long renderStartAllocated= profile!=null ? profile.allocatedBytes() : 0;
+        long size= 0;
+        // As in render(..), but binary files collect bytes
+        final Map<Path, TypeDefinition> lastExports= new HashMap<>();
+        for (Map.Entry<TypeDefinition, String> export: compiledSet.exports.entrySet())
+            lastExports.put( Paths.get(export.getValue()), export.getKey() );
+        final Map<Path, ByteArrayOutputStream> binaryContents= new HashMap<>();
+        for (Map.Entry<TypeDefinition, String> export: compiledSet.exports.entrySet()) {
+            final Path path= Paths.get( export.getValue() );
+            final boolean isLast= lastExports.get(path)==export.getKey();
+            if (export.getValue().endsWith(".bson")) {
+                plugin.write( export.getKey(), compiledSet.context, bson.reset() );
+                size+= bson.size();
+                bson.writeTo( binaryContents.computeIfAbsent(path, p -> new ByteArrayOutputStream()) );
+                if (isLast)
+                    exportWriter.write( path, binaryContents.remove(path).toByteArray() );
+            }
+            else {
+                final StringBuilder content= exportContents.computeIfAbsent( path, p -> new StringBuilder() );
+                final int lengthBefore= content.length();
+                typeWriter.write( export.getKey(), content );
+                if (profile!=null)
+                    size+= Profile.encodedLength( content, lengthBefore, content.length(), StandardCharsets.UTF_8 );
+                if (isLast)
+                    exportWriter.write( path, exportContents.remove(path).toString() );
+            }
+        }
+        if (profile!=null)
+            profile.rendered( rendering, plugin.getClass().getName(), System.nanoTime()-renderStartNanos, size,
+                              profile.allocatedBytes()-renderStartAllocated );
+    }
+
+    /** Render the output of one plugin: of the given types to standardOutput if there are no exports, or else of the
+     * exports to exportContents.
+     * @param exportWriter If not null, then write each export file as soon as its content is complete (and remove it
+     * from exportContents). */
+    private static void render( CompiledSet compiledSet, Iterable<TypeDefinition> types, TypeWriter typeWriter,
+                                String pluginName, Profile profile, Appendable standardOutput,
+                                Map<Path, StringBuilder> exportContents, ExportWriter exportWriter ) throws IOException {
+        final Object rendering= profile!=null ? profile.renderStarted() : null;
+        final long renderStartNanos= profile!=null ? System.nanoTime() : 0;
+        final long renderStartAllocated= profile!=null ? profile.allocatedBytes() : 0;
+        long bytes= 0;
+        if (compiledSet.exports.isEmpty()) {
+            final CountingAppendable countingOut= profile!=null
+                ? new CountingAppendable( standardOutput, profile.standardOutputCharset )
+                : null;
+            for (TypeDefinition type: types)
+                typeWriter.write( type, countingOut!=null ? countingOut : standardOutput );
+            if (countingOut!=null)
+                bytes= countingOut.count;
+        }
+        else {
+            // Several exported types may go to the same file. It's complete after the last of them.
+            final Map<Path, TypeDefinition> lastExports= new HashMap<>();
+            for (Map.Entry<TypeDefinition, String> export: compiledSet.exports.entrySet())
+                lastExports.put( Paths.get(export.getValue()), export.getKey() );
+            for (Map.Entry<TypeDefinition, String> export: compiledSet.exports.entrySet()) {
+                final Path path= Paths.get( export.getValue() );
+                final StringBuilder content= exportContents.computeIfAbsent( path, p -> new StringBuilder() );
+                final int lengthBefore= content.length();
+                typeWriter.write( export.getKey(), content );
+                if (profile!=null) // As ExportWriter encodes it
+                    bytes+= Profile.encodedLength( content, lengthBefore, content.length(), StandardCharsets.UTF_8 );
+                if (exportWriter!=null && lastExports.get(path)==export.getKey())
+                    exportWriter.write( path, exportContents.remove(path).toString() );
             }
         }
+        if (profile!=null)
+            profile.rendered( rendering, pluginName, System.nanoTime()-renderStartNanos, bytes,
+                              profile.allocatedBytes()-renderStartAllocated );
     }
 }
\ No newline at end of file
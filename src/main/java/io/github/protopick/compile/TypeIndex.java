@@ -0,0 +1,131 @@
+package io.github.protopick.compile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Read-only symbol table of all user-defined types, for resolving field type references. Build it once all files
+ * have been parsed (see ParserContext.waitUntilComplete()). Then lookups need no locks, and each distinct
+ * (scope, name) pair is resolved only once - no matter how many fields refer to it.
+ * <br/>
+ * Keys are full names as TypeName.fullName() gives them, with a leading dot: ".a.b.Outer.Inner" for a type in
+ * package a.b, or ".Outer.Inner" without a package. (The exception is ParserContext.ANY_QUALIFIED, which we skip.)
+ * <br/>
+ * A scope is the full name of the message that contains the field. The candidate scopes are that message, its
+ * parent, grandparent... up to and including the package (and its parent packages), and finally the root. The
+ * innermost scope that has a type with the given (potentially dot-separated) name wins: for a field of ".a.b.Outer"
+ * that refers to "c.D", the candidates are ".a.b.Outer.c.D", ".a.b.c.D", ".a.c.D", ".c.D" and "c.D". A name with a
+ * leading dot is fully qualified (see DescriptorSetReader): no scopes.
+ * <br/>
+ * With lazy imports (see ParserContext.lazyImports), the index grows: If it doesn't have a candidate name (yet), it
+ * asks its Loader to parse any file that may define that name.
+ * */
+public final class TypeIndex {
+    /** Parses (on demand) files that haven't been parsed yet. */
+    public interface Loader {
+        /** Make sure that any file that may define a type with the given full name has been parsed.
+         * @return Types defined by such file(s) - full name -> definition. Empty if there are no such files. */
+        Map<String, TypeDefinition> load (String fullName);
+    }
+
+    /** Full type name -> definition. Only added to, and only by the loader (if any). */
+    private final ConcurrentHashMap<String, TypeDefinition> byFullName;
+
+    /** Null, unless lazy. */
+    private final Loader loader;
+
+    /** Null, unless profiling. */
+    private final Profile profile;
+
+    /** Memo: scope -> (name as referred to -> definition). */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, TypeDefinition>> resolved= new ConcurrentHashMap<>();
+
+    /** Memo: scope -> candidate prefixes, the innermost first. */
+    private final ConcurrentHashMap<String, String[]> scopePrefixes= new ConcurrentHashMap<>();
+
+    /** @param newTypes Full type name -> definition, as in ParserContext.newTypes. Entries with null definitions
+     * (like google.protobuf.Any) are skipped, because such types are handled as primitives. The caller must
+     * synchronize on newTypes, if needed.
+     * @param givenLoader Null, unless lazy. */
+    public TypeIndex (Map<String, TypeDefinition> newTypes, Loader givenLoader) {
+        this( newTypes, givenLoader, null );
+    }
+
+    /** @param givenProfile Null, unless profiling. */
+    public TypeIndex (Map<String, TypeDefinition> newTypes, Loader givenLoader, Profile givenProfile) {
+        byFullName= new ConcurrentHashMap<>( newTypes.size()*4/3+1 );
+        addAll( newTypes );
+        loader= givenLoader;
+        profile= givenProfile;
+    }
+
+    private void addAll (Map<String, TypeDefinition> types) {
+        for (Map.Entry<String, TypeDefinition> entry: types.entrySet()) {
+            if (entry.getValue()!=null)
+                byFullName.putIfAbsent( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    /** @return The definition with the given full name, or null if none. */
+    public TypeDefinition get (String fullName) {
+        final TypeDefinition existing= byFullName.get(fullName);
+        if (existing!=null || loader==null)
+            return existing;
+        // Only on a miss: a type that's indexed already has been loaded with (all of) its file.
+        addAll( loader.load(fullName) );
+        return byFullName.get(fullName);
+    }
+
+    /** See TypeNameOfField.resolve(ParserContext). */
+    TypeDefinition resolve (TypeNameOfField typeName) {
+        final String scope= typeName.parentOrContext.fullName();
+        final ConcurrentHashMap<String, TypeDefinition> inScope= resolved.computeIfAbsent( scope, s -> new ConcurrentHashMap<>() );
+        final TypeDefinition existing= inScope.get(typeName.name);
+        if (profile!=null)
+            profile.resolved( existing!=null );
+        if (existing!=null)
+            return existing;
+
+        for (String fullName: candidates(scope, typeName.name)) {
+            final TypeDefinition candidate= get(fullName);
+            if (candidate!=null) {
+                inScope.putIfAbsent( typeName.name, candidate );
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException( "Couldn't resolve " +typeName+ " in package: " +typeName.packageName.fullName()+
+                                            ", with parentOrContext: " +scope);
+    }
+
+    /** @return Full names that the given name may refer to from the given scope, the innermost first. */
+    private String[] candidates (String scope, String name) {
+        // A name with a leading dot (as from a descriptor set - .proto text can't have it) is fully qualified. It's
+        // already in the form of full names.
+        if (name.startsWith("."))
+            return new String[] { name };
+        final String prefixes[]= prefixes(scope);
+        final String result[]= new String[prefixes.length];
+        for (int i=0; i<prefixes.length; i++)
+            result[i]= prefixes[i]+name;
+        return result;
+    }
+
+    /** For scope ".a.b.Outer" that's: ".a.b.Outer.", ".a.b.", ".a.", ".", "". For scope ".Outer" (no package):
+     * ".Outer.", ".", "". */
+    private String[] prefixes (String scope) {
+        String result[]= scopePrefixes.get(scope);
+        if (result==null) {
+            final List<String> list= new ArrayList<>();
+            for (int i= scope.length(); i>=0; i= scope.lastIndexOf('.', i-1)) {
+                list.add( scope.substring(0, i)+ '.' );
+                if (i==0)
+                    break;
+            }
+            list.add( "" );
+            result= list.toArray( new String[list.size()] );
+            scopePrefixes.putIfAbsent( scope, result );
+        }
+        return result;
+    }
+}
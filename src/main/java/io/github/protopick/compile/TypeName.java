@@ -2,6 +2,7 @@ package io.github.protopick.compile;
 
 import java.util.Arrays;
 import java.util.List;
+import io.github.protopick.parse.NamePool;
 import io.github.protopick.parse.ParserConstants;
 import io.github.protopick.parse.Token;
 
@@ -18,6 +19,11 @@ public abstract class TypeName {
     /** "kind" (token.kind) of newTypeToken passed to the constructor, if it were non-null. Otherwise this is -1. */
     private final int newTypeTokenKind;
 
+    /** Cached by fullName(boolean). Racy, but that's OK, since Strings are immutable (as for String.hashCode()). */
+    private String fullName;
+    /** Cached by hashCode(). 0 if not computed yet. */
+    private int hash;
+
     private static List<Integer> ACCEPTABLE_TOP_LEVEL_TOKEN_KINDS= Arrays.asList( new Integer[] {
             ParserConstants.MESSAGE_TKN, ParserConstants.ENUM_TKN, ParserConstants.PACKAGE_TKN
     });
@@ -47,6 +53,9 @@ public abstract class TypeName {
         if (parentOrContext==null && use!=TypeNameUse.FIELD_PRIMITIVE
         && !ACCEPTABLE_TOP_LEVEL_TOKEN_KINDS.contains(newTypeTokenKind))
             throw new IllegalArgumentException("Top-level type must be a message, or an enum, but not a " +newTypeToken.image);
+        // Definitions are parents of other names, so compute theirs now. Its parent's name was cached already.
+        if (use.definesNewType())
+            fullName();
     }
 
     public String fullName() { return fullName( false ); }
@@ -54,10 +63,23 @@ public abstract class TypeName {
     public String fullName( boolean allowReferralType ) {
         if( use.mayBeRelative() && !allowReferralType )
             throw new UnsupportedOperationException("Referral type names don't have full name defined.");
-        String parentOrContextOrPackageName= parentOrContextOrPackageName();
-        return parentOrContextOrPackageName!=null
-            ? parentOrContextOrPackageName+ "." +name
-            : name;
+        String result= fullName;
+        if( result==null ) {
+            String parentOrContextOrPackageName= parentOrContextOrPackageName();
+            result= parentOrContextOrPackageName!=null
+                ? parentOrContextOrPackageName+ "." +name
+                : name;
+            fullName= result;
+        }
+        return result;
+    }
+
+    /** Replace the cached full name with its instance from the given pool. ParserContext does so for every new
+     * definition, so that its name, its children's prefixes and the keys of ParserContext.newTypes share one instance. */
+    public String internFullName( NamePool pool ) {
+        final String result= pool.intern( fullName(true) );
+        fullName= result;
+        return result;
     }
 
     public String parentOrContextOrPackageName() {
@@ -73,10 +95,23 @@ public abstract class TypeName {
      * and it compares well to a cascaded instance, too. */
     @Override
     public boolean equals(Object other) {
-        return other!=null && fullName().equals( ((TypeName)other).fullName() );
+        if( this==other )
+            return true;
+        if( !(other instanceof TypeName) )
+            return false;
+        final TypeName otherName= (TypeName)other;
+        final String thisFull= fullName(), otherFull= otherName.fullName();
+        // Interned names are the same instance. Otherwise cached hashes tell most non-equal names apart quickly.
+        return thisFull==otherFull
+            || hashCode()==otherName.hashCode() && thisFull.equals(otherFull);
     }
 
     public int hashCode() {
-        return fullName().hashCode();
+        int result= hash;
+        if( result==0 ) {
+            result= fullName().hashCode();
+            hash= result;
+        }
+        return result;
     }
 }
@@ -33,9 +33,11 @@ public final class TypeNameOfField extends TypeName {
        That way this includes any matching types from the top level of the current package, too.
        If there's no current package, #2 assumes it to be an empty string.
        <br/>
-       #1 has precedence over #2, because if there's such a conflict, #2 can work around by providing
-       a path from one level higher. If it reaches the package level, and if there's still a conflict,
-       then the user can work around by adding a package prefix to #2 (effectively making it another #1).
+       #2 has precedence over #1, as in protoc: TypeIndex tries the innermost scope (the current message) first,
+       then each enclosing message, then the current package and its parent packages, and the root last. So a
+       package-qualified name (#1) only wins if no enclosing scope has a type by that name. If there's such a conflict,
+       the user can work around by qualifying the name from one level higher, or fully (with a leading dot in a
+       descriptor set).
        <br/>
        While parsing, even if that other type is in the same file, we don't want to start parsing it right now.
        We've either already parsed it, or we will parse it later, in this same Parser instance.
@@ -43,49 +45,20 @@ public final class TypeNameOfField extends TypeName {
        (Also, the same package may be across multiple files => involving multiple parsers...)
        <br/>
        Do NOT use until the whole input gets parsed. Otherwise this can't identify "relative" (sub-message) names.
+       (Indeed, ParserContext.typeIndex() is available only after ParserContext.waitUntilComplete().)
     */
     public TypeDefinition resolve (ParserContext context) {
-        synchronized (context) {
-            if (!use.mayBeRelative())
-                throw new UnsupportedOperationException(
-                        "You can't call resolve() for identifiers that define new types. Only call it for identifiers that define non-simple fields.");
-            // @TODO prepopulate: com.google.Empty etc.
-            {
-                String inPackageCandidate= fullName(true);
-                // 1. Try this name as a combination of a package name and a (potentially multi-level) type name within that package.
-                if (context.newTypes.containsKey(inPackageCandidate)) {
-                    System.err.println("Resolved " + this + " to " + context.newTypes.get(inPackageCandidate));
-                    return context.newTypes.get(inPackageCandidate);
-                }
-            }
-            //final String packageParts[]= packageName.split(".");
-            // TODO TEST: NO SPLITTING
-            //String subPackage= packageName;
-            //    int i= subPackage.lastIndexOf(".");
-
-            // 2. Try this name as a relative to (if any) outer message. Start with the immediate parent, then grandparent, great-grandparent... up to the top level message.
-            // nameOfAnotherMessage[.nameOfItsInnerMessage...]
-            // Start from the innermost context - the closest has the highest precedence.
-            //final String nameParts[]= parentOrContext.fullName().split(".");
-            String subContext = parentOrContext.fullName();
-            while (true) {
-                final String candidate = subContext+ '.'+ name;
-                if (context.newTypes.containsKey(candidate)) {
-                    return context.newTypes.get(candidate);
-                }
-                int i = subContext.lastIndexOf(".");
-                if (i > 0) {
-                    subContext = subContext.substring(0, i);
-                } else {
-                    throw new IllegalArgumentException( "Couldn't resolve " +this+ " in package: " +packageName.fullName()+
-                                                                ", with parentOrContext: " +parentOrContext.fullName());
-                }
-            }
-        }
+        if (!use.mayBeRelative())
+            throw new UnsupportedOperationException(
+                    "You can't call resolve() for identifiers that define new types. Only call it for identifiers that define non-simple fields.");
+        // @TODO prepopulate: com.google.Empty etc.
+        // 1. and 2. are both served by TypeIndex, which tries the innermost scope first, and the root (a fully
+        // package-qualified name) last.
+        return context.typeIndex().resolve(this);
     }
 
     @Override
     public String toString() {
-        return "TypeNameOfField " +this.name+ " (" +this.fullName()+ ")";
+        return "TypeNameOfField " +this.name+ " (" +this.fullName(true)+ ")";
     }
 }
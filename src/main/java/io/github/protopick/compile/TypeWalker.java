@@ -0,0 +1,54 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import io.github.protopick.generate.IndentedWriter;
+import io.github.protopick.generate.StreamingPlugin;
+import io.github.protopick.parse.ParserContext;
+
+/** Walk of types for a StreamingPlugin: It calls the plugin's startType(..), field(..) per field, and endType(..).
+ * The plugin walks any types of fields through walk(..) again. One instance per output (see
+ * CompiledSet.writeStreamed(..)). Not thread-safe.
+ * */
+public final class TypeWalker {
+    public final ParserContext context;
+    private final StreamingPlugin plugin;
+    private final IndentedWriter out;
+    /** Types being walked, the innermost last. */
+    private final List<TypeDefinition> walking= new ArrayList<>();
+
+    TypeWalker(ParserContext givenContext, StreamingPlugin givenPlugin, IndentedWriter givenOut) {
+        context= givenContext;
+        plugin= givenPlugin;
+        out= givenOut;
+    }
+
+    /** Number of types being walked, including the one whose events the plugin is handling. So it's 1 for the type
+     * being wrapped (as long as it doesn't walk any field types). */
+    public int depth() {
+        return walking.size();
+    }
+
+    /** Walk the given type: Generate its content, here in the output. */
+    public void walk(TypeDefinition typeDefinition) throws IOException {
+        if (walking.contains(typeDefinition))
+            throw new IllegalStateException( "Type " +typeDefinition.typeNameDefinition.fullName()
+                    + " refers to itself (directly or indirectly). Recursive types are not supported." );
+        walking.add(typeDefinition);
+        try {
+            plugin.startType( typeDefinition, this, out );
+            int index= 0;
+            for (Field field: typeDefinition.fields)
+                plugin.field( field, index++, this, out );
+            plugin.endType( typeDefinition, this, out );
+        } finally {
+            walking.remove( walking.size()-1 );
+        }
+    }
+
+    /** Walk the type of the given field (or of map values): Resolve it, and walk it. */
+    public void walk(TypeNameOfField typeNameOfField) throws IOException {
+        walk( typeNameOfField.resolve(context) );
+    }
+}
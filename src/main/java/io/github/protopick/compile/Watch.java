@@ -0,0 +1,94 @@
+package io.github.protopick.compile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/** Option --watch of Run: Run once, then again whenever a .proto file under any include path changes (until killed).
+ * <br/>
+ * Each run shares its warm state (see Daemon) with the previous runs, including a BuildCache in memory. So a run
+ * parses only the files that changed (by content). The others get replayed from the cache. And it generates only
+ * the types whose file, or any file that file imports (transitively, by the imports that ParserContext saw), changed.
+ * Output files whose content didn't change don't get rewritten (see ExportWriter).
+ * */
+final class Watch {
+    private Watch() {}
+
+    /** After a change, wait this long for any further changes, so that saving several files runs once only. */
+    private static final long SETTLE_MILLIS= 100;
+
+    static void watch( Writer out, PrintStream err, String includePaths[], String... args ) {
+        final Daemon daemon= new Daemon();
+        try (WatchService watcher= FileSystems.getDefault().newWatchService()) {
+            final Map<WatchKey, Path> directories= new HashMap<>();
+            for (String includePath: includePaths)
+                registerAll( watcher, Paths.get(includePath), directories );
+            while (true) {
+                try {
+                    Run.run( out, err, daemon, args );
+                } catch (RuntimeException e) {
+                    // Keep watching: the next edit may fix it.
+                    e.printStackTrace(err);
+                }
+                err.println("Watching " +includePaths.length+ " include path(s) for changes of .proto files.");
+                waitForChange( watcher, directories );
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Register the given directory and all its subdirectories. */
+    private static void registerAll( WatchService watcher, Path directory, Map<WatchKey, Path> directories ) throws IOException {
+        try (Stream<Path> paths= Files.walk(directory)) {
+            for (Path path: (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path))
+                    directories.put( path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                                   StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE),
+                                     path );
+            }
+        }
+    }
+
+    /** Block until a .proto file changes, and then until the changes settle. Register any new directories. */
+    private static void waitForChange( WatchService watcher, Map<WatchKey, Path> directories ) throws IOException, InterruptedException {
+        boolean changed= false;
+        WatchKey key= watcher.take();
+        while (key!=null) {
+            final Path directory= directories.get(key);
+            for (WatchEvent<?> event: key.pollEvents()) {
+                if (event.kind()==StandardWatchEventKinds.OVERFLOW) {
+                    changed= true;
+                    continue;
+                }
+                final Path path= directory.resolve( (Path)event.context() );
+                if (event.kind()==StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    registerAll( watcher, path, directories );
+                    changed= true; // It may contain .proto files already
+                }
+                else if (path.getFileName().toString().endsWith(".proto"))
+                    changed= true;
+            }
+            if (!key.reset())
+                directories.remove(key);
+            key= changed
+                ? watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)
+                : watcher.take();
+        }
+    }
+}
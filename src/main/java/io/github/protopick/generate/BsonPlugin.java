@@ -0,0 +1,17 @@
+package io.github.protopick.generate;
+
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.parse.ParserContext;
+
+/** Subject to change.
+ *  Alternative to Plugin and StreamingPlugin, for output that is BSON documents rather than text. It writes the
+ *  documents for a type straight to a BsonWriter, without Indented or IndentedWriter. Run writes them as canonical
+ *  Extended JSON (one document per line) to standard output and to export files - but as binary BSON to export files
+ *  whose names end with ".bson".
+ *  <br/>
+ *  Run calls a plugin from one thread at a time, but from several plugins' threads concurrently.
+ * */
+public interface BsonPlugin {
+    /** Write the document(s) for one type to generate, as top-level documents (see BsonWriter.startDocument()). */
+    public void write (TypeDefinition typeDefinition, ParserContext context, BsonWriter out);
+}
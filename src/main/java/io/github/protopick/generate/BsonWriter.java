@@ -0,0 +1,292 @@
+package io.github.protopick.generate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Subject to change.
+ *  Writes BSON documents (see https://bsonspec.org/spec.html) into a growable byte array, for BsonPlugin. It's
+ *  self-contained (no MongoDB driver), and it writes only the element types that we need: documents, arrays, strings,
+ *  32-bit integers and booleans. Its buffers get reused after reset(), so writing many documents doesn't allocate per
+ *  document (nor per element).
+ *  <br/>
+ *  Start a top-level document with startDocument(), add elements, and end() it. Within an array, pass null as the name
+ *  of each element: it gets its index as its name, as BSON requires. Not thread-safe.
+ * */
+public final class BsonWriter {
+    private static final byte STRING= 0x02, DOCUMENT= 0x03, ARRAY= 0x04, BOOLEAN= 0x08, INT32= 0x10;
+
+    private byte bytes[]= new byte[1024];
+    private int size;
+    /** Per open document (or array), the outermost first: offset of its length. */
+    private int starts[]= new int[16];
+    /** Per open document: -1. Per open array: index of its next element. */
+    private int nextIndexes[]= new int[16];
+    private int depth;
+
+    /** Start a top-level document. */
+    public BsonWriter startDocument() {
+        if (depth>0)
+            throw new IllegalStateException("A document is open. Pass a name for an embedded document.");
+        open( -1 );
+        return this;
+    }
+
+    /** Start an embedded document. */
+    public BsonWriter startDocument (String name) {
+        header( DOCUMENT, name );
+        open( -1 );
+        return this;
+    }
+
+    public BsonWriter startArray (String name) {
+        header( ARRAY, name );
+        open( 0 );
+        return this;
+    }
+
+    /** End the innermost document or array. */
+    public BsonWriter end() {
+        if (depth==0)
+            throw new IllegalStateException("No document or array to end.");
+        ensure( 1 );
+        bytes[size++]= 0;
+        depth--;
+        putInt32( starts[depth], size-starts[depth] );
+        return this;
+    }
+
+    public BsonWriter string (String name, String value) {
+        header( STRING, name );
+        ensure( 4 );
+        final int lengthAt= size;
+        size+= 4;
+        utf8( value );
+        ensure( 1 );
+        bytes[size++]= 0;
+        putInt32( lengthAt, size-lengthAt-4 );
+        return this;
+    }
+
+    public BsonWriter int32 (String name, int value) {
+        header( INT32, name );
+        ensure( 4 );
+        putInt32( size, value );
+        size+= 4;
+        return this;
+    }
+
+    public BsonWriter bool (String name, boolean value) {
+        header( BOOLEAN, name );
+        ensure( 1 );
+        bytes[size++]= (byte)(value ? 1 : 0);
+        return this;
+    }
+
+    private void open (int nextIndex) {
+        if (depth==starts.length) {
+            starts= Arrays.copyOf( starts, depth*2 );
+            nextIndexes= Arrays.copyOf( nextIndexes, depth*2 );
+        }
+        ensure( 4 );
+        starts[depth]= size;
+        nextIndexes[depth]= nextIndex;
+        depth++;
+        size+= 4;
+    }
+
+    /** Type and name of an element. */
+    private void header (byte type, String name) {
+        if (depth==0)
+            throw new IllegalStateException("No open document. Call startDocument() first.");
+        ensure( 1 );
+        bytes[size++]= type;
+        final int index= nextIndexes[depth-1];
+        if (index>=0) {
+            if (name!=null)
+                throw new IllegalArgumentException("Elements of an array have no names.");
+            nextIndexes[depth-1]++;
+            digits( index );
+        }
+        else {
+            if (name==null)
+                throw new IllegalArgumentException("Elements of a document need names.");
+            if (name.indexOf(0)>=0)
+                throw new IllegalArgumentException("A name can't contain NUL.");
+            utf8( name );
+        }
+        ensure( 1 );
+        bytes[size++]= 0;
+    }
+
+    private void digits (int value) {
+        ensure( 10 );
+        final int start= size;
+        do {
+            bytes[size++]= (byte)('0' + value%10);
+            value/= 10;
+        } while (value>0);
+        for (int i= start, j= size-1; i<j; i++, j--) {
+            final byte swapped= bytes[i];
+            bytes[i]= bytes[j];
+            bytes[j]= swapped;
+        }
+    }
+
+    /** Like String.getBytes(StandardCharsets.UTF_8), but into our array. */
+    private void utf8 (String value) {
+        ensure( 3*value.length() );
+        for (int i=0; i<value.length(); i++) {
+            final char c= value.charAt(i);
+            if (c<0x80)
+                bytes[size++]= (byte)c;
+            else if (c<0x800) {
+                bytes[size++]= (byte)(0xC0 | c>>6);
+                bytes[size++]= (byte)(0x80 | c & 0x3F);
+            }
+            else if (Character.isHighSurrogate(c) && i+1<value.length() && Character.isLowSurrogate(value.charAt(i+1))) {
+                final int codePoint= Character.toCodePoint( c, value.charAt(++i) );
+                bytes[size++]= (byte)(0xF0 | codePoint>>18);
+                bytes[size++]= (byte)(0x80 | codePoint>>12 & 0x3F);
+                bytes[size++]= (byte)(0x80 | codePoint>>6 & 0x3F);
+                bytes[size++]= (byte)(0x80 | codePoint & 0x3F);
+            }
+            else if (Character.isSurrogate(c))
+                bytes[size++]= '?'; // As String.getBytes(..) does
+            else {
+                bytes[size++]= (byte)(0xE0 | c>>12);
+                bytes[size++]= (byte)(0x80 | c>>6 & 0x3F);
+                bytes[size++]= (byte)(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private void ensure (int more) {
+        if (size+more>bytes.length)
+            bytes= Arrays.copyOf( bytes, Math.max(2*bytes.length, size+more) );
+    }
+
+    private void putInt32 (int offset, int value) { // Little-endian
+        bytes[offset]= (byte)value;
+        bytes[offset+1]= (byte)(value>>8);
+        bytes[offset+2]= (byte)(value>>16);
+        bytes[offset+3]= (byte)(value>>24);
+    }
+
+    private int getInt32 (int offset) {
+        return bytes[offset] & 0xFF | (bytes[offset+1] & 0xFF)<<8 | (bytes[offset+2] & 0xFF)<<16 | bytes[offset+3]<<24;
+    }
+
+    /** Number of bytes written (since the last reset()). */
+    public int size() {
+        return size;
+    }
+
+    /** Forget the documents written so far (but keep the buffers). */
+    public BsonWriter reset() {
+        size= 0;
+        depth= 0;
+        return this;
+    }
+
+    private void checkComplete() {
+        if (depth>0)
+            throw new IllegalStateException("A document is still open.");
+    }
+
+    /** Write the documents (back to back, as mongodump writes them). */
+    public void writeTo (OutputStream out) throws IOException {
+        checkComplete();
+        out.write( bytes, 0, size );
+    }
+
+    public byte[] toByteArray() {
+        checkComplete();
+        return Arrays.copyOf( bytes, size );
+    }
+
+    /** Write the documents as canonical Extended JSON (see
+     * https://www.mongodb.com/docs/manual/reference/mongodb-extended-json/), each on one line, followed by a line
+     * separator. MongoDB drivers parse that back to the same BSON. */
+    public void writeExtendedJson (Appendable out) throws IOException {
+        checkComplete();
+        for (int offset= 0; offset<size; offset+= getInt32(offset)) {
+            writeJson( offset, false, out );
+            out.append( System.lineSeparator() );
+        }
+    }
+
+    /** Write the document (or array) at the given offset. */
+    private void writeJson (int offset, boolean isArray, Appendable out) throws IOException {
+        out.append( isArray ? '[' : '{' );
+        int position= offset+4;
+        for (boolean first= true; bytes[position]!=0; first= false) {
+            final byte type= bytes[position++];
+            int nameEnd= position;
+            while (bytes[nameEnd]!=0)
+                nameEnd++;
+            if (!first)
+                out.append( ", " );
+            if (!isArray) {
+                writeJsonString( position, nameEnd, out );
+                out.append( ": " );
+            }
+            position= nameEnd+1;
+            switch (type) {
+                case STRING: {
+                    final int length= getInt32( position );
+                    writeJsonString( position+4, position+4+length-1, out );
+                    position+= 4+length;
+                    break;
+                }
+                case DOCUMENT:
+                case ARRAY:
+                    writeJson( position, type==ARRAY, out );
+                    position+= getInt32( position );
+                    break;
+                case BOOLEAN:
+                    out.append( bytes[position++]!=0 ? "true" : "false" );
+                    break;
+                case INT32:
+                    out.append( "{\"$numberInt\": \"" ).append( Integer.toString(getInt32(position)) ).append( "\"}" );
+                    position+= 4;
+                    break;
+                default:
+                    throw new IllegalStateException( "Unexpected BSON type " +type );
+            }
+        }
+        out.append( isArray ? ']' : '}' );
+    }
+
+    /** Write UTF-8 bytes [start, end) as a JSON string literal. */
+    private void writeJsonString (int start, int end, Appendable out) throws IOException {
+        out.append( '"' );
+        for (int i= start; i<end; ) {
+            final int b= bytes[i] & 0xFF;
+            if (b>=0x80) { // Not ASCII: decode the whole sequence. We wrote it, so it's well-formed.
+                final int length= b>=0xF0 ? 4 : b>=0xE0 ? 3 : 2;
+                out.append( new String(bytes, i, length, StandardCharsets.UTF_8) );
+                i+= length;
+                continue;
+            }
+            final char c= (char)b;
+            switch (c) {
+                case '"': out.append( "\\\"" ); break;
+                case '\\': out.append( "\\\\" ); break;
+                case '\n': out.append( "\\n" ); break;
+                case '\r': out.append( "\\r" ); break;
+                case '\t': out.append( "\\t" ); break;
+                case '\b': out.append( "\\b" ); break;
+                case '\f': out.append( "\\f" ); break;
+                default:
+                    if (c<0x20)
+                        out.append( String.format("\\u%04x", (int)c) );
+                    else
+                        out.append( c );
+            }
+            i++;
+        }
+        out.append( '"' );
+    }
+}
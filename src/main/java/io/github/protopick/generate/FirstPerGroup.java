@@ -1,26 +1,17 @@
 package io.github.protopick.generate;
 
-import java.lang.ref.WeakReference;
-import java.util.WeakHashMap;
+import java.util.Map;
 
-/** Instances generate non-empty toString() only when toString() hasn't been called for any other
- * instances in the same group. Use for example to generate "_id" field in Mongo DB schema at the top
- * level of a message (object), and also when reusing the inner objects in separate Mongo documents.
- * Otherwise "_id" would show up for every object level, but we want it at the top level only.
- * Not thread-safe, and to be put in objects used across multiple threads. Synchronizing can't "fix" it.
+/** Instances generate non-empty output only when no other instance in the same group has been rendered before, in
+ * the same rendering (one Indented.writeTo(..) or toString() of the top-level tree, or one IndentedWriter). Use for
+ * example to generate "_id" field in Mongo DB schema at the top level of a message (object), and also when reusing the
+ * inner objects in separate Mongo documents. Otherwise "_id" would show up for every object level, but we want it at
+ * the top level only.
+ * <br/>
+ * Which instance came first is state of the rendering, not of the instances. So the instances are immutable, and
+ * separate renderings (on any threads, even of trees that share instances) don't affect each other.
  * */
 public final class FirstPerGroup {
-    /** Map: Group => non-null if an instance was consumed already (and weakly referring to that instance).
-     * We cannot have a lazy-like field on FirstPerGroup instance indicating whether that instance is
-     * the one that was consumed as first in its group. Otherwise we'd have to reset those fields in clear().
-     * */
-    public/*private @TODO*/ static final ThreadLocal< WeakHashMap<Object, WeakReference<FirstPerGroup>> > consumed
-        = ThreadLocal.withInitial( () -> new WeakHashMap<Object, WeakReference<FirstPerGroup>>() );
-
-    public static void clear() {
-        consumed.get().clear();
-    }
-
     final Object group;
     final String content;
     final String otherwise;
@@ -34,23 +25,19 @@ public final class FirstPerGroup {
         otherwise= givenOtherwise;
     }
 
-    /** Successive calls return the same => Hence we have the design that
+    /** Successive calls (within the same rendering) return the same => Hence we have the design that
      * - we don't share the instances across groups, and
-     * - we keep a (weak) reference to the instance that was consumed (first) from its group. */
+     * - the rendering keeps a reference to the instance that was rendered first from its group.
+     * @param consumed State of the current rendering: Group => the instance that was rendered first in that group. */
+    String render( Map<Object, FirstPerGroup> consumed ) {
+        final FirstPerGroup groupConsumed= consumed.putIfAbsent( group, this );
+        return groupConsumed==null || groupConsumed==this
+            ? content
+            : otherwise;
+    }
+
+    /** Outside of any rendering: as if this was the first instance in its group. */
     public String toString() {
-        WeakReference<FirstPerGroup> groupConsumedRef= consumed.get().get(group);
-        FirstPerGroup groupConsumed= groupConsumedRef!=null
-            ? groupConsumedRef.get()
-            : null;
-        assert groupConsumedRef==null || groupConsumed!=null;
-        if( groupConsumed!=null ) {
-            return groupConsumed==this
-                ? content
-                : otherwise;
-        }
-        else {
-            consumed.get().put( group, new WeakReference<>(this) );
-            return content;
-        }
+        return content;
     }
 }
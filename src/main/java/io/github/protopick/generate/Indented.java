@@ -1,11 +1,15 @@
 package io.github.protopick.generate;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class Indented {
     public static final InheritableThreadLocal<String> INDENT_STEP= new InheritableThreadLocal<>();
@@ -57,47 +61,190 @@ public class Indented {
         return parts.isEmpty();
     }
 
+    /** State of one rendering: indent strings per depth (created lazily, one per depth, rather than one per Indented),
+     * the shared subtrees with their rendered forms, and which FirstPerGroup instances came first. */
+    private static final class Rendering {
+        private final String step;
+        private final List<String> byDepth= new ArrayList<>();
+        /** Nested Indented instances of the tree being rendered -> whether they're shared: added (as parts) more than
+         * once, anywhere in the tree. (CompiledSet.generateOrReuse(..) reuses the output of a type wherever it's used.) */
+        private final Map<Indented, Boolean> shared= new IdentityHashMap<>();
+        /** Shared subtrees rendered so far -> their rendered form. */
+        private final Map<Indented, Rendered> rendered= new IdentityHashMap<>();
+        /** See FirstPerGroup.render(..). */
+        private final Map<Object, FirstPerGroup> firstPerGroup= new HashMap<>();
+
+        Rendering(String givenStep, Indented root) {
+            step= givenStep;
+            byDepth.add("");
+            collectShared(root);
+        }
+
+        String indent(int depth) {
+            while (byDepth.size()<=depth)
+                byDepth.add( byDepth.get(byDepth.size()-1)+step );
+            return byDepth.get(depth);
+        }
+
+        private void collectShared(Indented indented) {
+            for (Object part: indented.parts) {
+                if (part instanceof Indented) {
+                    if (shared.containsKey(part))
+                        shared.put( (Indented)part, Boolean.TRUE ); // Don't descend again
+                    else {
+                        shared.put( (Indented)part, Boolean.FALSE );
+                        collectShared( (Indented)part );
+                    }
+                }
+            }
+        }
+
+        boolean isShared(Indented indented) {
+            return shared.get(indented)==Boolean.TRUE;
+        }
+    }
+
+    /** A shared subtree, rendered at depth 0 (relative to its own depth), and offsets in that text of all indents. When
+     * spliced in at its actual depth, the indent of that depth goes at each of those offsets (before each indent that
+     * is already there). Indents are the same step repeated, so that's the same as rendering it at that depth. */
+    private static final class Rendered {
+        final String text;
+        final int indentOffsets[];
+
+        Rendered(String givenText, int givenIndentOffsets[]) {
+            text= givenText;
+            indentOffsets= givenIndentOffsets;
+        }
+    }
+
+    /** Where to render to. When rendering a shared subtree into its Rendered form, this also records the offsets of
+     * its indents. */
+    private static final class Target {
+        final Appendable out;
+        /** Only when rendering a shared subtree: the same as out. Otherwise null. */
+        private final StringBuilder recording;
+        private int indentOffsets[];
+        private int indentCount;
+
+        Target(Appendable givenOut) {
+            out= givenOut;
+            recording= null;
+        }
+
+        Target(StringBuilder givenRecording) {
+            out= givenRecording;
+            recording= givenRecording;
+            indentOffsets= new int[16];
+        }
+
+        void indent(String indent) throws IOException {
+            if (recording!=null) {
+                if (indentCount==indentOffsets.length)
+                    indentOffsets= Arrays.copyOf( indentOffsets, 2*indentCount );
+                indentOffsets[ indentCount++ ]= recording.length();
+            }
+            out.append( indent );
+        }
+
+        Rendered rendered() {
+            return new Rendered( recording.toString(), Arrays.copyOf(indentOffsets, indentCount) );
+        }
+    }
+
     //public Indent reindent(Object) // This would remove the initial indent from every line
-    private String toString( final String parentIdent, final String suggestedIndent, final String indentStep ) {
-        final String indent= sameIndent
-            ? parentIdent
-            : suggestedIndent;
-        final String innerIndent= indentStep+indent;
-        final String newLineAndIndent= "\n" +indent;
-        final StringBuilder builder= new StringBuilder();
+    /** Stream this tree in one pass. The recursion (one level per nested Indented) serves as the stack of indents.
+     * A shared subtree gets rendered only once per rendering, and then spliced in wherever it's used. That's the same
+     * as rendering it again, because the parts render the same each time (FirstPerGroup too, within one rendering).
+     * @param depth Depth (number of indent steps) of this instance. */
+    private void writeTo( final Target target, final int depth, final Rendering rendering ) throws IOException {
+        final Appendable out= target.out;
+        final String indent= rendering.indent(depth);
 
         boolean lastPartIndented=false, lastPartSeparator=false, firstPart=true; //lastPart
         for( Iterator<Object> partIt=parts.iterator(); partIt.hasNext(); ) {
             Object part=partIt.next();
             if( part==SEPARATOR ) {
                 if( !lastPartSeparator && partIt.hasNext() )
-                    builder.append('\n');
+                    out.append('\n');
             }
             else if( part instanceof Indented) {
                 if( !firstPart && !lastPartSeparator )
-                    builder.append('\n');
-                builder.append( ( (Indented)part ).toString(indent, innerIndent, indentStep) );
+                    out.append('\n');
+                final Indented child= (Indented)part;
+                final int childDepth= child.sameIndent
+                    ? depth
+                    : depth+1;
+                if (rendering.isShared(child))
+                    child.splice( target, childDepth, rendering );
+                else
+                    child.writeTo( target, childDepth, rendering );
             }
             else {
-                String string= part!=null
-                    ? part.toString()
-                    : "null";
+                String string= part instanceof FirstPerGroup
+                    ? ((FirstPerGroup)part).render( rendering.firstPerGroup )
+                    : part!=null
+                        ? part.toString()
+                        : "null";
                 if (lastPartIndented) // Because Indented doesn't append a new line at its end
-                    builder.append('\n');
+                    out.append('\n');
                 if (lastPartIndented || lastPartSeparator || firstPart)
-                    builder.append( indent );
-                builder.append( string.replace("\n", newLineAndIndent) );
+                    target.indent( indent );
+                appendIndentingNewLines( target, string, indent );
             }
             lastPartIndented= part instanceof Indented;
             lastPartSeparator= part==SEPARATOR;
             firstPart= false;
         }
-        return builder.toString();
     }
 
-    public String toString() {
+    /** Write this shared subtree at the given depth: Render it at depth 0 if not rendered yet, and splice that in. */
+    private void splice( final Target target, final int depth, final Rendering rendering ) throws IOException {
+        Rendered rendered= rendering.rendered.get(this);
+        if (rendered==null) {
+            final Target recording= new Target( new StringBuilder() );
+            writeTo( recording, 0, rendering );
+            rendered= recording.rendered();
+            rendering.rendered.put( this, rendered );
+        }
+        final String indent= rendering.indent(depth);
+        int start= 0;
+        for (int offset: rendered.indentOffsets) {
+            target.out.append( rendered.text, start, offset );
+            target.indent( indent );
+            start= offset;
+        }
+        target.out.append( rendered.text, start, rendered.text.length() );
+    }
+
+    /** Append the given string, with the given indent after each new line in it. */
+    private static void appendIndentingNewLines( final Target target, final String string, final String indent ) throws IOException {
+        int start= 0;
+        for( int newLine= string.indexOf('\n'); newLine>=0; newLine= string.indexOf('\n', start) ) {
+            target.out.append( string, start, newLine+1 );
+            target.indent( indent );
+            start= newLine+1;
+        }
+        target.out.append( string, start, string.length() );
+    }
+
+    private static String indentStep() {
         if (INDENT_STEP.get()==null)
             INDENT_STEP.set ("    ");
-        return toString("", "", INDENT_STEP.get());
+        return INDENT_STEP.get();
+    }
+
+    /** Render this tree to the given output, without building it as a String first. No trailing new line. */
+    public void writeTo( Appendable out ) throws IOException {
+        writeTo( new Target(out), 0, new Rendering(indentStep(), this) );
+    }
+
+    public String toString() {
+        final StringBuilder builder= new StringBuilder();
+        try {
+            writeTo( builder );
+        } catch (IOException e) {
+            throw new RuntimeException(e); // StringBuilder doesn't throw it
+        }
+        return builder.toString();
     }
 }
@@ -0,0 +1,141 @@
+package io.github.protopick.generate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Streaming counterpart of Indented, for StreamingPlugin. Rather than adding parts to a tree and rendering it later,
+ * write them in order: add(..) and onNewLine() as with Indented, and open() (or openSameIndent()) ... close() where
+ * Indented would have a nested Indented. The output is the same as that of the equivalent Indented tree.
+ * <br/>
+ * It only keeps a small state per open level (and the indent strings per depth). So its memory is proportional to the
+ * nesting depth, rather than to the size of the output. Not thread-safe.
+ * */
+public final class IndentedWriter {
+    private final Appendable out;
+    private final String step;
+    /** Indent strings per depth. Created lazily. */
+    private final List<String> indents= new ArrayList<>();
+
+    /** State of an open level - the same as the local variables of Indented.writeTo(..). */
+    private static final class Level {
+        final int depth;
+        boolean lastPartIndented=false, lastPartSeparator=false, firstPart=true;
+        /** Whether onNewLine() was the last part, and it's still to write its new line. Indented writes that only if
+         * any part follows (in the same level). */
+        boolean pendingSeparator=false;
+
+        Level(int givenDepth) {
+            depth= givenDepth;
+        }
+    }
+    /** See FirstPerGroup.render(..). One IndentedWriter is one rendering. */
+    private final Map<Object, FirstPerGroup> firstPerGroup= new HashMap<>();
+    /** Open levels, the innermost last. The first one is the top level. */
+    private final List<Level> levels= new ArrayList<>();
+
+    public IndentedWriter( Appendable givenOut ) {
+        out= givenOut;
+        if (Indented.INDENT_STEP.get()==null)
+            Indented.INDENT_STEP.set ("    ");
+        step= Indented.INDENT_STEP.get();
+        indents.add("");
+        levels.add( new Level(0) );
+    }
+
+    private Level level() {
+        return levels.get( levels.size()-1 );
+    }
+
+    private String indent( int depth ) {
+        while (indents.size()<=depth)
+            indents.add( indents.get(indents.size()-1)+step );
+        return indents.get(depth);
+    }
+
+    /** Start a new part in the current level. */
+    private Level startPart() throws IOException {
+        final Level level= level();
+        if (level.pendingSeparator) {
+            out.append('\n');
+            level.pendingSeparator= false;
+        }
+        return level;
+    }
+
+    /** Like Indented.add(..), but for text only: Use open() and close() instead of adding an Indented. Any other
+     * parts get added as their toString() (or FirstPerGroup as per this rendering). */
+    public IndentedWriter add( Object... given ) throws IOException {
+        for (Object part: given) {
+            final Level level= startPart();
+            final String string= part instanceof FirstPerGroup
+                ? ((FirstPerGroup)part).render( firstPerGroup )
+                : part!=null
+                    ? part.toString()
+                    : "null";
+            final String indent= indent(level.depth);
+            if (level.lastPartIndented) // Because Indented doesn't append a new line at its end
+                out.append('\n');
+            if (level.lastPartIndented || level.lastPartSeparator || level.firstPart)
+                out.append( indent );
+            int start= 0;
+            for( int newLine= string.indexOf('\n'); newLine>=0; newLine= string.indexOf('\n', start) ) {
+                out.append( string, start, newLine+1 ).append( indent );
+                start= newLine+1;
+            }
+            out.append( string, start, string.length() );
+            level.lastPartIndented= false;
+            level.lastPartSeparator= false;
+            level.firstPart= false;
+        }
+        return this;
+    }
+
+    /** See Indented.onNewLine(). */
+    public IndentedWriter onNewLine() throws IOException {
+        final Level level= startPart();
+        if (!level.lastPartSeparator)
+            level.pendingSeparator= true;
+        level.lastPartIndented= false;
+        level.lastPartSeparator= true;
+        level.firstPart= false;
+        return this;
+    }
+
+    /** Start a nested level, indented one step more than the current one. Like adding a new Indented(). */
+    public IndentedWriter open() throws IOException {
+        return open( false );
+    }
+
+    /** Start a nested level with the same indent as the current one. Like adding Indented.newSameIndent(). */
+    public IndentedWriter openSameIndent() throws IOException {
+        return open( true );
+    }
+
+    private IndentedWriter open( boolean sameIndent ) throws IOException {
+        final Level level= startPart();
+        if (!level.firstPart && !level.lastPartSeparator)
+            out.append('\n');
+        levels.add( new Level( sameIndent ? level.depth : level.depth+1 ) );
+        return this;
+    }
+
+    /** End the innermost level started by open() or openSameIndent(). */
+    public IndentedWriter close() {
+        if (levels.size()==1)
+            throw new IllegalStateException("No level to close.");
+        levels.remove( levels.size()-1 ); // Any pending separator gets dropped, as in Indented
+        final Level level= level();
+        level.lastPartIndented= true;
+        level.lastPartSeparator= false;
+        level.firstPart= false;
+        return this;
+    }
+
+    /** Whether anything was added at the top level. */
+    public boolean isEmpty() {
+        return levels.get(0).firstPart;
+    }
+}
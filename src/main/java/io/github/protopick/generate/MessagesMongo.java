@@ -4,13 +4,17 @@ import io.github.protopick.compile.CompiledSet;
 import io.github.protopick.compile.Field;
 import io.github.protopick.compile.TypeDefinition;
 import io.github.protopick.compile.TypeNameOfField;
+import io.github.protopick.compile.TypeWalker;
 import io.github.protopick.parse.ParserContext;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 
-public class MessagesMongo implements Plugin {
+/** MongoDB collections with $jsonSchema validators. It implements both Plugin and StreamingPlugin, with the same
+ * output. */
+public class MessagesMongo implements Plugin, StreamingPlugin {
     private static Map<String, Object[]> primitiveTypes = new HashMap<>();
     private static void mapPrimitive( String primitive, Object... output ) {
         if( primitiveTypes.containsKey(primitive) )
@@ -185,4 +189,118 @@ public class MessagesMongo implements Plugin {
         out.add( "} );" );
         return out;
     }
-}
\ No newline at end of file
+
+    // StreamingPlugin: The same output as above, written as we walk. The levels that we open() and close() correspond to
+    // the Indented instances above.
+
+    private static final String ID= "\"_id\": {\"bsonType\": \"objectId\"}";
+
+    @Override public void wrap (TypeDefinition typeDefinition, TypeWalker walker, IndentedWriter out) throws IOException {
+        out.add( "db.createCollection(" +Tools.asStringLiteral(typeDefinition.typeNameDefinition.name)+ ", {" );
+        out.open();
+            out.add( "\"capped\": false,\n", "\"validator\": {" );
+            out.open();
+                out.add( "\"$jsonSchema\": {" );
+                walker.walk( typeDefinition );
+                out.add( "}" );
+            out.close();
+            out.add( "},\n", "\"validationLevel\": \"strict\",\n", "\"validationAction\": \"error\"" );
+        out.close();
+        out.add( "} );" );
+    }
+
+    @Override public void startType (TypeDefinition typeDefinition, TypeWalker walker, IndentedWriter out) throws IOException {
+        if (typeDefinition.isEnum) {
+            out.openSameIndent();
+            out.add( "\"enum\": [");
+        }
+        else {
+            out.open();
+            out.add( "\"bsonType\": \"object\",\n" );
+            out.add( "\"additionalProperties\": false,\n" );
+            out.add( "\"properties\": {" );
+            out.open();
+            // Like FirstPerGroup above: "_id" only at the top level (of the type being wrapped)
+            out.add( walker.depth()==1
+                     ? ID + (typeDefinition.fields.isEmpty() ? "" : ",\n")
+                     : "" );
+        }
+    }
+
+    @Override public void field (Field field, int index, TypeWalker walker, IndentedWriter out) throws IOException {
+        if (field.typeDefinition.isEnum) {
+            if (index>0)
+                out.add( ", ");
+            out.add( Tools.asStringLiteral(field.name) );
+            return;
+        }
+        if (index>0)
+            out.add(",\n");
+        out.add( Tools.asStringLiteral(field.name), ": {");
+        out.open();
+            if (field.getInstruction()!=null) {
+                out.add("\"description\": ", Tools.asStringLiteral(field.getInstruction().content), ",");
+                out.onNewLine();
+            }
+            if (field.isRepeated) {
+                out.add( "\"type\": \"array\",\n" );
+                out.add( "\"items\": {" );
+                out.open();
+                    writeSingle( field, walker, out );
+                out.close();
+                out.add( "}");
+            }
+            else {
+                writeSingle( field, walker, out );
+            }
+        out.close();
+        out.add( "}" );
+    }
+
+    @Override public void endType (TypeDefinition typeDefinition, TypeWalker walker, IndentedWriter out) throws IOException {
+        if (typeDefinition.isEnum) {
+            out.add( "]");
+        }
+        else {
+            out.close(); // properties
+            out.onNewLine().add( "}" );
+        }
+        out.close();
+    }
+
+    private void writeSingleType (TypeNameOfField typeNameOfField, TypeWalker walker, IndentedWriter out,
+            boolean ifPrimitiveAddIndentation ) throws IOException {
+        if( typeNameOfField.use.isPrimitive() ) {
+            walker.context.ifAnyValidateImport( typeNameOfField );
+            if( ifPrimitiveAddIndentation )
+                out.open();
+            out.add( primitiveTypes.get(typeNameOfField.name) );
+            if( ifPrimitiveAddIndentation )
+                out.close();
+        }
+        else {
+            walker.walk( typeNameOfField );
+        }
+    }
+
+    private void writeSingle (Field field, TypeWalker walker, IndentedWriter out) throws IOException {
+        if (field.isMap) {
+            out.add( "\"type\": \"array\"" );
+            out.add( "\"items\": {" );
+            out.open();
+                out.add( "\"bsonType\": \"object\",\n" );
+                out.add( "\"additionalProperties\": false,\n" );
+                out.add( "\"key\": {" );
+                    writeSingleType( field.typeNameOfField, walker, out, true );
+                out.add( "},\n" );
+                out.add( "\"value\": {" );
+                    writeSingleType( field.typeNameOfMapValues, walker, out, true );
+                out.add( "}\n" );
+            out.close();
+            out.add( "}");
+        }
+        else {
+            writeSingleType( field.typeNameOfField, walker, out, false );
+        }
+    }
+}
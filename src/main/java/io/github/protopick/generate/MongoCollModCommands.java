@@ -0,0 +1,8 @@
+package io.github.protopick.generate;
+
+/** Like MongoCommands, but "collMod" commands: They set the validators of collections that exist already. */
+public class MongoCollModCommands extends MongoCommands {
+    @Override protected void startCommand (String collection, BsonWriter out) {
+        out.string( "collMod", collection );
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.protopick.generate;
+
+import io.github.protopick.compile.Field;
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.compile.TypeNameOfField;
+import io.github.protopick.parse.ParserContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** MongoDB "create" commands for collections with $jsonSchema validators: the same collections and schemas as
+ * MessagesMongo generates, but as BSON documents (see BsonPlugin) rather than as a mongo shell script. Deployment tooling
+ * can send each one with a driver's runCommand(..), without the shell. For collections that exist already, use
+ * MongoCollModCommands.
+ * <br/>
+ * A map field is an array of documents with properties "key" and "value" (which is what MessagesMongo means, too).
+ * */
+public class MongoCommands implements BsonPlugin {
+    /** Primitive type -> its keywords and their values (String or Integer), alternating. Like
+     * MessagesMongo.primitiveTypes. */
+    private static final Map<String, Object[]> primitiveTypes= new HashMap<>();
+    private static void mapPrimitive( String primitive, Object... keywordsAndValues ) {
+        if( primitiveTypes.containsKey(primitive) )
+            throw new IllegalArgumentException("Already set.");
+        primitiveTypes.put( primitive, keywordsAndValues );
+    }
+    static {
+        mapPrimitive( "double", "bsonType", "double" );
+        mapPrimitive( "float", "type", "number" );
+
+        mapPrimitive( "int32", "bsonType", "int" );
+        mapPrimitive( "uint32", "bsonType", "int", "minimum", 0 );
+        mapPrimitive( "sint32", "bsonType", "int" );
+        mapPrimitive( "int64", "bsonType", "long" );
+        mapPrimitive( "uint64", "bsonType", "long", "minimum", 0 );
+        mapPrimitive( "sint64", "bsonType", "long" );
+
+        mapPrimitive( "fixed32", "bsonType", "int" );
+        mapPrimitive( "sfixed32", "bsonType", "int" );
+        mapPrimitive( "fixed64", "bsonType", "long" );
+        mapPrimitive( "sfixed64", "bsonType", "long" );
+
+        mapPrimitive( "bool", "type", "boolean" );
+        mapPrimitive( "string", "bsonType", "string" );
+        mapPrimitive( "bytes", "bsonType", "binData" );
+        mapPrimitive( ParserContext.ANY, "type", "object" );
+        mapPrimitive( ParserContext.ANY_QUALIFIED, "type", "object" );
+    }
+
+    @Override public void write (TypeDefinition typeDefinition, ParserContext context, BsonWriter out) {
+        out.startDocument();
+        startCommand( typeDefinition.typeNameDefinition.name, out );
+        out.startDocument( "validator" );
+            out.startDocument( "$jsonSchema" );
+                writeType( typeDefinition, context, new ArrayList<>(), out );
+            out.end();
+        out.end();
+        out.string( "validationLevel", "strict" );
+        out.string( "validationAction", "error" );
+        out.end();
+    }
+
+    /** Write the command name (the first element), and any options that go before "validator". */
+    protected void startCommand (String collection, BsonWriter out) {
+        out.string( "create", collection );
+        out.bool( "capped", false );
+    }
+
+    /** Write the schema of the given type into the open document.
+     * @param walking Types being written, the outermost first. Like in TypeWalker, for "_id" and to detect recursion. */
+    private void writeType (TypeDefinition typeDefinition, ParserContext context, List<TypeDefinition> walking,
+            BsonWriter out) {
+        if (walking.contains(typeDefinition))
+            throw new IllegalStateException( "Type " +typeDefinition.typeNameDefinition.fullName()
+                    + " refers to itself (directly or indirectly). Recursive types are not supported." );
+        walking.add( typeDefinition );
+        if (typeDefinition.isEnum) {
+            out.startArray( "enum" );
+            for (Field value: typeDefinition.fields)
+                out.string( null, value.name );
+            out.end();
+        }
+        else {
+            out.string( "bsonType", "object" );
+            out.bool( "additionalProperties", false );
+            out.startDocument( "properties" );
+            if (walking.size()==1) // As in MessagesMongo: "_id" only at the top level
+                out.startDocument( "_id" ).string( "bsonType", "objectId" ).end();
+            for (Field field: typeDefinition.fields) {
+                out.startDocument( field.name );
+                if (field.getInstruction()!=null)
+                    out.string( "description", field.getInstruction().content );
+                if (field.isRepeated) {
+                    out.string( "type", "array" );
+                    out.startDocument( "items" );
+                        writeSingle( field, context, walking, out );
+                    out.end();
+                }
+                else
+                    writeSingle( field, context, walking, out );
+                out.end();
+            }
+            out.end();
+        }
+        walking.remove( walking.size()-1 );
+    }
+
+    private void writeSingle (Field field, ParserContext context, List<TypeDefinition> walking, BsonWriter out) {
+        if (field.isMap) {
+            out.string( "type", "array" );
+            out.startDocument( "items" );
+                out.string( "bsonType", "object" );
+                out.bool( "additionalProperties", false );
+                out.startDocument( "properties" );
+                    out.startDocument( "key" );
+                        writeSingleType( field.typeNameOfField, context, walking, out );
+                    out.end();
+                    out.startDocument( "value" );
+                        writeSingleType( field.typeNameOfMapValues, context, walking, out );
+                    out.end();
+                out.end();
+            out.end();
+        }
+        else
+            writeSingleType( field.typeNameOfField, context, walking, out );
+    }
+
+    private void writeSingleType (TypeNameOfField typeNameOfField, ParserContext context, List<TypeDefinition> walking,
+            BsonWriter out) {
+        if (typeNameOfField.use.isPrimitive()) {
+            context.ifAnyValidateImport( typeNameOfField );
+            final Object keywordsAndValues[]= primitiveTypes.get( typeNameOfField.name );
+            for (int i=0; i<keywordsAndValues.length; i+=2) {
+                final String keyword= (String) keywordsAndValues[i];
+                if (keywordsAndValues[i+1] instanceof Integer)
+                    out.int32( keyword, (Integer) keywordsAndValues[i+1] );
+                else
+                    out.string( keyword, (String) keywordsAndValues[i+1] );
+            }
+        }
+        else
+            writeType( typeNameOfField.resolve(context), context, walking, out );
+    }
+}
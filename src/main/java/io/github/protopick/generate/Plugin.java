@@ -11,7 +11,8 @@ import io.github.protopick.parse.ParserContext;
  *  we collect what types, fields... we want to export.
  * */
 public interface Plugin {
-    /** Generate per type. If this calls compiledSet.generateOrReuse, then it's indirectly recursive. */
+    /** Generate per type. If this calls compiledSet.generateOrReuse, then it's indirectly recursive.
+     *  With Run's --generate_threads, this gets called for several types concurrently, so it must be thread-safe. */
     public Indented generate (TypeDefinition typeDefinition, CompiledSet compiledSet);
     public Indented wrap( TypeDefinition typeDefinition, Indented generated );
 }
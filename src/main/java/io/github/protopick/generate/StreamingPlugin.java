@@ -0,0 +1,28 @@
+package io.github.protopick.generate;
+
+import java.io.IOException;
+import io.github.protopick.compile.Field;
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.compile.TypeWalker;
+
+/** Subject to change.
+ *  Streaming alternative to Plugin. Rather than building an Indented tree per type (and keeping all of them until
+ *  they're written), it gets the events of a walk over a type and its fields, and it writes to an IndentedWriter as it
+ *  goes. A field of a user-defined type can walk that type (through TypeWalker.walk(..)) right where its output goes.
+ *  So the memory stays proportional to the nesting depth of the types, rather than to the size of the output.
+ *  <br/>
+ *  Run uses this API for plugins that implement only this interface, or that implement both this and Plugin, if
+ *  passed --stream. Run calls a plugin from one thread at a time, but from several plugins' threads concurrently.
+ * */
+public interface StreamingPlugin {
+    /** Write the output for one type to generate - like Plugin.wrap(..) of Plugin.generate(..). Call walker.walk(..)
+     * with the given type where its generated content goes. */
+    public void wrap (TypeDefinition typeDefinition, TypeWalker walker, IndentedWriter out) throws IOException;
+    /** Start of a type, before its fields (if any). */
+    public void startType (TypeDefinition typeDefinition, TypeWalker walker, IndentedWriter out) throws IOException;
+    /** One field of the type, or one value of an enum.
+     * @param index Index of the field in field.typeDefinition.fields. */
+    public void field (Field field, int index, TypeWalker walker, IndentedWriter out) throws IOException;
+    /** End of a type, after all its fields. */
+    public void endType (TypeDefinition typeDefinition, TypeWalker walker, IndentedWriter out) throws IOException;
+}
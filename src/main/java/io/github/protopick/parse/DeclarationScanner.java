@@ -0,0 +1,85 @@
+package io.github.protopick.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A cheap scan of a .proto file: its package, its top-level messages and enums, and its imports. No JavaCC, no
+ * TypeDefinition or Field instances. ParserContext uses it for lazy imports, so that it knows which file to parse
+ * once a type is needed.
+ * <br/>
+ * This only skips comments and string literals and counts braces. It doesn't validate. Parser does that once
+ * (and if) the file gets parsed.
+ * */
+final class DeclarationScanner {
+    private DeclarationScanner() {}
+
+    static final class Summary {
+        /** Empty if the file has no package. */
+        String packageName= "";
+        final List<String> topLevelTypes= new ArrayList<>();
+        final List<String> imports= new ArrayList<>();
+    }
+
+    static Summary scan (File file) throws IOException {
+        final String text= new String( Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8 );
+        final Summary summary= new Summary();
+        final int length= text.length();
+        int depth= 0;
+        boolean inImport= false;
+        String previousWord= null; // The previous identifier/keyword at the top level (depth 0), if immediately before
+
+        for (int i=0; i<length; ) {
+            final char c= text.charAt(i);
+            final char next= i+1<length ? text.charAt(i+1) : 0;
+            if (c=='/' && next=='/') {
+                final int end= text.indexOf('\n', i);
+                i= end>=0 ? end+1 : length;
+            }
+            else if (c=='/' && next=='*') {
+                final int end= text.indexOf("*/", i+2);
+                i= end>=0 ? end+2 : length;
+            }
+            else if (c=='"' || c=='\'') {
+                int end= i+1;
+                while (end<length && text.charAt(end)!=c)
+                    end+= text.charAt(end)=='\\' ? 2 : 1;
+                if (depth==0 && inImport)
+                    summary.imports.add( text.substring(i+1, Math.min(end, length)) );
+                previousWord= null;
+                i= end+1;
+            }
+            else if (Character.isJavaIdentifierStart(c)) {
+                int end= i+1;
+                while (end<length && (Character.isJavaIdentifierPart(text.charAt(end)) || text.charAt(end)=='.'))
+                    end++;
+                if (depth==0) {
+                    final String word= text.substring(i, end);
+                    if ("package".equals(previousWord))
+                        summary.packageName= word;
+                    else if ("message".equals(previousWord) || "enum".equals(previousWord))
+                        summary.topLevelTypes.add(word);
+                    else if ("import".equals(word))
+                        inImport= true;
+                    previousWord= word;
+                }
+                i= end;
+            }
+            else {
+                if (c=='{')
+                    depth++;
+                else if (c=='}')
+                    depth--;
+                else if (c==';')
+                    inImport= false;
+                if (!Character.isWhitespace(c))
+                    previousWord= null;
+                i++;
+            }
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,587 @@
+package io.github.protopick.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import io.github.protopick.compile.Field;
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.compile.TypeNameDefinition;
+import io.github.protopick.compile.TypeNameOfField;
+import io.github.protopick.compile.TypeNamePackage;
+
+/** Front end that reads a FileDescriptorSet - as written by `protoc --descriptor_set_out=FILE` (for its schema see
+ * src/test/config/proto2/descriptor.proto) - rather than parsing .proto text. See ParserContext.loadDescriptorSet(..).
+ * Run protoc with --include_imports, so that the set has all imported files (including Google's). Run it with
+ * --include_source_info, too. Then comments become HandlingInstruction-s, and nested types keep their textual order.
+ * <br/>
+ * It reads the protobuf wire format directly from the memory-mapped file. A message is only a range of that file
+ * (see Wire): nothing gets copied, other than the strings that the model needs.
+ * <br/>
+ * The model is the same as Parser makes of the .proto files, including its quirks: one Field per oneof (with the
+ * name and type of its last member, see OneOfPart in Parser.jjt), a map field as one Field with isMap (rather than a
+ * nested entry type), type google.protobuf.Any as a primitive (and google/protobuf/any.proto as ParserContext.ANY_FILE),
+ * and no services or extensions. The differences: Names of referenced types are fully qualified, with a leading dot
+ * (see TypeIndex). A handling instruction comes from the comments right before the element (as per protoc, not
+ * including any trailing comment of the previous element). Groups are not supported (as in Parser).
+ * */
+final class DescriptorSetReader {
+    /** Receives what read(..) decodes, in order. */
+    interface Sink {
+        /** A file of the set, in the order of the set (protoc writes imported files first).
+         * @return Whether to read its imports and types. */
+        boolean onFile (String filePath);
+        void onImport (String filePath);
+        /** Register a new type, as ParserContext.addNewDefinition(..) does. The reader then fills in its fields. */
+        TypeDefinition onType (TypeNameDefinition typeName);
+    }
+
+    // Field numbers and values from descriptor.proto
+    private static final int SET_FILE= 1;
+    private static final int FILE_NAME= 1, FILE_PACKAGE= 2, FILE_DEPENDENCY= 3, FILE_MESSAGE_TYPE= 4, FILE_ENUM_TYPE= 5,
+        FILE_SOURCE_CODE_INFO= 9, FILE_SYNTAX= 12;
+    private static final int MESSAGE_NAME= 1, MESSAGE_FIELD= 2, MESSAGE_NESTED_TYPE= 3, MESSAGE_ENUM_TYPE= 4,
+        MESSAGE_OPTIONS= 7, MESSAGE_OPTIONS_MAP_ENTRY= 7;
+    private static final int FIELD_NAME= 1, FIELD_LABEL= 4, FIELD_TYPE= 5, FIELD_TYPE_NAME= 6, FIELD_ONEOF_INDEX= 9,
+        FIELD_PROTO3_OPTIONAL= 17;
+    private static final int LABEL_OPTIONAL= 1, LABEL_REQUIRED= 2, LABEL_REPEATED= 3;
+    private static final int TYPE_GROUP= 10, TYPE_MESSAGE= 11, TYPE_ENUM= 14;
+    private static final int ENUM_NAME= 1, ENUM_VALUE= 2, ENUM_VALUE_NAME= 1;
+    private static final int SOURCE_LOCATION= 1;
+    private static final int LOCATION_PATH= 1, LOCATION_SPAN= 2, LOCATION_LEADING_COMMENTS= 3,
+        LOCATION_LEADING_DETACHED_COMMENTS= 6;
+
+    /** Built-in type names, by FieldDescriptorProto.Type. Null for types that are not built in. */
+    private static final String PRIMITIVES[]= { null, "double", "float", "int64", "uint64", "int32", "fixed64",
+        "fixed32", "bool", "string", null, null, "bytes", "uint32", null, "sfixed32", "sfixed64", "sint32", "sint64" };
+    private static final String ANY_TYPE_NAME= "." +ParserContext.ANY_QUALIFIED;
+
+    /** A range of the mapped file with (the fields of) one message. Reading it doesn't copy anything. */
+    private static final class Wire {
+        private final ByteBuffer buffer;
+        private final int start, limit;
+        private int position;
+        /** Of the field that next() moved to. */
+        int fieldNumber, wireType;
+
+        Wire (ByteBuffer givenBuffer, int givenStart, int givenLimit) {
+            buffer= givenBuffer;
+            start= givenStart;
+            limit= givenLimit;
+            position= givenStart;
+        }
+
+        /** The same range, to read from its start again. */
+        Wire rewind() {
+            return new Wire( buffer, start, limit );
+        }
+
+        /** Move to the next field.
+         * @return false at the end. */
+        boolean next() throws IOException {
+            if (position>=limit)
+                return false;
+            final long tag= varint();
+            fieldNumber= (int)(tag>>>3);
+            wireType= (int)tag & 7;
+            return true;
+        }
+
+        private long varint() throws IOException {
+            long result= 0;
+            for (int shift= 0; shift<64; shift+= 7) {
+                if (position>=limit)
+                    throw new IOException("Truncated varint at " +position+ ".");
+                final byte b= buffer.get(position++);
+                result|= (long)(b & 0x7F) << shift;
+                if (b>=0)
+                    return result;
+            }
+            throw new IOException("Malformed varint at " +position+ ".");
+        }
+
+        int int32() throws IOException {
+            return (int)varint();
+        }
+
+        boolean bool() throws IOException {
+            return varint()!=0;
+        }
+
+        private int length() throws IOException {
+            if (wireType!=2)
+                throw new IOException("Field " +fieldNumber+ " at " +position+ " isn't length-delimited.");
+            final long length= varint();
+            if (length<0 || length>limit-position)
+                throw new IOException("Truncated field " +fieldNumber+ " at " +position+ ".");
+            return (int)length;
+        }
+
+        /** The current (length-delimited) field as a message. */
+        Wire message() throws IOException {
+            final int length= length();
+            final Wire result= new Wire( buffer, position, position+length );
+            position+= length;
+            return result;
+        }
+
+        String string() throws IOException {
+            final byte bytes[]= new byte[ length() ];
+            for (int i=0; i<bytes.length; i++)
+                bytes[i]= buffer.get(position++);
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+
+        /** Append the current field's value(s) to the given list - whether packed (as protoc writes them), or not. */
+        void ints (List<Integer> result) throws IOException {
+            if (wireType==2) {
+                final int length= length(); // Before reading position, which length() moves
+                final int end= position+length;
+                while (position<end)
+                    result.add( int32() );
+            }
+            else
+                result.add( int32() );
+        }
+
+        void skip() throws IOException {
+            switch (wireType) {
+                case 0: varint(); break;
+                case 1: position+= 8; break;
+                case 2: {
+                    final int length= length();
+                    position+= length;
+                    break;
+                }
+                case 5: position+= 4; break;
+                default: throw new IOException("Unsupported wire type " +wireType+ " of field " +fieldNumber+ " at " +position+ ".");
+            }
+        }
+    }
+
+    /** SourceCodeInfo.Location of a declaration. */
+    private static final class Location {
+        final int line, column;
+        /** To read its comments from, if needed. */
+        final Wire wire;
+
+        Location (int givenLine, int givenColumn, Wire givenWire) {
+            line= givenLine;
+            column= givenColumn;
+            wire= givenWire;
+        }
+    }
+
+    /** An import, or a message or enum definition, to read in the order of the .proto text. */
+    private static final class Element {
+        /** As in SourceCodeInfo.Location.path, joined with commas. */
+        final String path;
+        /** Field number of the element in its parent, like FILE_MESSAGE_TYPE. */
+        final int kind;
+        final Wire wire;
+        final String importPath;
+        /** Of its Location. Unknown (without source info) elements keep their order relative to each other. */
+        int line= Integer.MAX_VALUE, column= Integer.MAX_VALUE;
+
+        Element (String parentPath, int fieldNumber, int index, Wire givenWire, String givenImportPath) {
+            path= parentPath.isEmpty()
+                ? fieldNumber+ "," +index
+                : parentPath+ "," +fieldNumber+ "," +index;
+            kind= fieldNumber;
+            wire= givenWire;
+            importPath= givenImportPath;
+        }
+    }
+
+    private final Sink sink;
+    private final TypeNamePackage packageName;
+    /** Whether an 'optional' field was labelled so explicitly. That's so in proto2 only (and with proto3_optional). */
+    private final boolean proto2;
+    /** Path (see Element.path) -> its location. Only for declarations. Empty without source info. */
+    private final Map<String, Location> locations= new HashMap<>();
+
+    private DescriptorSetReader (Sink givenSink, String givenPackage, String syntax) {
+        sink= givenSink;
+        // As Parser has it: with a leading dot (see PackagePart in Parser.jjt). So full names get the same form.
+        packageName= new TypeNamePackage( Token.newToken(ParserConstants.PACKAGE_TKN),
+            givenPackage.isEmpty() ? "" : "." +givenPackage );
+        proto2= syntax.isEmpty() || syntax.equals("proto2");
+    }
+
+    /** Decode the given FileDescriptorSet, passing it to the given sink: the given root files, and the files that
+     * they import (transitively) - as far as they're in the set. Other files get skipped, as if not there.
+     * @param rootFiles Or empty for all files of the set. */
+    static void read (Path source, List<String> rootFiles, Sink sink) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel= FileChannel.open(source, StandardOpenOption.READ)) {
+            buffer= channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        // First only the names and imports of the files
+        final Map<String, Wire> files= new LinkedHashMap<>();
+        final Map<String, List<String>> imports= new HashMap<>();
+        final Wire set= new Wire( buffer, 0, buffer.limit() );
+        while (set.next()) {
+            if (set.fieldNumber!=SET_FILE) {
+                set.skip();
+                continue;
+            }
+            final Wire file= set.message();
+            String name= null;
+            final List<String> fileImports= new ArrayList<>();
+            while (file.next()) {
+                if (file.fieldNumber==FILE_NAME)
+                    name= file.string();
+                else if (file.fieldNumber==FILE_DEPENDENCY)
+                    fileImports.add( file.string() );
+                else
+                    file.skip();
+            }
+            if (name==null)
+                throw new IOException("A file in descriptor set " +source+ " has no name.");
+            files.put( name, file.rewind() );
+            imports.put( name, fileImports );
+        }
+
+        final Set<String> needed= new HashSet<>();
+        final Deque<String> toVisit= new ArrayDeque<>( rootFiles.isEmpty() ? files.keySet() : rootFiles );
+        while (!toVisit.isEmpty()) {
+            final String next= toVisit.pop();
+            if (!files.containsKey(next)) {
+                if (rootFiles.contains(next))
+                    throw new IllegalArgumentException("File " +next+ " isn't in descriptor set " +source+ ".");
+                continue; // Not in the set (protoc without --include_imports)
+            }
+            if (needed.add(next))
+                toVisit.addAll( imports.get(next) );
+        }
+        for (Map.Entry<String, Wire> file: files.entrySet()) {
+            if (needed.contains(file.getKey()))
+                readFile( file.getValue(), sink );
+        }
+    }
+
+    private static void readFile (Wire file, Sink sink) throws IOException {
+        String name= null, givenPackage= "", syntax= "";
+        final List<Element> elements= new ArrayList<>();
+        Wire sourceCodeInfo= null;
+        for (int imports= 0, messages= 0, enums= 0; file.next(); ) {
+            switch (file.fieldNumber) {
+                case FILE_NAME: name= file.string(); break;
+                case FILE_PACKAGE: givenPackage= file.string(); break;
+                case FILE_DEPENDENCY: elements.add( new Element("", FILE_DEPENDENCY, imports++, null, file.string()) ); break;
+                case FILE_MESSAGE_TYPE: elements.add( new Element("", FILE_MESSAGE_TYPE, messages++, file.message(), null) ); break;
+                case FILE_ENUM_TYPE: elements.add( new Element("", FILE_ENUM_TYPE, enums++, file.message(), null) ); break;
+                case FILE_SOURCE_CODE_INFO: sourceCodeInfo= file.message(); break;
+                case FILE_SYNTAX: syntax= file.string(); break;
+                default: file.skip();
+            }
+        }
+        if (!sink.onFile(name))
+            return;
+
+        final DescriptorSetReader reader= new DescriptorSetReader( sink, givenPackage, syntax );
+        if (sourceCodeInfo!=null)
+            reader.readLocations( sourceCodeInfo );
+        reader.sort( elements );
+        for (Element element: elements) {
+            if (element.kind==FILE_DEPENDENCY)
+                sink.onImport( element.importPath );
+            else if (element.kind==FILE_MESSAGE_TYPE)
+                reader.readMessage( element, null );
+            else
+                reader.readEnum( element, null );
+        }
+    }
+
+    private void readLocations (Wire sourceCodeInfo) throws IOException {
+        final List<Integer> path= new ArrayList<>(), span= new ArrayList<>();
+        while (sourceCodeInfo.next()) {
+            if (sourceCodeInfo.fieldNumber!=SOURCE_LOCATION) {
+                sourceCodeInfo.skip();
+                continue;
+            }
+            final Wire location= sourceCodeInfo.message();
+            path.clear();
+            span.clear();
+            while (location.next()) {
+                if (location.fieldNumber==LOCATION_PATH)
+                    location.ints(path);
+                else if (location.fieldNumber==LOCATION_SPAN)
+                    location.ints(span);
+                else
+                    location.skip();
+            }
+            if (isDeclaration(path) && span.size()>=2) {
+                final StringBuilder key= new StringBuilder();
+                for (int part: path)
+                    key.append( key.length()>0 ? "," : "" ).append( part );
+                locations.put( key.toString(), new Location(span.get(0), span.get(1), location.rewind()) );
+            }
+        }
+    }
+
+    /** Whether the given path is of an import, or of a message, enum, or field definition. */
+    private static boolean isDeclaration (List<Integer> path) {
+        if (path.size()<2 || path.size()%2!=0)
+            return false;
+        if (path.get(0)==FILE_DEPENDENCY || path.get(0)==FILE_ENUM_TYPE)
+            return path.size()==2;
+        if (path.get(0)!=FILE_MESSAGE_TYPE)
+            return false;
+        for (int i=2; i<path.size(); i+=2) {
+            if (path.get(i)==MESSAGE_FIELD || path.get(i)==MESSAGE_ENUM_TYPE)
+                return path.size()==i+2;
+            if (path.get(i)!=MESSAGE_NESTED_TYPE)
+                return false;
+        }
+        return true;
+    }
+
+    /** Sort the given elements in the order of the .proto text, if known. */
+    private void sort (List<Element> elements) {
+        if (locations.isEmpty())
+            return;
+        for (Element element: elements) {
+            final Location location= locations.get(element.path);
+            if (location!=null) {
+                element.line= location.line;
+                element.column= location.column;
+            }
+        }
+        Collections.sort( elements, (a, b) -> a.line!=b.line
+            ? Integer.compare(a.line, b.line)
+            : Integer.compare(a.column, b.column) ); // Stable
+    }
+
+    /** @return Instruction from the comments right before the element with the given path, or null if none. */
+    private HandlingInstruction instruction (String path) throws IOException {
+        final Location location= locations.get(path);
+        if (location==null)
+            return null;
+        final List<String> lines= new ArrayList<>();
+        final Wire wire= location.wire.rewind();
+        String leading= null;
+        while (wire.next()) {
+            if (wire.fieldNumber==LOCATION_LEADING_DETACHED_COMMENTS)
+                Collections.addAll( lines, wire.string().split("\n") );
+            else if (wire.fieldNumber==LOCATION_LEADING_COMMENTS)
+                leading= wire.string();
+            else
+                wire.skip();
+        }
+        if (leading!=null)
+            Collections.addAll( lines, leading.split("\n") );
+        if (lines.isEmpty())
+            return null;
+        // Join the same way as Parser.addHandlingInstruction(..) does, one comment line after another
+        String content= "";
+        for (int i= lines.size()-1; i>=0; i--) {
+            if (!content.isEmpty())
+                content= " " +content;
+            content= lines.get(i).trim()+ content;
+        }
+        return new HandlingInstruction(content);
+    }
+
+    private void readMessage (Element element, TypeNameDefinition parent) throws IOException {
+        final Wire message= element.wire;
+        String name= null;
+        final List<Wire> fields= new ArrayList<>();
+        final List<Element> nested= new ArrayList<>();
+        // Entry types of map fields, by their (simple) name
+        final Map<String, Wire> mapEntries= new HashMap<>();
+        for (int nestedTypes= 0, enums= 0; message.next(); ) {
+            switch (message.fieldNumber) {
+                case MESSAGE_NAME: name= message.string(); break;
+                case MESSAGE_FIELD: fields.add( message.message() ); break;
+                case MESSAGE_NESTED_TYPE: {
+                    final Wire nestedType= message.message();
+                    if (isMapEntry(nestedType))
+                        mapEntries.put( nameOf(nestedType), nestedType );
+                    else
+                        nested.add( new Element(element.path, MESSAGE_NESTED_TYPE, nestedTypes, nestedType, null) );
+                    nestedTypes++;
+                    break;
+                }
+                case MESSAGE_ENUM_TYPE: nested.add( new Element(element.path, MESSAGE_ENUM_TYPE, enums++, message.message(), null) ); break;
+                default: message.skip();
+            }
+        }
+        final TypeNameDefinition typeName= new TypeNameDefinition(
+            Token.newToken(ParserConstants.MESSAGE_TKN), packageName, parent, name );
+        final TypeDefinition type= sink.onType(typeName);
+        type.setInstruction( instruction(element.path) );
+
+        final Map<Integer, Field> oneofs= new HashMap<>();
+        for (int index= 0; index<fields.size(); index++)
+            readField( fields.get(index), element.path+ "," +MESSAGE_FIELD+ "," +index, type, mapEntries, oneofs );
+
+        sort( nested );
+        for (Element nestedElement: nested) {
+            if (nestedElement.kind==MESSAGE_ENUM_TYPE)
+                readEnum( nestedElement, typeName );
+            else
+                readMessage( nestedElement, typeName );
+        }
+    }
+
+    private static boolean isMapEntry (Wire message) throws IOException {
+        final Wire wire= message.rewind();
+        while (wire.next()) {
+            if (wire.fieldNumber!=MESSAGE_OPTIONS) {
+                wire.skip();
+                continue;
+            }
+            final Wire options= wire.message();
+            while (options.next()) {
+                if (options.fieldNumber==MESSAGE_OPTIONS_MAP_ENTRY && options.wireType==0)
+                    return options.bool();
+                options.skip();
+            }
+        }
+        return false;
+    }
+
+    private static String nameOf (Wire message) throws IOException {
+        final Wire wire= message.rewind();
+        while (wire.next()) {
+            if (wire.fieldNumber==MESSAGE_NAME)
+                return wire.string();
+            wire.skip();
+        }
+        return null;
+    }
+
+    /** A FieldDescriptorProto, as far as we need it. */
+    private static final class FieldInfo {
+        String name, typeName;
+        int label, type, oneofIndex= -1;
+        boolean proto3Optional;
+
+        FieldInfo (Wire wire) throws IOException {
+            while (wire.next()) {
+                switch (wire.fieldNumber) {
+                    case FIELD_NAME: name= wire.string(); break;
+                    case FIELD_LABEL: label= wire.int32(); break;
+                    case FIELD_TYPE: type= wire.int32(); break;
+                    case FIELD_TYPE_NAME: typeName= wire.string(); break;
+                    case FIELD_ONEOF_INDEX: oneofIndex= wire.int32(); break;
+                    case FIELD_PROTO3_OPTIONAL: proto3Optional= wire.bool(); break;
+                    default: wire.skip();
+                }
+            }
+        }
+    }
+
+    /** @param oneofs Index of a oneof -> its Field. */
+    private void readField (Wire wire, String path, TypeDefinition type, Map<String, Wire> mapEntries,
+                            Map<Integer, Field> oneofs) throws IOException {
+        final FieldInfo info= new FieldInfo(wire);
+        final TypeNameDefinition context= type.typeNameDefinition;
+        if (info.type==TYPE_GROUP)
+            throw new UnsupportedOperationException("Groups are not supported: " +context.fullName()+ "." +info.name);
+        final boolean inOneof= info.oneofIndex>=0 && !info.proto3Optional; // proto3 'optional' has a synthetic oneof
+        Field field= inOneof
+            ? oneofs.get(info.oneofIndex)
+            : null;
+        if (field==null) {
+            field= new Field(type);
+            if (inOneof)
+                oneofs.put( info.oneofIndex, field );
+        }
+        field.name= info.name;
+
+        // protoc names the entry type of map field 'values' like .package.Message.ValuesEntry
+        final String entryPrefix= context.fullName()+ ".";
+        final Wire mapEntry= info.type==TYPE_MESSAGE && info.label==LABEL_REPEATED && info.typeName!=null
+                && info.typeName.startsWith(entryPrefix)
+            ? mapEntries.get( info.typeName.substring(entryPrefix.length()) )
+            : null;
+        if (mapEntry!=null) {
+            field.isMap= true;
+            final Wire entry= mapEntry.rewind();
+            while (entry.next()) {
+                if (entry.fieldNumber!=MESSAGE_FIELD) {
+                    entry.skip();
+                    continue;
+                }
+                final FieldInfo keyOrValue= new FieldInfo( entry.message() );
+                if ("key".equals(keyOrValue.name))
+                    field.typeNameOfField= fieldType( keyOrValue, context );
+                else if ("value".equals(keyOrValue.name))
+                    field.typeNameOfMapValues= fieldType( keyOrValue, context );
+            }
+        }
+        else {
+            field.typeNameOfField= fieldType( info, context );
+            if (info.label==LABEL_REPEATED)
+                field.isRepeated= true;
+            else if (info.label==LABEL_REQUIRED)
+                field.attribute= Field.Attribute.REQUIRED;
+            else if (info.label==LABEL_OPTIONAL && (proto2 && !inOneof || info.proto3Optional))
+                field.attribute= Field.Attribute.OPTIONAL;
+        }
+
+        final HandlingInstruction instruction= instruction(path);
+        if (instruction!=null) {
+            if (field.getInstruction()!=null) // Another member of the same oneof
+                field.getInstruction().append(instruction);
+            else
+                field.setInstruction(instruction);
+        }
+    }
+
+    private TypeNameOfField fieldType (FieldInfo info, TypeNameDefinition context) {
+        if (info.type==TYPE_MESSAGE || info.type==TYPE_ENUM || info.type==0 && info.typeName!=null) {
+            if (info.typeName.equals(ANY_TYPE_NAME))
+                return new TypeNameOfField( Token.newToken(ParserConstants.TYPE_TKN, ParserContext.ANY_QUALIFIED) );
+            return new TypeNameOfField( packageName, context, info.typeName );
+        }
+        final String primitive= info.type>0 && info.type<PRIMITIVES.length
+            ? PRIMITIVES[info.type]
+            : null;
+        if (primitive==null)
+            throw new UnsupportedOperationException("Unsupported type " +info.type+ " of field " +context.fullName()+ "." +info.name);
+        return new TypeNameOfField( Token.newToken(ParserConstants.TYPE_TKN, primitive) );
+    }
+
+    private void readEnum (Element element, TypeNameDefinition parent) throws IOException {
+        final Wire wire= element.wire;
+        String name= null;
+        final List<String> values= new ArrayList<>();
+        while (wire.next()) {
+            if (wire.fieldNumber==ENUM_NAME)
+                name= wire.string();
+            else if (wire.fieldNumber==ENUM_VALUE) {
+                final Wire value= wire.message();
+                while (value.next()) {
+                    if (value.fieldNumber==ENUM_VALUE_NAME)
+                        values.add( value.string() );
+                    else
+                        value.skip();
+                }
+            }
+            else
+                wire.skip();
+        }
+        final TypeNameDefinition typeName= new TypeNameDefinition(
+            Token.newToken(ParserConstants.ENUM_TKN), packageName, parent, name );
+        final TypeDefinition type= sink.onType(typeName);
+        type.setInstruction( instruction(element.path) );
+        type.isEnum= true;
+        for (String value: values)
+            new Field(type).name= value;
+    }
+}
@@ -0,0 +1,388 @@
+package io.github.protopick.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/** Hand-written alternative to the generated ParserTokenManager (see ParserContext.fastLexer, and option --fast_lexer
+ * in Run). It emits the same tokens as the grammar in Parser.jjt defines - the same kinds, images, positions and
+ * special tokens (comments) - but:
+ * <br/>- it scans the UTF-8 bytes of the file, driven by a table of byte classes, rather than decoding the whole file
+ * into chars first (see MappedCharStream) and running the generated automaton over them,
+ * <br/>- keywords and punctuation get constant images, and identifiers get interned: per file by their bytes (so a
+ * repeated identifier doesn't allocate a String), and then in the context's NamePool,
+ * <br/>- comments only keep where they are. Their text gets decoded only if asked for by toString(), which
+ * Parser.addHandlingInstruction(..) does.
+ * <br/>
+ * The rules of the grammar that it mirrors (and that are easy to miss): The longest match wins, and on a tie the token
+ * listed first (so keywords win over identifiers). A DOTTED_IDENT_TKN may end with a dot, but it can't have a dot right
+ * after its first character. A comment must end with a new line.
+ * <br/>
+ * Not thread-safe - but then, one Parser (and its token manager) is used by one Thread only.
+ * */
+public final class FastLexer extends ParserTokenManager {
+    // Classes of bytes. Any byte that's not listed (including non-ASCII outside of string literals and comments) is
+    // a lexical error.
+    private static final byte OTHER=0, SPACE=1, LETTER=2, DIGIT=3, PUNCTUATION=4, QUOTE=5, SLASH=6, MINUS=7;
+    private static final byte CLASSES[]= new byte[256];
+    /** Kinds of PUNCTUATION bytes. */
+    private static final int PUNCTUATION_KINDS[]= new int[128];
+    /** Images of PUNCTUATION bytes. */
+    private static final String PUNCTUATION_IMAGES[]= new String[128];
+
+    private static void punctuation (char c, int kind) {
+        CLASSES[c]= PUNCTUATION;
+        PUNCTUATION_KINDS[c]= kind;
+        PUNCTUATION_IMAGES[c]= String.valueOf(c);
+    }
+
+    static {
+        for (char c: " \t\n\r".toCharArray())
+            CLASSES[c]= SPACE;
+        for (char c='a'; c<='z'; c++)
+            CLASSES[c]= LETTER;
+        for (char c='A'; c<='Z'; c++)
+            CLASSES[c]= LETTER;
+        CLASSES['_']= LETTER;
+        for (char c='0'; c<='9'; c++)
+            CLASSES[c]= DIGIT;
+        CLASSES['"']= QUOTE;
+        CLASSES['/']= SLASH;
+        CLASSES['-']= MINUS;
+        punctuation( '=', EQUL_TKN );
+        punctuation( ';', SEMI_COLON_TKN );
+        punctuation( ':', COLON_TKN );
+        punctuation( ',', COMMA_TKN );
+        punctuation( '.', DOT_TKN );
+        punctuation( '{', LEFTBRACE_TKN );
+        punctuation( '}', RIGHTBRACE_TKN );
+        punctuation( '(', LEFTPAREN_TKN );
+        punctuation( ')', RIGHTPAREN_TKN );
+        punctuation( '[', LEFTBRACKET_TKN );
+        punctuation( ']', RIGHTBRACKET_TKN );
+        punctuation( '<', LESSTHAN_TKN );
+        punctuation( '>', GRATETHAN_TKN );
+    }
+
+    /** Words that are tokens of their own, in pairs: the word, and its kind. */
+    private static final Object KEYWORDS[]= {
+        "to", TO_TKN, "syntax", SYNTAX_TKN, "true", BOOLEAN_TKN, "false", BOOLEAN_TKN, "required", REQUIRED_TKN,
+        "optional", OPTIONAL_TKN, "option", OPTION_TKN, "import", IMPORT_TKN, "public", PUBLIC_TKN,
+        "package", PACKAGE_TKN, "service", SERVICE_TKN, "message", MESSAGE_TKN, "enum", ENUM_TKN, "oneof", ONEOF_TKN,
+        "extensions", EXTENTIONS_TKN, "extend", EXTEND_TKN, "map", MAP_TKN, "reserved", RESERVED_TKN,
+        "repeated", REPEATED_TKN, "returns", RETURNS_TKN, "stream", STREAM_TKN,
+        "double", TYPE_TKN, "float", TYPE_TKN, "int32", TYPE_TKN, "int64", TYPE_TKN, "uint32", TYPE_TKN,
+        "uint64", TYPE_TKN, "sint32", TYPE_TKN, "sint64", TYPE_TKN, "fixed32", TYPE_TKN, "fixed64", TYPE_TKN,
+        "sfixed32", TYPE_TKN, "sfixed64", TYPE_TKN, "bool", TYPE_TKN, "string", TYPE_TKN, "bytes", TYPE_TKN,
+        ParserContext.ANY, TYPE_TKN, ParserContext.ANY_QUALIFIED, TYPE_TKN,
+        "rpc", RPC_TKN, "max", NUMBER_TKN
+    };
+
+    private final byte bytes[];
+    private final int length;
+    /** Offset of the first byte after any byte order mark. */
+    private final int start;
+    /** Index of the next byte to scan. */
+    private int position;
+    private final NamePool names;
+
+    /** Number of tokens returned so far (including EOF). */
+    private int tokenCount;
+
+    /** Byte offsets of the first byte of each line. Sorted. */
+    private final int lineStarts[];
+    private int lineCount;
+    /** Cache for column(int): the last offset (and its column) we computed a column for. */
+    private int columnCacheOffset= -1, columnCacheValue;
+
+    /** Words of this file (keywords and identifiers): open addressing, by String.hashCode() - which for ASCII is the
+     * same as the hash of the bytes. */
+    private String words[]= new String[256];
+    /** Kinds of words, at the same indexes. */
+    private int wordKinds[]= new int[256];
+    private int wordCount;
+
+    public FastLexer (File file, NamePool givenNames) throws IOException {
+        super( (CharStream) null ); // We don't use the generated scanner
+        bytes= Files.readAllBytes( file.toPath() );
+        length= bytes.length;
+        start= length>=3 && bytes[0]==(byte)0xEF && bytes[1]==(byte)0xBB && bytes[2]==(byte)0xBF
+            ? 3
+            : 0;
+        position= start;
+        names= givenNames;
+        lineStarts= findLineStarts();
+        for (int i=0; i<KEYWORDS.length; i+=2)
+            addWord( (String) KEYWORDS[i], (Integer) KEYWORDS[i+1] );
+    }
+
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /** Lines end with "\n", "\r" or "\r\n", as per MappedCharStream. */
+    private int[] findLineStarts() {
+        int starts[]= new int[ Math.max(16, length/32) ];
+        starts[0]= start;
+        lineCount= 1;
+        for (int i=start; i<length; i++) {
+            final byte b= bytes[i];
+            if (b=='\n' || b=='\r' && (i+1==length || bytes[i+1]!='\n')) {
+                if (lineCount==starts.length)
+                    starts= Arrays.copyOf(starts, starts.length*2);
+                starts[lineCount++]= i+1;
+            }
+        }
+        return starts;
+    }
+
+    /** @return 0-based index of the line that contains the given offset. */
+    private int lineIndex (int offset) {
+        int low= 0, high= lineCount-1;
+        while (low<high) {
+            final int middle= (low+high+1)>>>1;
+            if (lineStarts[middle]<=offset)
+                low= middle;
+            else
+                high= middle-1;
+        }
+        return low;
+    }
+
+    /** 1-based column, in chars (as MappedCharStream counts them, with tabs of size 1). */
+    private int column (int offset) {
+        final int lineStart= lineStarts[ lineIndex(offset) ];
+        int from= lineStart, column= 0;
+        // Tokens come in order, so usually we continue from the previous (cached) offset on the same line.
+        if (columnCacheOffset>=lineStart && columnCacheOffset<=offset) {
+            from= columnCacheOffset;
+            column= columnCacheValue;
+        }
+        for (int i=from; i<offset; i++) {
+            final int b= bytes[i] & 0xFF;
+            if ((b & 0xC0)!=0x80) // Not a continuation byte
+                column+= (b & 0xF8)==0xF0 ? 2 : 1; // 4 bytes of UTF-8 are 2 chars (a surrogate pair)
+        }
+        columnCacheOffset= offset;
+        columnCacheValue= column;
+        return column+1;
+    }
+
+    /** @param end Offset after the last byte of the token. */
+    private <T extends Token> T position (T token, int begin, int end) {
+        token.beginLine= lineIndex(begin)+1;
+        token.beginColumn= column(begin);
+        token.endLine= lineIndex(end-1)+1;
+        token.endColumn= column(end-1);
+        return token;
+    }
+
+    private Token token (int kind, String image, int begin, int end) {
+        return position( Token.newToken(kind, image), begin, end );
+    }
+
+    public Token getNextToken() {
+        tokenCount++;
+        Token special= null;
+        while (true) {
+            while (position<length && CLASSES[bytes[position] & 0xFF]==SPACE)
+                position++;
+            final Token token;
+            if (position>=length) {
+                token= token( EOF, "", length, length );
+            }
+            else {
+                final int begin= position;
+                final int b= bytes[position] & 0xFF;
+                switch (CLASSES[b]) {
+                    case LETTER:
+                        token= word();
+                        break;
+                    case DIGIT:
+                    case MINUS:
+                        token= number();
+                        break;
+                    case PUNCTUATION:
+                        position++;
+                        token= token( PUNCTUATION_KINDS[b], PUNCTUATION_IMAGES[b], begin, position );
+                        break;
+                    case QUOTE:
+                        token= string();
+                        break;
+                    case SLASH:
+                        final Token comment= comment();
+                        if (special!=null) {
+                            special.next= comment;
+                            comment.specialToken= special;
+                        }
+                        special= comment;
+                        continue;
+                    default:
+                        throw error( begin );
+                }
+            }
+            token.specialToken= special;
+            return token;
+        }
+    }
+
+    /** An identifier, a dotted identifier or a keyword. */
+    private Token word() {
+        final int begin= position;
+        int end= begin+1;
+        boolean dotted= false;
+        // After the first character: ( [alnum_] (".")? )*
+        while (end<length && (CLASSES[bytes[end] & 0xFF]==LETTER || CLASSES[bytes[end] & 0xFF]==DIGIT)) {
+            end++;
+            if (end<length && bytes[end]=='.') {
+                end++;
+                dotted= true;
+            }
+        }
+        position= end;
+        final int slot= findWord( begin, end );
+        if (words[slot]!=null)
+            return token( wordKinds[slot], words[slot], begin, end );
+        // Not a keyword, and new in this file
+        final String word= names.intern( new String(bytes, begin, end-begin, StandardCharsets.ISO_8859_1) );
+        final int kind= dotted ? DOTTED_IDENT_TKN : IDENT_TKN;
+        addWord( word, kind );
+        return token( kind, word, begin, end );
+    }
+
+    private static int hash (byte bytes[], int begin, int end) {
+        int hash= 0;
+        for (int i=begin; i<end; i++)
+            hash= 31*hash + bytes[i];
+        return hash;
+    }
+
+    /** @return Slot of the given word in words, or the empty slot where it belongs. */
+    private int findWord (int begin, int end) {
+        final int hash= hash( bytes, begin, end );
+        final int mask= words.length-1;
+        for (int slot= (hash ^ hash>>>16) & mask; ; slot= (slot+1) & mask) {
+            final String word= words[slot];
+            if (word==null)
+                return slot;
+            if (word.hashCode()==hash && word.length()==end-begin) {
+                int i= 0;
+                while (i<end-begin && word.charAt(i)==bytes[begin+i])
+                    i++;
+                if (i==end-begin)
+                    return slot;
+            }
+        }
+    }
+
+    private void addWord (String word, int kind) {
+        if (2*(wordCount+1)>words.length) {
+            final String oldWords[]= words;
+            final int oldKinds[]= wordKinds;
+            words= new String[ 2*oldWords.length ];
+            wordKinds= new int[ 2*oldWords.length ];
+            for (int i=0; i<oldWords.length; i++) {
+                if (oldWords[i]!=null)
+                    place( oldWords[i], oldKinds[i] );
+            }
+        }
+        place( word, kind );
+        wordCount++;
+    }
+
+    private void place (String word, int kind) {
+        final int hash= word.hashCode();
+        final int mask= words.length-1;
+        int slot= (hash ^ hash>>>16) & mask;
+        while (words[slot]!=null)
+            slot= (slot+1) & mask;
+        words[slot]= word;
+        wordKinds[slot]= kind;
+    }
+
+    /** NUMBER_TKN: "0" | (["-"])?["1"-"9"](["0"-"9"])*, or DOUBLE_TKN: the same followed by "." (["0"-"9"])*. */
+    private Token number() {
+        final int begin= position;
+        int end= begin;
+        if (bytes[end]=='-') {
+            end++;
+            if (end>=length || bytes[end]<'1' || bytes[end]>'9')
+                throw error( begin );
+        }
+        if (bytes[end]=='0')
+            end++;
+        else {
+            while (end<length && CLASSES[bytes[end] & 0xFF]==DIGIT)
+                end++;
+        }
+        int kind= NUMBER_TKN;
+        if (end<length && bytes[end]=='.') {
+            kind= DOUBLE_TKN;
+            end++;
+            while (end<length && CLASSES[bytes[end] & 0xFF]==DIGIT)
+                end++;
+        }
+        position= end;
+        return token( kind, new String(bytes, begin, end-begin, StandardCharsets.ISO_8859_1), begin, end );
+    }
+
+    /** CSTRING_TKN: "\"" ( ~["\""] )* "\"" - including the quotes (and any new lines). */
+    private Token string() {
+        final int begin= position;
+        int end= begin+1;
+        while (end<length && bytes[end]!='"')
+            end++;
+        if (end>=length)
+            throw error( length );
+        end++;
+        position= end;
+        return token( CSTRING_TKN, new String(bytes, begin, end-begin, StandardCharsets.UTF_8), begin, end );
+    }
+
+    /** SINGLE_LINE_COMMENT: "//" (~["\n","\r"])* ("\n"|"\r"|"\r\n") */
+    private Token comment() {
+        final int begin= position;
+        if (begin+1>=length || bytes[begin+1]!='/')
+            throw error( begin+1 );
+        int end= begin+2;
+        while (end<length && bytes[end]!='\n' && bytes[end]!='\r')
+            end++;
+        if (end>=length)
+            throw error( length );
+        end+= bytes[end]=='\r' && end+1<length && bytes[end+1]=='\n' ? 2 : 1;
+        position= end;
+        return position( new CommentToken(bytes, begin, end), begin, end );
+    }
+
+    /** Special token of a comment. Its image gets decoded on demand: Use toString() rather than image. */
+    private static final class CommentToken extends Token {
+        private static final long serialVersionUID= 1L;
+        private byte bytes[];
+        private final int begin, end;
+
+        CommentToken (byte givenBytes[], int givenBegin, int givenEnd) {
+            super( SINGLE_LINE_COMMENT );
+            bytes= givenBytes;
+            begin= givenBegin;
+            end= givenEnd;
+        }
+
+        public String toString() {
+            if (image==null) {
+                image= new String( bytes, begin, end-begin, StandardCharsets.UTF_8 );
+                bytes= null;
+            }
+            return image;
+        }
+    }
+
+    private TokenMgrError error (int offset) {
+        final String encountered= offset>=length
+            ? "<EOF>"
+            : "\"" +(char)(bytes[offset] & 0xFF)+ "\" (" +(bytes[offset] & 0xFF)+ ")";
+        return new TokenMgrError( "Lexical error at line " +(lineIndex(offset)+1)+ ", column " +column(offset)+
+                                  ".  Encountered: " +encountered, TokenMgrError.LEXICAL_ERROR );
+    }
+}
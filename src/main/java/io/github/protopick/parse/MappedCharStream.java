@@ -0,0 +1,172 @@
+package io.github.protopick.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** CharStream (see USER_CHAR_STREAM in Parser.jjt) over the whole content of a UTF-8 .proto file.
+ * It decodes the file in one go into a char array, which then serves as the token buffer. Hence, no per-character
+ * stream calls, no re-buffering, and backup(int) and GetImage() only move indexes or copy a range.
+ * <br/>
+ * Large files are memory-mapped; small files are read with one bulk read (mapping has its own overhead).
+ * <br/>
+ * Line and column numbers are only used for tokens (and errors), so we don't track them per character. Instead,
+ * we record where the lines start, and we compute line/column on demand.
+ * <br/>
+ * Not thread-safe - but then, one Parser (and its stream) is used by one Thread only.
+ * */
+public final class MappedCharStream implements CharStream {
+    /** Files of this size or larger are memory-mapped. */
+    static final int MAP_THRESHOLD= 256*1024;
+
+    private char buffer[];
+    /** Number of valid chars in buffer. */
+    private final int length;
+    /** Index of the next char to be read by readChar(). */
+    private int position;
+    /** Index of the first char of the current token. */
+    private int tokenBegin;
+
+    /** Offsets of the first char of each line. Sorted. */
+    private final int lineStarts[];
+    private int lineCount;
+    private int tabSize= 1;
+    private boolean trackLineColumn= true;
+
+    /** Cache for column(int): the last offset (and its column) we computed a column for. */
+    private int columnCacheOffset= -1, columnCacheValue;
+
+    public MappedCharStream (File file) throws IOException {
+        try (RandomAccessFile raf= new RandomAccessFile(file, "r"); FileChannel channel= raf.getChannel()) {
+            final long size= channel.size();
+            if (size>Integer.MAX_VALUE)
+                throw new IOException("File " +file+ " is too large: " +size+ " bytes.");
+            final ByteBuffer bytes;
+            if (size>=MAP_THRESHOLD)
+                bytes= channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            else {
+                bytes= ByteBuffer.allocate( (int)size );
+                while (bytes.hasRemaining() && channel.read(bytes)>=0) {}
+                bytes.flip();
+            }
+            skipByteOrderMark(bytes);
+
+            // UTF-8 never has more chars than bytes.
+            buffer= new char[ bytes.remaining() ];
+            final CharBuffer chars= CharBuffer.wrap(buffer);
+            final CharsetDecoder decoder= StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            length= chars.position();
+        }
+        lineStarts= findLineStarts();
+    }
+
+    private static void skipByteOrderMark (ByteBuffer bytes) {
+        if (bytes.remaining()>=3 && bytes.get(0)==(byte)0xEF && bytes.get(1)==(byte)0xBB && bytes.get(2)==(byte)0xBF)
+            bytes.position(3);
+    }
+
+    /** Lines end with "\n", "\r" or "\r\n", as per SimpleCharStream. */
+    private int[] findLineStarts() {
+        int starts[]= new int[ Math.max(16, length/32) ];
+        starts[0]= 0;
+        lineCount= 1;
+        for (int i=0; i<length; i++) {
+            final char c= buffer[i];
+            if (c=='\n' || c=='\r' && (i+1==length || buffer[i+1]!='\n')) {
+                if (lineCount==starts.length)
+                    starts= Arrays.copyOf(starts, starts.length*2);
+                starts[lineCount++]= i+1;
+            }
+        }
+        return starts;
+    }
+
+    /** @return 0-based index of the line that contains the given offset. */
+    private int lineIndex (int offset) {
+        int low= 0, high= lineCount-1;
+        while (low<high) {
+            final int middle= (low+high+1)>>>1;
+            if (lineStarts[middle]<=offset)
+                low= middle;
+            else
+                high= middle-1;
+        }
+        return low;
+    }
+
+    private int line (int offset) {
+        return trackLineColumn ? lineIndex(offset)+1 : -1;
+    }
+
+    /** 1-based column, expanding tabs as per tabSize. */
+    private int column (int offset) {
+        if (!trackLineColumn)
+            return -1;
+        final int lineStart= lineStarts[ lineIndex(offset) ];
+        int from= lineStart, column= 0;
+        // Tokens come in order, so usually we continue from the previous (cached) offset on the same line.
+        if (columnCacheOffset>=lineStart && columnCacheOffset<=offset) {
+            from= columnCacheOffset;
+            column= columnCacheValue;
+        }
+        for (int i=from; i<offset; i++)
+            column+= buffer[i]=='\t' ? tabSize - column%tabSize : 1;
+        columnCacheOffset= offset;
+        columnCacheValue= column;
+        return column+1;
+    }
+
+    public char readChar() throws IOException {
+        if (position>=length)
+            throw new IOException("End of input."); // That's how JavaCC token managers detect the end
+        return buffer[position++];
+    }
+
+    public char BeginToken() throws IOException {
+        tokenBegin= position;
+        return readChar();
+    }
+
+    public void backup (int amount) {
+        position-= amount;
+    }
+
+    public String GetImage() {
+        return new String(buffer, tokenBegin, position-tokenBegin);
+    }
+
+    public char[] GetSuffix (int len) {
+        return Arrays.copyOfRange(buffer, position-len, position);
+    }
+
+    public void Done() {
+        buffer= null;
+    }
+
+    public int getBeginLine() { return line(tokenBegin); }
+    public int getBeginColumn() { return column(tokenBegin); }
+    public int getEndLine() { return line(position-1); }
+    public int getEndColumn() { return column(position-1); }
+    /** @deprecated See getEndLine(). */
+    @Deprecated
+    public int getLine() { return getEndLine(); }
+    /** @deprecated See getEndColumn(). */
+    @Deprecated
+    public int getColumn() { return getEndColumn(); }
+
+    public void setTabSize (int i) { tabSize= i; }
+    public int getTabSize() { return tabSize; }
+    public boolean getTrackLineColumn() { return trackLineColumn; }
+    public void setTrackLineColumn (boolean track) { trackLineColumn= track; }
+}
@@ -0,0 +1,23 @@
+package io.github.protopick.parse;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Canonical String instances, so that equal names (type names, map keys...) share one instance. Like
+ * String.intern(), but scoped to one ParserContext, so the names go away together with the context.
+ * Thread-safe.
+ * */
+public final class NamePool {
+    private final ConcurrentHashMap<String, String> names= new ConcurrentHashMap<>();
+
+    /** @return The pooled instance equal to the given name. That's the given instance, if it's the first such name. */
+    public String intern (String name) {
+        final String existing= names.putIfAbsent( name, name );
+        return existing!=null
+            ? existing
+            : name;
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
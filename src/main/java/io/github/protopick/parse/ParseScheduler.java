@@ -0,0 +1,60 @@
+package io.github.protopick.parse;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/** Factories of executors that ParserContext runs its parsers on (one task per .proto file).
+ * Any executor works, as long as it doesn't run a task on a Thread that is in the middle of another task.
+ * That's because of one Parser per Thread (at a time), as enforced by Parser.alreadyParsing. Parser tasks don't
+ * wait for each other (an import only submits another task), so none of the executors here do that.
+ * */
+public final class ParseScheduler {
+    private ParseScheduler() {}
+
+    /** Value of option --parse_threads (in Run) that selects virtualThreads(). */
+    public static final String VIRTUAL= "virtual";
+
+    /** A work-stealing pool with the given number of (daemon) threads. In async (FIFO) mode, since the tasks
+     * are never joined, only submitted. */
+    public static ExecutorService forkJoin (int parallelism) {
+        if (parallelism<1)
+            throw new IllegalArgumentException("Parallelism must be positive, but it was " +parallelism+ ".");
+        return new ForkJoinPool( parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true );
+    }
+
+    /** Default: forkJoin(..) sized to the number of available processors. */
+    public static ExecutorService forkJoin() {
+        return forkJoin( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /** One virtual thread per file. Only on Java 21+. We invoke it through reflection, so that this compiles with older JDKs. */
+    public static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer. This is Java "
+                    +System.getProperty("java.version")+ ".", e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** One new platform Thread per file. That's how ParserContext used to run. Not suitable for large trees of imports. */
+    public static Executor threadPerFile() {
+        return task -> new Thread(task).start();
+    }
+
+    /** Parse the value of --parse_threads: either a positive number of threads, or VIRTUAL. */
+    public static Executor fromOption (String value) {
+        if (VIRTUAL.equals(value))
+            return virtualThreads();
+        try {
+            return forkJoin( Integer.parseInt(value) );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expecting a positive number of parse threads, or '" +VIRTUAL+ "', but got: " +value, e);
+        }
+    }
+}
@@ -1,18 +1,30 @@
 package io.github.protopick.parse;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import io.github.protopick.compile.BuildCache;
 import io.github.protopick.compile.Field;
+import io.github.protopick.compile.ModelCodec;
+import io.github.protopick.compile.ModelSnapshot;
+import io.github.protopick.compile.Profile;
 import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.compile.TypeIndex;
 import io.github.protopick.compile.TypeNameDefinition;
 import io.github.protopick.compile.TypeNameOfField;
 
@@ -25,13 +37,71 @@ public final class ParserContext {
     /**"New types" mean type names used not for fields, but for types defined by the user ("message", "enum").
      * Full type name (including protobuf package, if any) -> TypeDefinition. We add them in by addNewDefinedType(TypeName) as we parse.
      * <br/>Do SYNCHRONIZE any access by running within synchronized(newTypes) {...}.
+     * <br/>While parsing, the order of entries depends on thread timing. Once waitUntilComplete() returned, the
+     * order is deterministic: as if one thread parsed the files depth-first, and each import parsed the imported
+     * file (unless parsed already) right where the import is. That's by declarations, see orderNewTypes().
+     * With lazyImports, files parsed on demand (after waitUntilComplete()) append their types at the end, until
+     * orderedNewTypes() or freeze() reorders them (once, however many files got parsed in between).
      * */
     // We only keep a mutable map. Having a non-mutable view meant we'd need to synchronize on one of them only (or to synchronize on the whole ParserContext instance, which is not that granular).
     public final Map<String, TypeDefinition> newTypes = Collections.synchronizedMap( new LinkedHashMap<>() );
 
-    /** Create a new TypeDefinition instance for the given name. Register it with the context, and return. */
+    /** Built by waitUntilComplete(), once all files have been parsed. */
+    private volatile TypeIndex typeIndex;
+
+    /** Read-only index of newTypes, for resolving type names of fields. Available once waitUntilComplete() returned. */
+    public TypeIndex typeIndex() {
+        final TypeIndex result= typeIndex;
+        if (result==null)
+            throw new IllegalStateException("Call waitUntilComplete() first.");
+        return result;
+    }
+
+    /** Shared instances of full type names. See TypeName.internFullName(NamePool). */
+    public final NamePool names= new NamePool();
+
+    /** An import, or a type definition, in a .proto file. */
+    private static final class Declaration {
+        final boolean isImport;
+        /** Path of the imported file, or the full type name. */
+        final String name;
+
+        Declaration(boolean givenIsImport, String givenName) {
+            isImport= givenIsImport;
+            name= givenName;
+        }
+    }
+
+    /** File path -> its imports and type definitions, in the order they are in that file. Each list is modified only
+     * by the Thread that parses that file, and read only after waitUntilComplete(). */
+    private final Map<String, List<Declaration>> declarations= new ConcurrentHashMap<>();
+    /** Files passed to parse(String), in that order. */
+    private final List<String> rootFiles= Collections.synchronizedList( new ArrayList<>() );
+
+    /** Like addNewDefinition(TypeNameDefinition), but also record the definition for the deterministic order of newTypes.
+     * @param sourceFile Path of the file being parsed (as passed to parse(..) or parseImport(..)). */
+    public TypeDefinition addNewDefinition( String sourceFile, TypeNameDefinition typeName ) {
+        final TypeDefinition type= addNewDefinition( typeName );
+        declarations.get(sourceFile).add( new Declaration(false, type.typeNameDefinition.fullName()) );
+        typeSourceFiles.put( type, sourceFile );
+        return type;
+    }
+
+    /** Type -> path of the file that defines it. Only for types registered by addNewDefinition(String, TypeNameDefinition). */
+    private final Map<TypeDefinition, String> typeSourceFiles= new ConcurrentHashMap<>();
+
+    /** @return Path of the file that defines the given type, or null if unknown. */
+    public String sourceFileOf (TypeDefinition type) {
+        return typeSourceFiles.get(type);
+    }
+
+    /** Create a new TypeDefinition instance for the given name. Register it with the context, and return.
+     *  Types registered by this (and not by addNewDefinition(String, TypeNameDefinition)) go at the end of newTypes, once
+     *  waitUntilComplete() orders it. */
     public TypeDefinition addNewDefinition( TypeNameDefinition typeName ) {
-        final String fullName = typeName.fullName();
+        if (frozen)
+            throw new IllegalStateException("The model is frozen. Can't add " +typeName+ ".");
+        final String fullName = typeName.internFullName(names);
         synchronized (newTypes) {
             if (newTypes.containsKey(fullName))
                 throw new IllegalArgumentException("Type with name " + fullName + " has been registered already.");
@@ -41,16 +111,65 @@ public final class ParserContext {
         }
     }
 
-    // We parse each included file in a separate thread. That minimizes file I/O blocking.
+    // We parse each included file in a separate task on the scheduler. That minimizes file I/O blocking.
     // That also applies to the very first (start) file, even if it's just one.
     // Otherwise we'd have to clear Parser.alreadyParsing for the starter thread (in case the
     // client starts another cycle from the same Thread).
-    private final List<Thread> threads = Collections.synchronizedList( new ArrayList<Thread>() );
+    private Executor scheduler;
+
+    /** Set the executor to run parsers on, before calling parse(..) for the first time. See ParseScheduler.
+     *  If not set, parse(..) uses ParseScheduler.forkJoin(). */
+    public synchronized void setScheduler (Executor givenScheduler) {
+        if (scheduler!=null)
+            throw new IllegalStateException("Scheduler has been set already.");
+        scheduler= givenScheduler;
+    }
 
-    /** Names of files that have been, or are being, processed. That prevents us from processing the
-     * same file multiple times (if it's included from several files). That robust enough, because if the same file
-     * is reachable through multiple paths (as in includePaths), that's incorrect (as per protoc 3.7.0). */
-    private final Set<String> loadedFileNames= Collections.synchronizedSet( new HashSet<>() );
+    private synchronized Executor scheduler() {
+        if (scheduler==null)
+            scheduler= ParseScheduler.forkJoin();
+        return scheduler;
+    }
+
+    private final Object parsesMonitor= new Object();
+    /** Number of parse tasks submitted, but not finished yet. Guarded by parsesMonitor. */
+    private int pendingParses;
+    /** The first failure of any parse task, if any. Guarded by parsesMonitor. */
+    private Throwable parseFailure;
+
+    /** Names of files that have been, or are being, processed -> completion of their parsing. That prevents us from
+     * processing the same file multiple times (if it's included from several files). That robust enough, because if
+     * the same file is reachable through multiple paths (as in includePaths), that's incorrect (as per protoc 3.7.0). */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> fileParses= new ConcurrentHashMap<>();
+
+    /** Whether to parse imported files only once (and if) resolving a type needs them. Then imported files only get
+     * scanned for their package and top-level type names (see DeclarationScanner). Root files (passed to parse(String))
+     * are always parsed. Set at the beginning only. */
+    public boolean lazyImports;
+
+    /** Only if lazyImports: Full name of a top-level type (like ".a.b.Outer", as in newTypes) -> path of a scanned file
+     * that defines it. That file may, or may not, have been parsed already. */
+    private final ConcurrentHashMap<String, String> lazyTypes= new ConcurrentHashMap<>();
+    /** Only if lazyImports: Files that have been scanned. */
+    private final Set<String> scannedFiles= ConcurrentHashMap.newKeySet();
+    /** Only if lazyImports: Whether loadLazily(..) has parsed files since newTypes was ordered. Guarded by newTypes. */
+    private boolean newTypesUnordered;
+
+    /** Optional. If set, parseNow(..) replays the model of files whose content hasn't changed since they were cached,
+     * rather than parsing them. Set at the beginning only. */
+    public BuildCache cache;
+
+    /** Optional. If set, parsing reports to it (per file). Set at the beginning only. */
+    public Profile profile;
+
+    /** Whether to tokenize with FastLexer, rather than with the generated ParserTokenManager. The tokens are the same.
+     * Set at the beginning only. */
+    public boolean fastLexer;
+
+    /** Only if cache!=null: File path -> hash of its content. See BuildCache.contentHash(File). */
+    private final ConcurrentHashMap<String, String> fileHashes= new ConcurrentHashMap<>();
+    /** Memo for fileKey(String). */
+    private final ConcurrentHashMap<String, String> fileKeys= new ConcurrentHashMap<>();
 
     public static final String ANY="Any", ANY_QUALIFIED="google.protobuf.Any";
     private static final String ANY_FILE="google/protobuf/any.proto";
@@ -67,62 +186,481 @@ public final class ParserContext {
         }
     }
 
+    /** Set by freeze(). */
+    private volatile boolean frozen;
+
+    /** Make the model read-only: no more parsing (not even lazily, see lazyImports), and no more types. Then plugins
+     * may use it concurrently without any changes under their feet. Call only after waitUntilComplete() (and after
+     * resolving any types needed, if lazyImports). */
+    public void freeze() {
+        typeIndex(); // Check that it's complete
+        frozen= true;
+        synchronized (newTypes) {
+            reorderLazilyParsed();
+        }
+    }
+
+    /** Call only after waitUntilComplete().
+     * @return A copy of newTypes, in its deterministic order. */
+    public Map<String, TypeDefinition> orderedNewTypes() {
+        synchronized (newTypes) {
+            reorderLazilyParsed();
+            return new LinkedHashMap<>( newTypes );
+        }
+    }
+
+    /** Call within synchronized (newTypes). See newTypesUnordered. */
+    private void reorderLazilyParsed() {
+        if (newTypesUnordered) {
+            orderNewTypes();
+            newTypesUnordered= false;
+        }
+    }
+
+    /** Parse a "root" file, and (on other threads) all files it imports. Call waitUntilComplete() afterwards. */
     public void parse (String filePath) {
-        synchronized (loadedFileNames) {
-            if (!loadedFileNames.contains(filePath)) {
-                loadedFileNames.add(filePath);
-
-                Thread thread = new Thread(new Runnable() {
-                    public void run() {
-                        if( filePath.equals(ANY_FILE) ) {
-                            // Intentionally null, since it's not supposed to be used from here. This
-                            // only indicates that type Any is available. However, its handling is done
-                            // by TYPE_TKN token, and the plugin must handle like scalar types.
-                            newTypes.put( ANY_QUALIFIED, null );
-                        }
-                        else {
-                            // We must instantiate a new parser in a new thread
-                            //System.out.println("Parser for " +filePath);
-                            Parser parser = new Parser(loadFile(filePath));
-                            parser.registerWithContext(ParserContext.this);
-                            try {
-                                parser.Input();
-                                //System.out.println("-- parsed");
-                            } catch (ParseException e) {
-                                System.err.println(e);
-                                throw new RuntimeException(e);
-                            }
-                        }
+        if (frozen)
+            throw new IllegalStateException("The model is frozen. Can't parse " +filePath+ ".");
+        rootFiles.add(filePath);
+        submit(filePath);
+    }
+
+    /** Called by Parser for an import. */
+    void parseImport (String importingFile, String filePath) {
+        declarations.get(importingFile).add( new Declaration(true, filePath) );
+        if (lazyImports)
+            scan(filePath);
+        else
+            submit(filePath);
+    }
+
+    /** Scan the given file and (transitively) its imports, unless scanned already. See lazyImports. */
+    private void scan (String filePath) {
+        final Deque<String> toScan= new ArrayDeque<>();
+        toScan.push(filePath);
+        while (!toScan.isEmpty()) {
+            final String next= toScan.pop();
+            if (next.equals(ANY_FILE)) { // Not a real file. And ifAnyValidateImport(..) needs to know about it.
+                submit(next);
+                continue;
+            }
+            if (!scannedFiles.add(next))
+                continue;
+            final DeclarationScanner.Summary summary;
+            try {
+                summary= DeclarationScanner.scan( resolveFile(next) );
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            // Keyed by full names as TypeName.fullName() gives them (see TypeIndex), so that loadLazily(..) finds them.
+            final String prefix= summary.packageName.isEmpty()
+                ? "."
+                : "." +summary.packageName+ ".";
+            for (String type: summary.topLevelTypes)
+                lazyTypes.putIfAbsent( prefix+type, next );
+            for (String imported: summary.imports)
+                toScan.push(imported);
+        }
+    }
+
+    /** TypeIndex.Loader for lazyImports. */
+    private Map<String, TypeDefinition> loadLazily (String fullName) {
+        if (frozen) // Whatever was needed has been loaded already
+            return Collections.emptyMap();
+        // The type may be nested, so try the (dot-separated) prefixes, too.
+        for (int i= fullName.length(); i>0; i= fullName.lastIndexOf('.', i-1)) {
+            final String filePath= lazyTypes.get( fullName.substring(0, i) );
+            if (filePath!=null) {
+                final CompletableFuture<Void> parse= submit(filePath);
+                final boolean parsedAlready= parse.isDone();
+                try {
+                    parse.join();
+                } catch (CompletionException e) {
+                    throw new RuntimeException("Couldn't parse " +filePath, e.getCause());
+                }
+                final Map<String, TypeDefinition> result= new HashMap<>();
+                synchronized (newTypes) {
+                    if (!parsedAlready) // Reorder once they're needed, rather than per file
+                        newTypesUnordered= true;
+                    for (Declaration declaration: declarations.get(filePath)) {
+                        if (!declaration.isImport)
+                            result.put( declaration.name, newTypes.get(declaration.name) );
                     }
-                });
-                thread.start();
-                threads.add(thread);
+                }
+                return result;
             }
         }
+        return Collections.emptyMap();
     }
 
+    /** @return Completion of parsing the given file (finished, or in progress). */
+    private CompletableFuture<Void> submit (String filePath) {
+        final CompletableFuture<Void> parse= new CompletableFuture<>();
+        final CompletableFuture<Void> existing= fileParses.putIfAbsent( filePath, parse );
+        if (existing!=null)
+            return existing;
+        synchronized (parsesMonitor) {
+            pendingParses++;
+        }
+        scheduler().execute( () -> {
+            try {
+                parseNow(filePath);
+                parse.complete(null);
+            } catch (Throwable e) {
+                synchronized (parsesMonitor) {
+                    if (parseFailure==null)
+                        parseFailure= e;
+                }
+                parse.completeExceptionally(e);
+            } finally {
+                synchronized (parsesMonitor) {
+                    if (--pendingParses==0)
+                        parsesMonitor.notifyAll();
+                }
+            }
+        });
+        return parse;
+    }
+
+    /** Run on the scheduler's thread. */
+    private void parseNow (String filePath) {
+        final List<Declaration> fileDeclarations= new ArrayList<>();
+        declarations.put(filePath, fileDeclarations);
+        if( filePath.equals(ANY_FILE) ) {
+            // Intentionally null, since it's not supposed to be used from here. This
+            // only indicates that type Any is available. However, its handling is done
+            // by TYPE_TKN token, and the plugin must handle like scalar types.
+            newTypes.put( ANY_QUALIFIED, null );
+            fileDeclarations.add( new Declaration(false, ANY_QUALIFIED) );
+        }
+        else {
+            final Object profiled= profile!=null ? profile.fileStarted() : null;
+            final long startNanos= profile!=null ? System.nanoTime() : 0;
+            final long startAllocated= profile!=null ? profile.allocatedBytes() : 0;
+            final String contentHash= cache!=null
+                ? contentHash(filePath)
+                : null;
+            final long hashedNanos= profile!=null ? System.nanoTime() : 0;
+            if (contentHash!=null && cache.loadModel( contentHash, new ModelCodec.Sink() {
+                    public void onImport (String importedPath) {
+                        parseImport( filePath, importedPath );
+                    }
+                    public TypeDefinition onType (TypeNameDefinition typeName) {
+                        return addNewDefinition( filePath, typeName );
+                    }
+                } )) {
+                if (profile!=null)
+                    profile.fileParsed( profiled, filePath, resolveFile(filePath).length(), 0, hashedNanos-startNanos,
+                                        System.nanoTime()-hashedNanos, profile.allocatedBytes()-startAllocated, true );
+                return;
+            }
+            // We must instantiate a new parser in this (scheduler's) thread
+            //System.out.println("Parser for " +filePath);
+            final FastLexer lexer;
+            final CountingTokenManager tokens;
+            final Parser parser;
+            if (fastLexer) {
+                try {
+                    lexer= new FastLexer( resolveFile(filePath), names );
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                tokens= null;
+                parser= new Parser(lexer);
+            }
+            else {
+                final CharStream stream= loadFile(filePath);
+                lexer= null;
+                tokens= profile!=null ? new CountingTokenManager(stream) : null;
+                parser= tokens!=null ? new Parser(tokens) : new Parser(stream);
+            }
+            final long loadedNanos= profile!=null ? System.nanoTime() : 0;
+            try {
+                parser.registerWithContext(ParserContext.this, filePath);
+                parser.Input();
+                //System.out.println("-- parsed");
+            } catch (ParseException e) {
+                System.err.println(e);
+                throw new RuntimeException(e);
+            } finally {
+                parser.releaseThread();
+            }
+            if (profile!=null)
+                profile.fileParsed( profiled, filePath, resolveFile(filePath).length(),
+                                    lexer!=null ? lexer.tokenCount() : tokens.count, loadedNanos-startNanos,
+                                    System.nanoTime()-loadedNanos, profile.allocatedBytes()-startAllocated, false );
+            if (contentHash!=null) {
+                final List<Object> model= new ArrayList<>( fileDeclarations.size() );
+                synchronized (newTypes) {
+                    for (Declaration declaration: fileDeclarations)
+                        model.add( declaration.isImport ? declaration.name : newTypes.get(declaration.name) );
+                }
+                cache.storeModel( contentHash, model );
+            }
+        }
+    }
+
+    /** Counts tokens, for profile. */
+    private static final class CountingTokenManager extends ParserTokenManager {
+        int count;
+
+        CountingTokenManager (CharStream stream) {
+            super(stream);
+        }
+
+        public Token getNextToken() {
+            count++;
+            return super.getNextToken();
+        }
+    }
+
+    private String contentHash (String filePath) {
+        return fileHashes.computeIfAbsent( filePath, path -> {
+            try {
+                return BuildCache.contentHash( resolveFile(path) );
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /** Key of the given file's content, together with the content of all files that it imports (transitively). It
+     * changes whenever any of those changes. Types generated from that file depend on those files only. Call only
+     * after waitUntilComplete(). For BuildCache. */
+    public String fileKey (String filePath) {
+        return fileKey( filePath, new HashSet<>() );
+    }
+
+    private String fileKey (String filePath, Set<String> inProgress) {
+        final String existing= fileKeys.get(filePath);
+        if (existing!=null)
+            return existing;
+        if (filePath.equals(ANY_FILE))
+            return ANY_FILE;
+        if (!inProgress.add(filePath)) // protoc doesn't allow import cycles. But we don't validate that.
+            return filePath;
+
+        final List<String> parts= new ArrayList<>();
+        parts.add( contentHash(filePath) );
+        final CompletableFuture<Void> parse= fileParses.get(filePath);
+        if (parse!=null && parse.isDone()) {
+            for (Declaration declaration: declarations.get(filePath)) {
+                if (declaration.isImport)
+                    parts.add( fileKey(declaration.name, inProgress) );
+            }
+        }
+        else { // Not parsed, like with lazyImports
+            try {
+                for (String imported: DeclarationScanner.scan( resolveFile(filePath) ).imports)
+                    parts.add( fileKey(imported, inProgress) );
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        final String result= BuildCache.hash( parts.toArray(new String[parts.size()]) );
+        fileKeys.putIfAbsent( filePath, result );
+        return result;
+    }
+
+    /** Wait until all parse(..) tasks have finished, including any imports that they started.
+     *  If any of them failed, this rethrows the first failure. */
     public void waitUntilComplete() {
-        // DO NOT join all threads within synchronized (threads) {...}, because that would block any other
-        // threads from importing any other .proto files (since parse(..) calls threads.add(..).
-        // While we wait below, a thread could start another parser thread
-        List<Thread> threadsSnapshot;
-        while (true) {
-            synchronized (threads) {
-                if (threads.isEmpty())
-                    return;
-                threadsSnapshot = new ArrayList<>(threads);
-                threads.removeAll( threadsSnapshot );
-            }
-            for (Thread thread : threadsSnapshot) {
+        // A running task may call parse(..) for its imports (hence increase pendingParses) before it finishes. So
+        // pendingParses reaches zero only once the whole import tree has been parsed.
+        synchronized (parsesMonitor) {
+            while (pendingParses>0) {
                 try {
-                    thread.join();
+                    parsesMonitor.wait();
                 } catch (InterruptedException e) {
                     throw new RuntimeException(e);
                 }
             }
+            if (parseFailure!=null) {
+                final Throwable failure= parseFailure;
+                parseFailure= null;
+                if (failure instanceof RuntimeException)
+                    throw (RuntimeException) failure;
+                if (failure instanceof Error)
+                    throw (Error) failure;
+                throw new RuntimeException(failure);
+            }
+        }
+        synchronized (newTypes) {
+            orderNewTypes();
+            typeIndex= new TypeIndex( newTypes, lazyImports ? this::loadLazily : null, profile );
+        }
+    }
+
+    /** Reorder newTypes deterministically (see its documentation). Call within synchronized (newTypes).
+     * With lazyImports, call it again after parsing other files (which may be at any position in the order). */
+    private void orderNewTypes() {
+        final List<String> order= new ArrayList<>( newTypes.size() );
+        final Set<String> visitedFiles= new HashSet<>();
+        synchronized (rootFiles) {
+            for (String rootFile: rootFiles)
+                collectDeclarations( rootFile, visitedFiles, order );
+        }
+        final Map<String, TypeDefinition> ordered= new LinkedHashMap<>( newTypes.size()*4/3+1 );
+        for (String name: order)
+            ordered.put( name, newTypes.get(name) );
+        // Any types registered without a file (see addNewDefinition(TypeNameDefinition)) keep their relative order
+        for (Map.Entry<String, TypeDefinition> entry: newTypes.entrySet())
+            ordered.putIfAbsent( entry.getKey(), entry.getValue() );
+        newTypes.clear();
+        newTypes.putAll(ordered);
+    }
+
+    private void collectDeclarations (String filePath, Set<String> visitedFiles, List<String> order) {
+        if (!visitedFiles.add(filePath))
+            return;
+        // Skip files not parsed (yet), like with lazyImports. Its declarations would be incomplete, and still changing.
+        final CompletableFuture<Void> parse= fileParses.get(filePath);
+        if (parse==null || !parse.isDone())
+            return;
+        final List<Declaration> fileDeclarations= declarations.get(filePath);
+        for (Declaration declaration: fileDeclarations) {
+            if (declaration.isImport)
+                collectDeclarations( declaration.name, visitedFiles, order );
+            else
+                order.add( declaration.name );
+        }
+    }
+
+    /** Full names of the types that the given files and (transitively) their imports define, in the order that newTypes
+     * would have if only those files had been parsed. For several jobs that share one context (see option -b in Run).
+     * Call only after waitUntilComplete().
+     * @throws IllegalArgumentException If any of the given files wasn't parsed (or loaded). */
+    public List<String> typesOf (List<String> givenRootFiles) {
+        typeIndex(); // Check that it's complete
+        final List<String> order= new ArrayList<>();
+        final Set<String> visitedFiles= new HashSet<>();
+        for (String rootFile: givenRootFiles) {
+            if (!fileParses.containsKey(rootFile))
+                throw new IllegalArgumentException( "File " +rootFile+ " was not parsed." );
+            collectDeclarations( rootFile, visitedFiles, order );
+        }
+        return order;
+    }
+
+    /** Write a snapshot of the whole model (see ModelSnapshot), for loadSnapshot(..) in a later run. Call only after
+     * waitUntilComplete(). Not with lazyImports.
+     * @throws UnsupportedOperationException If the model can't be represented. Then this doesn't write anything. */
+    public void writeSnapshot (Path target) throws IOException {
+        if (lazyImports)
+            throw new IllegalStateException("Snapshots don't support lazy imports.");
+        final Map<String, List<?>> files= new LinkedHashMap<>();
+        final Map<String, ModelSnapshot.FileStat> stats= new HashMap<>();
+        synchronized (newTypes) {
+            final Set<String> visited= new HashSet<>();
+            synchronized (rootFiles) {
+                for (String rootFile: rootFiles)
+                    collectFiles( rootFile, visited, files );
+            }
+        }
+        for (String filePath: files.keySet()) {
+            final File file= resolveFile(filePath);
+            stats.put( filePath, new ModelSnapshot.FileStat(file.length(), file.lastModified()) );
+        }
+        ModelSnapshot.write( target, rootFiles, Arrays.asList(includePaths), files, stats );
+    }
+
+    /** Collect the given file (unless ANY_FILE) and its imports depth-first, imported files first, as ModelSnapshot.write(..) needs. */
+    private void collectFiles (String filePath, Set<String> visited, Map<String, List<?>> files) {
+        if (filePath.equals(ANY_FILE) || !visited.add(filePath))
+            return;
+        final List<Object> model= new ArrayList<>();
+        for (Declaration declaration: declarations.get(filePath)) {
+            if (declaration.isImport) {
+                collectFiles( declaration.name, visited, files );
+                model.add( declaration.name );
+            }
+            else
+                model.add( newTypes.get(declaration.name) );
+        }
+        files.put( filePath, model );
+    }
+
+    /** Instead of parse(..) for the given root files: load the model from a snapshot written by writeSnapshot(..), if it
+     * exists, and if it's for the same root files and includePaths, and none of its files has changed. Call before
+     * any parse(..), and (if loaded) call waitUntilComplete() afterwards, as if parsed.
+     * @return Whether loaded. If not, nothing has changed, and the caller should parse(..) as usual. */
+    public boolean loadSnapshot (Path source, List<String> givenRootFiles) throws IOException {
+        if (lazyImports)
+            throw new IllegalStateException("Snapshots don't support lazy imports.");
+        final boolean loaded= ModelSnapshot.read( source, givenRootFiles, Arrays.asList(includePaths), new ModelSnapshot.Sink() {
+            private String currentFile;
+
+            public boolean isUnchanged (String filePath, long size, long lastModified) {
+                final File file;
+                try {
+                    file= resolveFile(filePath);
+                } catch (IllegalArgumentException e) { // Removed (or moved to another include path)
+                    return false;
+                }
+                return file.length()==size && file.lastModified()==lastModified;
+            }
+            public void onFile (String filePath) {
+                currentFile= filePath;
+                declarations.put( filePath, new ArrayList<>() );
+                fileParses.put( filePath, CompletableFuture.completedFuture(null) );
+            }
+            public void onImport (String importedPath) {
+                declarations.get(currentFile).add( new Declaration(true, importedPath) );
+                if (importedPath.equals(ANY_FILE))
+                    loadAnyFile();
+            }
+            public TypeDefinition onType (TypeNameDefinition typeName) {
+                return addNewDefinition( currentFile, typeName );
+            }
+        });
+        if (loaded)
+            rootFiles.addAll(givenRootFiles);
+        return loaded;
+    }
+
+    /** For models that are loaded rather than parsed: Register ANY_FILE (as parseNow(..) does), unless done already. */
+    private void loadAnyFile() {
+        if (!fileParses.containsKey(ANY_FILE)) {
+            parseNow(ANY_FILE);
+            fileParses.put( ANY_FILE, CompletableFuture.completedFuture(null) );
         }
     }
 
+    /** Instead of parse(..): load the model from a FileDescriptorSet, as written by `protoc --descriptor_set_out`. See
+     * DescriptorSetReader. Call before any parse(..), and call waitUntilComplete() afterwards, as if parsed. Not with
+     * lazyImports. Only the given root files and the files they import get loaded. Imported files that aren't in the
+     * set get skipped (then their types can't be resolved).
+     * @param givenRootFiles Files of the set to handle as if passed to parse(..), or empty for all files of the set. */
+    public void loadDescriptorSet (Path source, List<String> givenRootFiles) throws IOException {
+        if (lazyImports)
+            throw new IllegalStateException("Descriptor sets don't support lazy imports.");
+        final List<String> files= new ArrayList<>();
+        DescriptorSetReader.read( source, givenRootFiles, new DescriptorSetReader.Sink() {
+            private String currentFile;
+
+            public boolean onFile (String filePath) {
+                files.add(filePath);
+                if (filePath.equals(ANY_FILE)) { // Type Any is handled like a primitive. See parseNow(..).
+                    loadAnyFile();
+                    return false;
+                }
+                currentFile= filePath;
+                declarations.put( filePath, new ArrayList<>() );
+                fileParses.put( filePath, CompletableFuture.completedFuture(null) );
+                return true;
+            }
+            public void onImport (String importedPath) {
+                declarations.get(currentFile).add( new Declaration(true, importedPath) );
+                if (importedPath.equals(ANY_FILE))
+                    loadAnyFile();
+            }
+            public TypeDefinition onType (TypeNameDefinition typeName) {
+                return addNewDefinition( currentFile, typeName );
+            }
+        });
+        rootFiles.addAll( givenRootFiles.isEmpty() ? files : givenRootFiles );
+    }
+
     /** Including the path of the "root" file. This has to be an array, not a set, because `protoc`
      * applies the path folders in a given order. */
     public String includePaths[]= new String[0];
@@ -141,11 +679,12 @@ public final class ParserContext {
         throw new IllegalArgumentException( "Given file " +subPathAndName+ " doesn't exist on the given path(s)." );
     }
 
-    public InputStream loadFile (String subPathAndName) {
+    /** Load the whole file, ready for a Parser. See MappedCharStream. */
+    public CharStream loadFile (String subPathAndName) {
         try {
-            return new FileInputStream(resolveFile(subPathAndName));
+            return new MappedCharStream(resolveFile(subPathAndName));
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -0,0 +1,174 @@
+package io.github.protopick.validate;
+
+import io.github.protopick.compile.Field;
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.compile.TypeNameOfField;
+import io.github.protopick.parse.ParserContext;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Validates JSON documents in process, as the $jsonSchema validator that MessagesMongo generates for the same type would
+ * validate them in MongoDB. So a service can reject bad documents before they reach MongoDB.
+ * <br/>
+ * compile(..) turns the type (and the types it uses) into a tree of nodes once. validate(..) then reads a document as a
+ * stream, checking it against that tree as it goes, without building the document in memory. It stops at the first
+ * violation.
+ * <br/>
+ * The input is JSON, or MongoDB Extended JSON (relaxed or canonical), read into BSON types the way MongoDB drivers read
+ * it. For example, 5 is an int, 5000000000 is a long and 5.0 is a double. And {"$numberLong": "5"} is a long. So a
+ * plain 5 doesn't match "bsonType": "long" of an int64 field, just as in MongoDB.
+ * <br/>
+ * A map field is an array of {"key": ..., "value": ...} documents, each of them validated against the key and value
+ * types. That's the layout that MessagesMongo intends for maps.
+ * <br/>
+ * Instances are immutable and thread-safe. Compile once per type, and share.
+ * */
+public final class DocumentValidator {
+    // Like MessagesMongo.primitiveTypes
+    private static final Map<String, Node> primitives= new HashMap<>();
+    private static void mapPrimitive (String primitive, Node node) {
+        if (primitives.containsKey(primitive))
+            throw new IllegalArgumentException("Already set.");
+        primitives.put( primitive, node );
+    }
+    private static final Node OBJECT_ID= new Node.Primitive( "\"bsonType\": \"objectId\"", false, JsonCursor.OBJECT_ID );
+    static {
+        final Node INT= new Node.Primitive( "\"bsonType\": \"int\"", false, JsonCursor.INT );
+        final Node LONG= new Node.Primitive( "\"bsonType\": \"long\"", false, JsonCursor.LONG );
+        final Node OBJECT= new Node.Primitive( "\"type\": \"object\"", false, JsonCursor.DOCUMENT );
+
+        mapPrimitive( "double", new Node.Primitive("\"bsonType\": \"double\"", false, JsonCursor.DOUBLE) );
+        mapPrimitive( "float", new Node.Primitive("\"type\": \"number\"", false,
+                                                  JsonCursor.INT, JsonCursor.LONG, JsonCursor.DOUBLE, JsonCursor.DECIMAL) );
+
+        mapPrimitive( "int32", INT );
+        mapPrimitive( "uint32", new Node.Primitive("\"bsonType\": \"int\"", true, JsonCursor.INT) );
+        mapPrimitive( "sint32", INT );
+        mapPrimitive( "int64", LONG );
+        mapPrimitive( "uint64", new Node.Primitive("\"bsonType\": \"long\"", true, JsonCursor.LONG) );
+        mapPrimitive( "sint64", LONG );
+
+        mapPrimitive( "fixed32", INT );
+        mapPrimitive( "sfixed32", INT );
+        mapPrimitive( "fixed64", LONG );
+        mapPrimitive( "sfixed64", LONG );
+
+        mapPrimitive( "bool", new Node.Primitive("\"type\": \"boolean\"", false, JsonCursor.BOOLEAN) );
+        mapPrimitive( "string", new Node.Primitive("\"bsonType\": \"string\"", false, JsonCursor.STRING) );
+
+        mapPrimitive( "bytes", new Node.Primitive("\"bsonType\": \"binData\"", false, JsonCursor.BIN_DATA) );
+        mapPrimitive( ParserContext.ANY, OBJECT );
+        mapPrimitive( ParserContext.ANY_QUALIFIED, OBJECT );
+    }
+
+    private final Node root;
+
+    private DocumentValidator (Node givenRoot) {
+        root= givenRoot;
+    }
+
+    /** @param fullName Full name of a message, like "my.package.Outer.Inner" (or ".my.package.Outer.Inner", as in
+     * TypeIndex).
+     * @throws IllegalArgumentException If there's no such message. */
+    public static DocumentValidator compile (ParserContext context, String fullName) {
+        TypeDefinition type= context.typeIndex().get( fullName );
+        if (type==null) // Full names start with a dot, see TypeIndex
+            type= context.typeIndex().get( "." +fullName );
+        if (type==null)
+            throw new IllegalArgumentException( "No type " +fullName );
+        return compile( context, type );
+    }
+
+    /** @param type A message (not an enum) of the given context, which must be complete.
+     * @throws IllegalArgumentException If the type is an enum. */
+    public static DocumentValidator compile (ParserContext context, TypeDefinition type) {
+        if (type.isEnum)
+            throw new IllegalArgumentException( "Type " +type.typeNameDefinition.fullName()+ " is an enum, not a message." );
+        return new DocumentValidator( new Compiler(context).message(type, true) );
+    }
+
+    /** Compiles types, each one once (other than the top level message, which also allows "_id"). */
+    private static final class Compiler {
+        final ParserContext context;
+        final Map<TypeDefinition, Node> compiled= new HashMap<>();
+
+        Compiler (ParserContext givenContext) {
+            context= givenContext;
+        }
+
+        Node type (TypeNameOfField typeNameOfField) {
+            if (typeNameOfField.use.isPrimitive()) {
+                context.ifAnyValidateImport( typeNameOfField );
+                return primitives.get( typeNameOfField.name );
+            }
+            final TypeDefinition type= typeNameOfField.resolve( context );
+            final Node existing= compiled.get( type );
+            if (existing!=null)
+                return existing;
+            if (type.isEnum) {
+                final NameTable values= new NameTable( type.fields.size() );
+                for (Field value: type.fields)
+                    values.put( value.name, null );
+                final Node result= new Node.Enumeration( values );
+                compiled.put( type, result );
+                return result;
+            }
+            return message( type, false );
+        }
+
+        Node.Message message (TypeDefinition type, boolean topLevel) {
+            final Node.Message result= new Node.Message();
+            if (!topLevel)
+                compiled.put( type, result ); // Before its fields, in case it contains itself
+            final NameTable properties= new NameTable( type.fields.size()+1 );
+            if (topLevel) // As in MessagesMongo: "_id" only at the top level
+                properties.put( "_id", OBJECT_ID );
+            for (Field field: type.fields)
+                properties.put( field.name, field.isRepeated
+                    ? new Node.Repeated( single(field) )
+                    : single(field) );
+            result.properties= properties;
+            return result;
+        }
+
+        Node single (Field field) {
+            if (!field.isMap)
+                return type( field.typeNameOfField );
+            final Node.Message entry= new Node.Message();
+            final NameTable entryProperties= new NameTable( 2 );
+            entryProperties.put( "key", type(field.typeNameOfField) );
+            entryProperties.put( "value", type(field.typeNameOfMapValues) );
+            entry.properties= entryProperties;
+            return new Node.Repeated( entry );
+        }
+    }
+
+    /** @return null if the given document is valid. Otherwise the first violation, like
+     * "$.tags[2]: expected "bsonType": "string", not int", or a description of malformed JSON. */
+    public String validate (CharSequence document) {
+        try {
+            return validate( new JsonCursor(document) );
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Not from a CharSequence
+        }
+    }
+
+    /** Like validate(CharSequence), but read the document from the given reader (up to its end). */
+    public String validate (Reader document) throws IOException {
+        return validate( new JsonCursor(document) );
+    }
+
+    private String validate (JsonCursor cursor) throws IOException {
+        try {
+            if (!root.validate(cursor, cursor.readValue()))
+                return cursor.violation();
+            if (cursor.peek()>=0)
+                throw cursor.malformed("Unexpected content after the document.");
+            return null;
+        } catch (JsonCursor.MalformedException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package io.github.protopick.validate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/** Streaming JSON reader for DocumentValidator. It reads one value at a time, without building any tree, and it
+ * doesn't allocate per value (strings get decoded into one reused array). It reads MongoDB Extended JSON wrappers
+ * (like {"$oid": ...} or {"$numberLong": ...}) as single values of their BSON type, and plain numbers as MongoDB
+ * drivers do: an integer that fits in 32 bits is an int, any other integer that fits in 64 bits is a long, and
+ * anything else is a double.
+ * <br/>
+ * One instance per document. Not thread-safe.
+ * */
+final class JsonCursor {
+    // BSON types of values, as returned by readValue(). Indexes to TYPE_NAMES.
+    static final int INT= 0, LONG= 1, DOUBLE= 2, DECIMAL= 3, STRING= 4, BOOLEAN= 5, NULL= 6, OBJECT_ID= 7,
+        BIN_DATA= 8, DOCUMENT= 9, ARRAY= 10, OTHER= 11;
+    /** As in "bsonType" of $jsonSchema. */
+    static final String TYPE_NAMES[]= { "int", "long", "double", "decimal", "string", "bool", "null", "objectId",
+        "binData", "object", "array", "other" };
+
+    /** MongoDB doesn't store documents nested deeper than this. It also bounds our recursion. */
+    static final int MAX_DEPTH= 100;
+    private static final int BUFFER_SIZE= 4096;
+
+    /** Malformed JSON (or Extended JSON), or nested too deeply. Without a stack trace, since it's about the input. */
+    static final class MalformedException extends RuntimeException {
+        private static final long serialVersionUID= 1L;
+
+        MalformedException (String message) {
+            super( message, null, false, false );
+        }
+    }
+
+    private final Reader reader;
+    private final CharSequence text;
+    private int textPosition;
+    private final char buffer[];
+    private int position, limit;
+    /** Number of chars before buffer[0]. For messages. */
+    private long offset;
+
+    /** The last string that readValue() (or nextKey()) read, decoded: chars[0..length), with its String.hashCode(). */
+    char chars[]= new char[64];
+    int length, hash;
+    /** Whether the last number that readValue() read is less than 0 (or NaN). */
+    boolean belowZero;
+
+    /** Whether readValue() has read the first key of a document (so nextKey() doesn't read it again). */
+    private boolean pendingKey;
+    /** Whether readValue() has read the opening bracket of an array (so nextElement() doesn't expect a comma). */
+    private boolean arrayStart;
+    /** Of documents and arrays. */
+    private int depth;
+
+    /** Set by fail(..). */
+    private String violation;
+    /** Property names (String) and array indexes (Integer) leading to the violation, the outermost first. Filled in as
+     * the validation returns from the violation. */
+    private Deque<Object> violationPath;
+
+    JsonCursor (Reader givenReader) {
+        reader= givenReader;
+        text= null;
+        buffer= new char[BUFFER_SIZE];
+    }
+
+    JsonCursor (CharSequence givenText) {
+        reader= null;
+        text= givenText;
+        buffer= new char[ Math.max( 16, Math.min(givenText.length(), BUFFER_SIZE) ) ];
+    }
+
+    /** @return Whether there's more input. */
+    private boolean fill() throws IOException {
+        if (position<limit)
+            return true;
+        offset+= limit;
+        position= 0;
+        if (reader!=null)
+            limit= Math.max( reader.read(buffer), 0 );
+        else {
+            limit= Math.min( buffer.length, text.length()-textPosition );
+            if (text instanceof String)
+                ((String)text).getChars( textPosition, textPosition+limit, buffer, 0 );
+            else {
+                for (int i=0; i<limit; i++)
+                    buffer[i]= text.charAt( textPosition+i );
+            }
+            textPosition+= limit;
+        }
+        return limit>0;
+    }
+
+    MalformedException malformed (String message) {
+        return new MalformedException( "Malformed JSON at offset " +(offset+position)+ ": " +message );
+    }
+
+    /** @return The next char other than whitespace (not consumed), or -1 at the end. */
+    int peek() throws IOException {
+        while (true) {
+            if (position>=limit && !fill())
+                return -1;
+            final char c= buffer[position];
+            if (c==' ' || c=='\n' || c=='\r' || c=='\t')
+                position++;
+            else
+                return c;
+        }
+    }
+
+    /** Like peek(), but consume it. */
+    private int read() throws IOException {
+        final int c= peek();
+        if (c>=0)
+            position++;
+        return c;
+    }
+
+    /** @return The next char as is (not consumed), or -1 at the end. */
+    private int peekRaw() throws IOException {
+        return position<limit || fill()
+            ? buffer[position]
+            : -1;
+    }
+
+    private char readRaw() throws IOException {
+        if (position>=limit && !fill())
+            throw malformed("Unexpected end.");
+        return buffer[position++];
+    }
+
+    /** Read the start of the next value: all of it, if it's a scalar (a string is then in chars). The opening bracket,
+     * if it's an array: then iterate with nextElement(). The opening brace and the first key (if any), if it's a
+     * document: then iterate with nextKey().
+     * @return Its type, like INT. */
+    int readValue() throws IOException {
+        final int c= peek();
+        switch (c) {
+            case '"':
+                position++;
+                readString();
+                return STRING;
+            case '{':
+                position++;
+                enter();
+                return readDocumentStart();
+            case '[':
+                position++;
+                enter();
+                arrayStart= true;
+                return ARRAY;
+            case 't':
+                literal("true");
+                return BOOLEAN;
+            case 'f':
+                literal("false");
+                return BOOLEAN;
+            case 'n':
+                literal("null");
+                return NULL;
+            case -1:
+                throw malformed("Unexpected end.");
+            default:
+                if (c=='-' || c>='0' && c<='9')
+                    return readNumber();
+                throw malformed("Unexpected character '" +(char)c+ "'.");
+        }
+    }
+
+    private void enter() {
+        if (++depth>MAX_DEPTH)
+            throw new MalformedException( "Nested deeper than " +MAX_DEPTH+ " levels, at offset " +(offset+position)+ "." );
+    }
+
+    private void literal (String expected) throws IOException {
+        for (int i=0; i<expected.length(); i++) {
+            if (readRaw()!=expected.charAt(i))
+                throw malformed("Expected " +expected+ ".");
+        }
+        expectDelimiter();
+    }
+
+    /** After a number or a literal, there must be a delimiter (or the end). */
+    private void expectDelimiter() throws IOException {
+        final int c= peekRaw();
+        if (c>=0 && c!=',' && c!='}' && c!=']' && c!=' ' && c!='\n' && c!='\r' && c!='\t')
+            throw malformed("Unexpected character '" +(char)c+ "'.");
+    }
+
+    /** Read the rest of a string, after its opening quote. */
+    private void readString() throws IOException {
+        char result[]= chars;
+        int n= 0, h= 0;
+        while (true) {
+            if (position>=limit && !fill())
+                throw malformed("Unterminated string.");
+            char c= buffer[position++];
+            if (c=='"')
+                break;
+            if (c=='\\')
+                c= readEscape();
+            else if (c<0x20)
+                throw malformed("Control character in a string.");
+            if (n==result.length)
+                chars= result= Arrays.copyOf( result, n*2 );
+            result[n++]= c;
+            h= 31*h+c;
+        }
+        length= n;
+        hash= h;
+    }
+
+    private char readEscape() throws IOException {
+        final char c= readRaw();
+        switch (c) {
+            case '"': case '\\': case '/': return c;
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u': {
+                int result= 0;
+                for (int i=0; i<4; i++) {
+                    final int digit= Character.digit( readRaw(), 16 );
+                    if (digit<0)
+                        throw malformed("Invalid \\u escape.");
+                    result= result*16+digit;
+                }
+                return (char)result;
+            }
+            default: throw malformed("Invalid escape \\" +c+ ".");
+        }
+    }
+
+    /** Whether the last string read is the given one. */
+    boolean isString (String given) {
+        if (length!=given.length())
+            return false;
+        for (int i=0; i<length; i++) {
+            if (chars[i]!=given.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private int readNumber() throws IOException {
+        boolean negative= false, nonZero= false;
+        char c= readRaw();
+        if (c=='-') {
+            negative= true;
+            c= readRaw();
+        }
+        if (c<'0' || c>'9')
+            throw malformed("Invalid number.");
+        // The value, negated (so that Long.MIN_VALUE fits, too)
+        long negated= -(c-'0');
+        boolean overflow= false;
+        nonZero= c!='0';
+        if (c!='0') {
+            for (int next= peekRaw(); next>='0' && next<='9'; next= peekRaw()) {
+                position++;
+                final int digit= next-'0';
+                nonZero|= digit!=0;
+                if (negated<Long.MIN_VALUE/10 || negated*10<Long.MIN_VALUE+digit)
+                    overflow= true;
+                else
+                    negated= negated*10-digit;
+            }
+        }
+        boolean isDouble= false;
+        if (peekRaw()=='.') {
+            position++;
+            isDouble= true;
+            nonZero|= digits();
+        }
+        if (peekRaw()=='e' || peekRaw()=='E') {
+            position++;
+            isDouble= true;
+            if (peekRaw()=='+' || peekRaw()=='-')
+                position++;
+            digits();
+        }
+        expectDelimiter();
+        belowZero= negative && nonZero;
+        if (isDouble || overflow || !negative && negated==Long.MIN_VALUE)
+            return DOUBLE;
+        final long value= negative ? negated : -negated;
+        return value>=Integer.MIN_VALUE && value<=Integer.MAX_VALUE
+            ? INT
+            : LONG;
+    }
+
+    /** Read one or more digits.
+     * @return Whether any of them is not zero. */
+    private boolean digits() throws IOException {
+        boolean any= false, nonZero= false;
+        for (int next= peekRaw(); next>='0' && next<='9'; next= peekRaw()) {
+            position++;
+            any= true;
+            nonZero|= next!='0';
+        }
+        if (!any)
+            throw malformed("Invalid number.");
+        return nonZero;
+    }
+
+    /** After the opening brace of a document. */
+    private int readDocumentStart() throws IOException {
+        pendingKey= false;
+        if (peek()=='}')
+            return DOCUMENT; // nextKey() reads it
+        readKey();
+        if (length==0 || chars[0]!='$') {
+            pendingKey= true;
+            return DOCUMENT;
+        }
+        // A key starting with '$' may be an Extended JSON wrapper (as the first key, as drivers expect it)
+        switch (new String(chars, 0, length)) {
+            case "$oid":
+                if (readValue()!=STRING || length!=24 || !isHex())
+                    throw malformed("Invalid $oid.");
+                return endWrapper(OBJECT_ID);
+            case "$numberInt":
+                return endWrapper( readWrappedInteger(false) );
+            case "$numberLong":
+                return endWrapper( readWrappedInteger(true) );
+            case "$numberDouble":
+                return endWrapper( readWrappedDecimal(false) );
+            case "$numberDecimal":
+                return endWrapper( readWrappedDecimal(true) );
+            case "$binary": { // Either {"$binary": {"base64": ..., "subType": ...}}, or {"$binary": ..., "$type": ...}
+                final int type= readValue();
+                if (type==DOCUMENT)
+                    skipRest(type);
+                else if (type==STRING) {
+                    if (!nextKey() || !isString("$type") || readValue()!=STRING)
+                        throw malformed("Invalid $binary.");
+                }
+                else
+                    throw malformed("Invalid $binary.");
+                return endWrapper(BIN_DATA);
+            }
+            case "$type": // {"$type": ..., "$binary": ...}
+                if (readValue()!=STRING || !nextKey() || !isString("$binary") || readValue()!=STRING)
+                    throw malformed("Invalid $binary.");
+                return endWrapper(BIN_DATA);
+            case "$date": case "$timestamp": case "$regularExpression": case "$regex": case "$symbol": case "$code":
+            case "$minKey": case "$maxKey": case "$undefined": case "$dbPointer": case "$uuid":
+                // Types that no schema of ours accepts
+                pendingKey= true;
+                skipRest(DOCUMENT);
+                return OTHER;
+            default:
+                pendingKey= true;
+                return DOCUMENT;
+        }
+    }
+
+    private boolean isHex() {
+        for (int i=0; i<length; i++) {
+            if (Character.digit(chars[i], 16)<0)
+                return false;
+        }
+        return true;
+    }
+
+    private int endWrapper (int type) throws IOException {
+        if (read()!='}')
+            throw malformed("Expected } to end " +TYPE_NAMES[type]+ ".");
+        depth--;
+        return type;
+    }
+
+    /** {"$numberInt": "..."} or {"$numberLong": "..."}. */
+    private int readWrappedInteger (boolean isLong) throws IOException {
+        if (readValue()!=STRING)
+            throw malformed("Expected a string.");
+        try {
+            final String value= new String( chars, 0, length );
+            belowZero= isLong
+                ? Long.parseLong(value)<0
+                : Integer.parseInt(value)<0;
+        } catch (NumberFormatException e) {
+            throw malformed("Invalid " +(isLong ? "$numberLong." : "$numberInt."));
+        }
+        return isLong ? LONG : INT;
+    }
+
+    /** {"$numberDouble": "..."} or {"$numberDecimal": "..."}. */
+    private int readWrappedDecimal (boolean isDecimal) throws IOException {
+        if (readValue()!=STRING)
+            throw malformed("Expected a string.");
+        final String value= new String( chars, 0, length );
+        if (value.equals("Infinity"))
+            belowZero= false;
+        else if (value.equals("-Infinity") || value.equals("NaN") || value.equals("-NaN"))
+            belowZero= true; // MongoDB orders NaN before all numbers
+        else {
+            try {
+                belowZero= isDecimal
+                    ? new BigDecimal(value).signum()<0
+                    : Double.parseDouble(value)<0;
+            } catch (NumberFormatException e) {
+                throw malformed("Invalid " +(isDecimal ? "$numberDecimal." : "$numberDouble."));
+            }
+        }
+        return isDecimal ? DECIMAL : DOUBLE;
+    }
+
+    private void readKey() throws IOException {
+        if (read()!='"')
+            throw malformed("Expected a property name.");
+        readString();
+        if (read()!=':')
+            throw malformed("Expected ':'.");
+    }
+
+    /** Move to the next key of the document that readValue() started. Its name is then in chars.
+     * @return false at the end of the document. */
+    boolean nextKey() throws IOException {
+        if (pendingKey) {
+            pendingKey= false;
+            return true;
+        }
+        final int c= read();
+        if (c=='}') {
+            depth--;
+            return false;
+        }
+        if (c!=',')
+            throw malformed("Expected ',' or '}'.");
+        readKey();
+        return true;
+    }
+
+    /** Move to the next element of the array that readValue() started.
+     * @return false at the end of the array. */
+    boolean nextElement() throws IOException {
+        final int c= peek();
+        if (c<0)
+            throw malformed("Unexpected end.");
+        if (arrayStart) {
+            arrayStart= false;
+            if (c!=']')
+                return true;
+        }
+        position++;
+        if (c==']') {
+            depth--;
+            return false;
+        }
+        if (c!=',')
+            throw malformed("Expected ',' or ']'.");
+        return true;
+    }
+
+    /** Skip the rest of a value whose start readValue() read. */
+    void skipRest (int type) throws IOException {
+        if (type==DOCUMENT) {
+            while (nextKey())
+                skipRest( readValue() );
+        }
+        else if (type==ARRAY) {
+            while (nextElement())
+                skipRest( readValue() );
+        }
+    }
+
+    /** Record a violation (of the current value).
+     * @return false */
+    boolean fail (String message) {
+        violation= message;
+        violationPath= new ArrayDeque<>();
+        return false;
+    }
+
+    /** Record that the violation is within the given property (String) or array index (Integer) - the innermost first.
+     * @return false */
+    boolean failAt (Object propertyOrIndex) {
+        violationPath.addFirst( propertyOrIndex );
+        return false;
+    }
+
+    /** Like "$.tags[2]: expected ...". */
+    String violation() {
+        final StringBuilder result= new StringBuilder("$");
+        for (Object propertyOrIndex: violationPath) {
+            if (propertyOrIndex instanceof Integer)
+                result.append( '[' ).append( propertyOrIndex ).append( ']' );
+            else
+                result.append( '.' ).append( propertyOrIndex );
+        }
+        return result.append( ": " ).append( violation ).toString();
+    }
+}
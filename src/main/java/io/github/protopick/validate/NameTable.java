@@ -0,0 +1,48 @@
+package io.github.protopick.validate;
+
+/** Fixed set of names (property names, or enum values), with an optional value per name. Looked up by chars (as
+ * JsonCursor decodes them), without creating a String. Immutable once filled in.
+ * */
+final class NameTable {
+    private final String names[];
+    private final Node values[];
+    private final int mask;
+
+    NameTable (int size) {
+        int capacity= 4;
+        while (capacity<2*size)
+            capacity*= 2;
+        names= new String[capacity];
+        values= new Node[capacity];
+        mask= capacity-1;
+    }
+
+    void put (String name, Node value) {
+        int slot= name.hashCode() & mask;
+        while (names[slot]!=null) {
+            if (names[slot].equals(name))
+                throw new IllegalArgumentException( "Duplicate name " +name );
+            slot= (slot+1) & mask;
+        }
+        names[slot]= name;
+        values[slot]= value;
+    }
+
+    /** @return Slot of the last string that the given cursor read, or -1 if it's not here. */
+    int find (JsonCursor cursor) {
+        for (int slot= cursor.hash & mask; names[slot]!=null; slot= (slot+1) & mask) {
+            final String name= names[slot];
+            if (name.hashCode()==cursor.hash && cursor.isString(name))
+                return slot;
+        }
+        return -1;
+    }
+
+    String name (int slot) {
+        return names[slot];
+    }
+
+    Node value (int slot) {
+        return values[slot];
+    }
+}
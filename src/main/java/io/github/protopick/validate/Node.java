@@ -0,0 +1,105 @@
+package io.github.protopick.validate;
+
+import java.io.IOException;
+
+/** A compiled schema (of a message, field etc.), as MessagesMongo generates it. The subclasses are immutable (once
+ * DocumentValidator compiled them), so that they can be shared by threads.
+ * */
+abstract class Node {
+    /** Validate a value, whose start the given cursor has read (see JsonCursor.readValue()), and read the rest of it.
+     * On a violation, call cursor.fail(..) and return (without reading any further).
+     * @param type As returned by cursor.readValue().
+     * @return Whether the value is valid. */
+    abstract boolean validate (JsonCursor cursor, int type) throws IOException;
+
+    static boolean failType (JsonCursor cursor, String expected, int type) {
+        return cursor.fail( "expected " +expected+ ", not " +JsonCursor.TYPE_NAMES[type] );
+    }
+
+    /** A primitive type, like "bsonType": "int". */
+    static final class Primitive extends Node {
+        /** As in the schema. */
+        private final String keyword;
+        /** Bit set of accepted types (1<<JsonCursor.INT etc.). */
+        private final int types;
+        /** "minimum": 0 */
+        private final boolean nonNegative;
+
+        Primitive (String givenKeyword, boolean givenNonNegative, int... givenTypes) {
+            keyword= givenKeyword;
+            nonNegative= givenNonNegative;
+            int bits= 0;
+            for (int type: givenTypes)
+                bits|= 1<<type;
+            types= bits;
+        }
+
+        @Override boolean validate (JsonCursor cursor, int type) throws IOException {
+            if ((types & 1<<type)==0)
+                return failType( cursor, keyword, type );
+            if (nonNegative && cursor.belowZero)
+                return cursor.fail( "expected \"minimum\": 0" );
+            cursor.skipRest( type ); // Of a document for "type": "object"
+            return true;
+        }
+    }
+
+    /** "enum": [...] */
+    static final class Enumeration extends Node {
+        private final NameTable values;
+
+        Enumeration (NameTable givenValues) {
+            values= givenValues;
+        }
+
+        @Override boolean validate (JsonCursor cursor, int type) {
+            if (type!=JsonCursor.STRING)
+                return failType( cursor, "one of \"enum\" values", type );
+            if (values.find(cursor)<0)
+                return cursor.fail( "not one of \"enum\" values: " +new String(cursor.chars, 0, cursor.length) );
+            return true;
+        }
+    }
+
+    /** "type": "array", with "items". */
+    static final class Repeated extends Node {
+        private final Node items;
+
+        Repeated (Node givenItems) {
+            items= givenItems;
+        }
+
+        @Override boolean validate (JsonCursor cursor, int type) throws IOException {
+            if (type!=JsonCursor.ARRAY)
+                return failType( cursor, "\"type\": \"array\"", type );
+            for (int index= 0; cursor.nextElement(); index++) {
+                if (!items.validate(cursor, cursor.readValue()))
+                    return cursor.failAt( index );
+            }
+            return true;
+        }
+    }
+
+    /** "bsonType": "object", "additionalProperties": false, with "properties". Also for entries of maps (with properties
+     * "key" and "value"). Nothing is required. */
+    static final class Message extends Node {
+        /** Set by DocumentValidator (after this gets constructed, since a message may contain itself). */
+        NameTable properties;
+
+        @Override boolean validate (JsonCursor cursor, int type) throws IOException {
+            if (type!=JsonCursor.DOCUMENT)
+                return failType( cursor, "\"bsonType\": \"object\"", type );
+            while (cursor.nextKey()) {
+                final int slot= properties.find(cursor);
+                if (slot<0) {
+                    final String name= new String( cursor.chars, 0, cursor.length );
+                    cursor.fail( "not allowed (\"additionalProperties\": false)" );
+                    return cursor.failAt( name );
+                }
+                if (!properties.value(slot).validate(cursor, cursor.readValue()))
+                    return cursor.failAt( properties.name(slot) );
+            }
+            return true;
+        }
+    }
+}
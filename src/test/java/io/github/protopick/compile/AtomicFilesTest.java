@@ -0,0 +1,43 @@
+package io.github.protopick.compile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class AtomicFilesTest {
+    private static void write (Path file, String content) throws IOException {
+        AtomicFiles.write( file, channel -> channel.write(ByteBuffer.wrap( content.getBytes(StandardCharsets.UTF_8) )) );
+    }
+
+    @Test
+    public void replacesAndLeavesNoTemporaryFiles() throws IOException {
+        final Path directory= Files.createTempDirectory("atomic");
+        final Path file= directory.resolve("sub/out.json");
+        write( file, "first" );
+        write( file, "second" );
+        assertArrayEquals( "second".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file) );
+        try (Stream<Path> siblings= Files.list(file.getParent())) {
+            assertEquals( 1, siblings.count() );
+        }
+    }
+
+    /** As if written directly (as per umask), rather than owner-only like Files.createTempFile(..). */
+    @Test
+    public void hasDefaultPermissions() throws IOException {
+        final Path directory= Files.createTempDirectory("atomic");
+        if (Files.getFileAttributeView(directory, PosixFileAttributeView.class)==null)
+            return; // Not POSIX
+        final Path direct= Files.createFile( directory.resolve("direct") );
+        final Path atomic= directory.resolve("atomic");
+        write( atomic, "content" );
+        assertEquals( Files.getPosixFilePermissions(direct), Files.getPosixFilePermissions(atomic) );
+    }
+}
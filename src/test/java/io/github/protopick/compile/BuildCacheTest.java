@@ -0,0 +1,53 @@
+package io.github.protopick.compile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import io.github.protopick.generate.MessagesMongo;
+
+public class BuildCacheTest {
+    @Test
+    public void pluginKeyIsStable() {
+        assertEquals( BuildCache.pluginKey(new MessagesMongo()), BuildCache.pluginKey(new MessagesMongo()) );
+    }
+
+    /** Any class of a class directory counts, not only the plugin's own (for example Indented, which plugins use). */
+    @Test
+    public void codeHashOfClassDirectory() throws IOException {
+        final Path directory= Files.createTempDirectory("classes");
+        final Path plugin= Files.createDirectories( directory.resolve("p") ).resolve("Plugin.class");
+        Files.write( plugin, new byte[] {1, 2, 3} );
+        final Path helper= directory.resolve("p/Helper.class");
+        Files.write( helper, new byte[] {4} );
+        Files.write( directory.resolve("p/notes.txt"), "ignored".getBytes(StandardCharsets.UTF_8) );
+        final String before= BuildCache.codeHash( directory );
+        assertEquals( before, BuildCache.codeHash(directory) );
+
+        Files.write( directory.resolve("p/notes.txt"), "still ignored".getBytes(StandardCharsets.UTF_8) );
+        assertEquals( before, BuildCache.codeHash(directory) );
+
+        Files.write( helper, new byte[] {5} );
+        assertNotEquals( before, BuildCache.codeHash(directory) );
+
+        Files.write( helper, new byte[] {4} );
+        assertEquals( before, BuildCache.codeHash(directory) );
+        Files.move( helper, directory.resolve("p/Renamed.class") );
+        assertNotEquals( before, BuildCache.codeHash(directory) );
+    }
+
+    @Test
+    public void codeHashOfJar() throws IOException {
+        final Path jar= Files.createTempFile( "plugin", ".jar" );
+        Files.write( jar, new byte[] {1, 2, 3} );
+        final String before= BuildCache.codeHash( jar );
+        assertEquals( BuildCache.contentHash(jar.toFile()), before );
+
+        Files.write( jar, new byte[] {1, 2, 3, 4} );
+        assertNotEquals( before, BuildCache.codeHash(jar) );
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.protopick.compile;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class ProfileTest {
+    private static void assertLength (String text, Charset charset) {
+        assertEquals( text, text.getBytes(charset).length, Profile.encodedLength(text, 0, text.length(), charset) );
+    }
+
+    @Test
+    public void encodedLengthAsGetBytes() {
+        final String text= "a\u00e9\u07ff\u0800\u20ac\uffff\ud83d\ude00z";
+        for (Charset charset: new Charset[] {StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.ISO_8859_1})
+            assertLength( text, charset );
+        assertLength( "", StandardCharsets.UTF_8 );
+        // A surrogate pair split across two calls
+        assertEquals( 4, Profile.encodedLength(text, 6, 7, StandardCharsets.UTF_8)
+                         + Profile.encodedLength(text, 7, 8, StandardCharsets.UTF_8) );
+        assertEquals( 2, Profile.encodedLength(text, 1, 2, StandardCharsets.UTF_8) );
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.protopick.compile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import io.github.protopick.parse.ParserConstants;
+import io.github.protopick.parse.Token;
+
+public class TypeIndexTest {
+    private final TypeNamePackage packageA= new TypeNamePackage( Token.newToken(ParserConstants.PACKAGE_TKN), ".a" );
+    private final Map<String, TypeDefinition> types= new HashMap<>();
+
+    private TypeDefinition define (TypeDefinition parent, String name) {
+        final TypeDefinition type= new TypeDefinition( new TypeNameDefinition( Token.newToken(ParserConstants.MESSAGE_TKN),
+            packageA, parent!=null ? parent.typeNameDefinition : null, name) );
+        types.put( type.typeNameDefinition.fullName(), type );
+        return type;
+    }
+
+    @Test
+    public void innermostScopeWins() {
+        final TypeDefinition outer= define( null, "Outer" );
+        final TypeDefinition nested= define( outer, "Inner" );
+        define( null, "Inner" );
+        final TypeIndex index= new TypeIndex( types, null );
+
+        assertEquals( ".a.Outer.Inner", nested.typeNameDefinition.fullName() );
+        assertSame( nested, index.resolve(new TypeNameOfField(packageA, outer.typeNameDefinition, "Inner")) );
+        assertSame( nested, index.resolve(new TypeNameOfField(packageA, outer.typeNameDefinition, "a.Outer.Inner")) );
+    }
+
+    @Test
+    public void loadsOnlyOnMiss() {
+        final TypeDefinition outer= define( null, "Outer" );
+        final Map<String, TypeDefinition> indexed= new HashMap<>( types );
+        final TypeDefinition later= define( null, "Later" );
+        final List<String> loads= new ArrayList<>();
+        final TypeIndex index= new TypeIndex( indexed, fullName -> {
+            loads.add( fullName );
+            return fullName.equals(".a.Later")
+                ? Collections.singletonMap( fullName, later )
+                : Collections.emptyMap();
+        });
+
+        assertSame( outer, index.get(".a.Outer") );
+        assertEquals( Collections.emptyList(), loads );
+        assertSame( later, index.get(".a.Later") );
+        assertSame( later, index.get(".a.Later") );
+        assertNull( index.get(".a.Missing") );
+        assertEquals( Arrays.asList(".a.Later", ".a.Missing"), loads );
+    }
+}
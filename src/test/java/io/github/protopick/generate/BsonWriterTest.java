@@ -0,0 +1,233 @@
+package io.github.protopick.generate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.parse.ParserContext;
+
+/** BsonWriter: its bytes, read back by a separate decoder (see decode(..)), must be the expected documents. */
+public class BsonWriterTest {
+    /** @return Document (Map) of the given names and values, alternating. */
+    private static Map<String, Object> document (Object... namesAndValues) {
+        final Map<String, Object> result= new LinkedHashMap<>();
+        for (int i=0; i<namesAndValues.length; i+=2)
+            result.put( (String) namesAndValues[i], namesAndValues[i+1] );
+        return result;
+    }
+
+    /** @return The documents (back to back) in the given BSON, as Map (document), List (array), String, Integer and
+     * Boolean. Straight from the BSON spec, and independent of BsonWriter. */
+    private static List<Map<String, Object>> decode (byte bson[]) {
+        final ByteBuffer buffer= ByteBuffer.wrap( bson ).order( ByteOrder.LITTLE_ENDIAN );
+        final List<Map<String, Object>> documents= new ArrayList<>();
+        while (buffer.hasRemaining())
+            documents.add( decodeDocument(buffer, false) );
+        return documents;
+    }
+
+    private static Map<String, Object> decodeDocument (ByteBuffer buffer, boolean isArray) {
+        final int start= buffer.position();
+        final int length= buffer.getInt();
+        final Map<String, Object> result= new LinkedHashMap<>();
+        for (byte type= buffer.get(); type!=0; type= buffer.get()) {
+            final String name= cString( buffer );
+            if (isArray)
+                assertEquals( "Index as the name", Integer.toString(result.size()), name );
+            final Object value;
+            switch (type) {
+                case 0x02: {
+                    final byte string[]= new byte[ buffer.getInt()-1 ];
+                    buffer.get( string );
+                    assertEquals( "NUL after a string", 0, buffer.get() );
+                    value= new String( string, StandardCharsets.UTF_8 );
+                    break;
+                }
+                case 0x03: value= decodeDocument( buffer, false ); break;
+                case 0x04: value= new ArrayList<>( decodeDocument(buffer, true).values() ); break;
+                case 0x08: value= buffer.get()==1; break;
+                case 0x10: value= buffer.getInt(); break;
+                default: throw new AssertionError( "Unexpected type " +type );
+            }
+            result.put( name, value );
+        }
+        assertEquals( "Length of the document", length, buffer.position()-start );
+        return result;
+    }
+
+    private static String cString (ByteBuffer buffer) {
+        final int start= buffer.position();
+        while (buffer.get()!=0);
+        return new String( buffer.array(), start, buffer.position()-1-start, StandardCharsets.UTF_8 );
+    }
+
+    private static String extendedJson (BsonWriter writer) throws IOException {
+        final StringBuilder json= new StringBuilder();
+        writer.writeExtendedJson( json );
+        return json.toString();
+    }
+
+    @Test
+    public void bytesAsInTheSpec() {
+        final byte expected[]= "\u0016\0\0\0\u0002hello\0\u0006\0\0\0world\0\0".getBytes( StandardCharsets.ISO_8859_1 );
+        assertArrayEquals( expected, new BsonWriter().startDocument().string("hello", "world").end().toByteArray() );
+    }
+
+    @Test
+    public void nestedDocumentsAndArrays() throws IOException {
+        final BsonWriter writer= new BsonWriter().startDocument()
+            .string( "name", "x" )
+            .int32( "min", Integer.MIN_VALUE )
+            .int32( "max", Integer.MAX_VALUE )
+            .bool( "yes", true )
+            .bool( "no", false )
+            .startDocument( "inner" )
+                .startArray( "list" )
+                    .int32( null, 1 )
+                    .startDocument( null ).string( "k", "v" ).end()
+                    .startArray( null ).end()
+                .end()
+                .startDocument( "empty" ).end()
+            .end()
+        .end();
+        final List<Object> list= new ArrayList<>();
+        for (int i=0; i<12; i++) // Indexes of two digits, too
+            list.add( i );
+        writer.startDocument().startArray( "list" );
+        for (Object element: list)
+            writer.int32( null, (Integer) element );
+        writer.end().end();
+
+        assertEquals( Arrays.asList(
+                document( "name", "x", "min", Integer.MIN_VALUE, "max", Integer.MAX_VALUE, "yes", true, "no", false,
+                          "inner", document("list", Arrays.asList(1, document("k", "v"), Arrays.asList()),
+                                            "empty", document()) ),
+                document( "list", list ) ),
+            decode(writer.toByteArray()) );
+        final String separator= System.lineSeparator();
+        assertEquals( "{\"name\": \"x\", \"min\": {\"$numberInt\": \"-2147483648\"}, "
+                + "\"max\": {\"$numberInt\": \"2147483647\"}, \"yes\": true, \"no\": false, "
+                + "\"inner\": {\"list\": [{\"$numberInt\": \"1\"}, {\"k\": \"v\"}, []], \"empty\": {}}}" +separator
+                + "{\"list\": [{\"$numberInt\": \"0\"}, {\"$numberInt\": \"1\"}, {\"$numberInt\": \"2\"}, "
+                + "{\"$numberInt\": \"3\"}, {\"$numberInt\": \"4\"}, {\"$numberInt\": \"5\"}, {\"$numberInt\": \"6\"}, "
+                + "{\"$numberInt\": \"7\"}, {\"$numberInt\": \"8\"}, {\"$numberInt\": \"9\"}, "
+                + "{\"$numberInt\": \"10\"}, {\"$numberInt\": \"11\"}]}" +separator,
+            extendedJson(writer) );
+    }
+
+    @Test
+    public void utf8AndEscapes() throws IOException {
+        final String text= "a\u00e9\u20ac\ud83d\ude00\"\\\n\t\u0001";
+        final BsonWriter writer= new BsonWriter().startDocument().string( "\u00e9t\u00e9", text ).end();
+        assertEquals( Arrays.asList(document("\u00e9t\u00e9", text)), decode(writer.toByteArray()) );
+        assertEquals( "{\"\u00e9t\u00e9\": \"a\u00e9\u20ac\ud83d\ude00\\\"\\\\\\n\\t\\u0001\"}" +System.lineSeparator(),
+                      extendedJson(writer) );
+
+        // A lone surrogate becomes '?', as with String.getBytes(..)
+        assertEquals( Arrays.asList(document("s", "a?b")),
+                      decode(new BsonWriter().startDocument().string("s", "a\ud83db").end().toByteArray()) );
+    }
+
+    @Test
+    public void growsAndResets() throws IOException {
+        final BsonWriter writer= new BsonWriter();
+        final StringBuilder longString= new StringBuilder();
+        for (int i=0; i<3000; i++)
+            longString.append( (char)('a' + i%26) );
+        writer.startDocument().string( "long", longString.toString() );
+        for (int i=0; i<40; i++) // Deeper than the initial stack
+            writer.startDocument( "d" );
+        for (int i=0; i<40; i++)
+            writer.end();
+        writer.end();
+        Map<String, Object> nested= document();
+        for (int i=0; i<39; i++)
+            nested= document( "d", nested );
+        assertEquals( Arrays.asList(document("long", longString.toString(), "d", nested)),
+                      decode(writer.toByteArray()) );
+
+        writer.reset();
+        assertEquals( 0, writer.size() );
+        writer.startDocument().bool( "b", true ).end();
+        final ByteArrayOutputStream out= new ByteArrayOutputStream();
+        writer.writeTo( out );
+        assertEquals( Arrays.asList(document("b", true)), decode(out.toByteArray()) );
+    }
+
+    @Test
+    public void rejectsInvalidUse() {
+        final BsonWriter writer= new BsonWriter();
+        try {
+            writer.string( "a", "b" );
+            fail( "No open document" );
+        } catch (IllegalStateException expected) {}
+        writer.startDocument();
+        try {
+            writer.startDocument();
+            fail( "Nested top-level document" );
+        } catch (IllegalStateException expected) {}
+        try {
+            writer.string( null, "b" );
+            fail( "No name in a document" );
+        } catch (IllegalArgumentException expected) {}
+        try {
+            writer.string( "a\0", "b" );
+            fail( "NUL in a name" );
+        } catch (IllegalArgumentException expected) {}
+        writer.startArray( "array" );
+        try {
+            writer.int32( "a", 1 );
+            fail( "Name in an array" );
+        } catch (IllegalArgumentException expected) {}
+        writer.end();
+        try {
+            writer.toByteArray();
+            fail( "Document still open" );
+        } catch (IllegalStateException expected) {}
+        writer.end();
+        try {
+            writer.end();
+            fail( "Nothing to end" );
+        } catch (IllegalStateException expected) {}
+    }
+
+    /** MongoCommands over shop.Item of src/test/config/descriptor/shop/item.proto. */
+    @Test
+    public void createCommand() throws IOException {
+        final ParserContext context= new ParserContext();
+        context.includePaths= new String[] { "src/test/config/descriptor" };
+        context.parse( "shop/item.proto" );
+        context.waitUntilComplete();
+        final TypeDefinition item= context.typeIndex().get( ".shop.Item" );
+        final BsonWriter writer= new BsonWriter();
+        new MongoCommands().write( item, context, writer );
+
+        final Map<String, Object> stringType= document( "bsonType", "string" );
+        assertEquals( Arrays.asList(document(
+                "create", "Item",
+                "capped", false,
+                "validator", document( "$jsonSchema", document(
+                    "bsonType", "object",
+                    "additionalProperties", false,
+                    "properties", document(
+                        "_id", document( "bsonType", "objectId" ),
+                        "name", stringType,
+                        "count", document( "bsonType", "int" ),
+                        "labels", document( "type", "array", "items", stringType ) ))),
+                "validationLevel", "strict",
+                "validationAction", "error" )),
+            decode(writer.toByteArray()) );
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.protopick.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeMap;
+import org.junit.Test;
+import io.github.protopick.compile.Field;
+import io.github.protopick.compile.TypeDefinition;
+import io.github.protopick.compile.TypeNameOfField;
+
+/** DescriptorSetReader over src/test/config/descriptor/shop.pb, which protoc generated from the .proto files next to
+ * it (see regenerate() below). The model must be the same as from parsing those files. */
+public class DescriptorSetReaderTest {
+    private static final String DIRECTORY= "src/test/config/descriptor";
+
+    /* To regenerate shop.pb, in src/test/config/descriptor run:
+       protoc --include_imports --include_source_info --descriptor_set_out=shop.pb shop/order.proto */
+
+    private static ParserContext parsed() {
+        final ParserContext context= new ParserContext();
+        context.includePaths= new String[] { DIRECTORY };
+        context.parse( "shop/order.proto" );
+        context.waitUntilComplete();
+        return context;
+    }
+
+    private static ParserContext loaded (String... rootFiles) throws IOException {
+        final ParserContext context= new ParserContext();
+        context.loadDescriptorSet( Paths.get(DIRECTORY, "shop.pb"), Arrays.asList(rootFiles) );
+        context.waitUntilComplete();
+        return context;
+    }
+
+    /** @return Per type (by full name): whether it's an enum, its comment, and its fields with their resolved types. */
+    private static TreeMap<String, String> describe (ParserContext context) {
+        final TreeMap<String, String> types= new TreeMap<>();
+        for (TypeDefinition type: context.newTypes.values()) {
+            final StringBuilder description= new StringBuilder( type.isEnum ? "enum" : "message" );
+            description.append( comment(type) );
+            for (Field field: type.fields) {
+                description.append( "\n  " ).append( field.attribute ).append( field.isRepeated ? " repeated" : "" )
+                    .append( field.isMap ? " map" : "" ).append( ' ' ).append( field.name );
+                if (!type.isEnum) {
+                    description.append( ": " ).append( typeOf(context, field.typeNameOfField) );
+                    if (field.isMap)
+                        description.append( " => " ).append( typeOf(context, field.typeNameOfMapValues) );
+                }
+                description.append( comment(field) );
+            }
+            types.put( type.typeNameDefinition.fullName(), description.toString() );
+        }
+        return types;
+    }
+
+    private static String typeOf (ParserContext context, TypeNameOfField typeName) {
+        if (!typeName.use.mayBeRelative())
+            return typeName.name;
+        final TypeDefinition resolved= typeName.resolve( context );
+        assertNotNull( "Unresolved " +typeName, resolved );
+        return resolved.typeNameDefinition.fullName();
+    }
+
+    private static String comment (HandlingInstructed element) {
+        return element.getInstruction()!=null
+            ? " //" +element.getInstruction().content.trim()
+            : "";
+    }
+
+    @Test
+    public void sameModelAsParsed() throws IOException {
+        final TreeMap<String, String> expected= describe( parsed() );
+        assertEquals( Arrays.asList(".Note", ".shop.Item", ".shop.Item.Size", ".shop.Order", ".shop.Order.Voucher",
+                                    ".shop.Status"),
+                      Arrays.asList(expected.keySet().toArray()) );
+        assertEquals( expected, describe(loaded("shop/order.proto")) );
+        assertEquals( expected, describe(loaded()) ); // All files of the set
+    }
+
+    @Test
+    public void loadsOnlyRootFilesAndTheirImports() throws IOException {
+        final ParserContext context= loaded( "note.proto" );
+        assertEquals( Collections.singleton(".Note"), context.newTypes.keySet() );
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.protopick.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+/** FastLexer must emit the same tokens as the generated ParserTokenManager (over MappedCharStream). */
+public class FastLexerTest {
+    /** One line per token: kind, image, position, and its special tokens (comments). Up to (and including) the end, or
+     * a lexical error. */
+    private static List<String> tokens (ParserTokenManager lexer) {
+        final List<String> result= new ArrayList<>();
+        try {
+            for (Token token= lexer.getNextToken(); ; token= lexer.getNextToken()) {
+                final StringBuilder specials= new StringBuilder();
+                for (Token special= token.specialToken; special!=null; special= special.specialToken)
+                    specials.insert( 0, "[" +special+ " " +special.beginLine+ ":" +special.beginColumn+ "]" );
+                result.add( token.kind+ " " +token.image+ " " +token.beginLine+ ":" +token.beginColumn+ "-"
+                    +token.endLine+ ":" +token.endColumn+ " " +specials );
+                if (token.kind==ParserConstants.EOF)
+                    return result;
+            }
+        } catch (TokenMgrError e) {
+            result.add( "error" );
+            return result;
+        }
+    }
+
+    private static void assertSameTokens (File file) throws IOException {
+        final List<String> expected= tokens( new ParserTokenManager(new MappedCharStream(file)) );
+        assertEquals( file.toString(), expected, tokens(new FastLexer(file, new NamePool())) );
+    }
+
+    private static List<Path> samples() throws IOException {
+        try (Stream<Path> files= Files.walk( Paths.get("src/test/config") )) {
+            return files.filter( file -> file.toString().endsWith(".proto") ).sorted().collect( Collectors.toList() );
+        }
+    }
+
+    @Test
+    public void sameTokensAsGenerated() throws IOException {
+        final List<Path> samples= samples();
+        assertTrue( samples.size()>30 );
+        for (Path sample: samples)
+            assertSameTokens( sample.toFile() );
+    }
+
+    /** Large enough for MappedCharStream to map it. With a byte order mark, and with \r\n line ends. */
+    @Test
+    public void sameTokensOverLargeFile() throws IOException {
+        final byte sample[]= new String( Files.readAllBytes(Paths.get("src/test/config/proto3/route_guide.proto")), "UTF-8" )
+            .replace( "\n", "\r\n" ).getBytes( "UTF-8" );
+        final Path file= Files.createTempFile( "large", ".proto" );
+        try {
+            try (OutputStream out= Files.newOutputStream(file)) {
+                out.write( new byte[] {(byte)0xEF, (byte)0xBB, (byte)0xBF} );
+                for (int size= 0; size<MappedCharStream.MAP_THRESHOLD; size+= sample.length)
+                    out.write( sample );
+            }
+            assertSameTokens( file.toFile() );
+        } finally {
+            Files.delete( file );
+        }
+    }
+
+    @Test
+    public void sameTokensForEdgeCases() throws IOException {
+        final String cases[]= {
+            "message M { int32 a.b = 1; }\n",
+            "option x = -12.5; max to 0 -0 01\n",
+            "a._b a.b. a..b google.protobuf.Any Any\n",
+            "// comment é\r\n/ x\n",
+            "\"unterminated\n",
+            "message M {} // comment without a new line at the end",
+            "messages enum_ _1 $\n",
+        };
+        for (String text: cases) {
+            final Path file= Files.createTempFile( "case", ".proto" );
+            try {
+                Files.write( file, text.getBytes("UTF-8") );
+                assertSameTokens( file.toFile() );
+            } finally {
+                Files.delete( file );
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.protopick.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import org.junit.Test;
+import io.github.protopick.compile.Field;
+import io.github.protopick.compile.TypeDefinition;
+
+/** ParserContext with lazyImports, over src/test/config/lazy: svc/api.proto imports common/types.proto, which imports
+ * common/geo.proto. Each of them has a package. */
+public class LazyImportsTest {
+    private static ParserContext parse (boolean lazyImports) {
+        final ParserContext context= new ParserContext();
+        context.includePaths= new String[] { "src/test/config/lazy" };
+        context.lazyImports= lazyImports;
+        context.parse( "svc/api.proto" );
+        context.waitUntilComplete();
+        return context;
+    }
+
+    private static TypeDefinition fieldType (ParserContext context, TypeDefinition type, String fieldName) {
+        for (Field field: type.fields) {
+            if (field.name.equals(fieldName))
+                return field.typeNameOfField.resolve(context);
+        }
+        throw new AssertionError( "No field " +fieldName );
+    }
+
+    @Test
+    public void resolvesTypesOfPackagedTransitiveImports() {
+        final ParserContext context= parse( true );
+        assertFalse( "Imports must not be parsed upfront", context.newTypes.containsKey(".common.Address") );
+
+        final TypeDefinition user= context.typeIndex().get( ".svc.User" );
+        final TypeDefinition address= fieldType( context, user, "address" );
+        assertEquals( ".common.Address", address.typeNameDefinition.fullName() );
+        final TypeDefinition point= fieldType( context, address, "location" );
+        assertEquals( ".common.geo.Point", point.typeNameDefinition.fullName() );
+    }
+
+    @Test
+    public void lazyOrderIsAsIfParsedUpfront() {
+        final ParserContext context= parse( true );
+        final TypeDefinition user= context.typeIndex().get( ".svc.User" );
+        fieldType( context, fieldType(context, user, "address"), "location" );
+
+        final ParserContext eager= parse( false );
+        assertEquals( new ArrayList<>(eager.newTypes.keySet()),
+                      new ArrayList<>(context.orderedNewTypes().keySet()) );
+        assertTrue( context.newTypes.containsKey(".common.Phone") ); // Parsed along with Address
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.protopick.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+public class MappedCharStreamTest {
+    private static MappedCharStream stream (byte content[]) throws IOException {
+        final Path file= Files.createTempFile( "stream", ".proto" );
+        try {
+            Files.write( file, content );
+            return new MappedCharStream( file.toFile() );
+        } finally {
+            Files.delete( file );
+        }
+    }
+
+    private static MappedCharStream stream (String content) throws IOException {
+        return stream( content.getBytes("UTF-8") );
+    }
+
+    @Test
+    public void decodesUtf8AndSkipsByteOrderMark() throws IOException {
+        final byte utf8[]= "aé€".getBytes("UTF-8");
+        final byte content[]= new byte[ 3+utf8.length ];
+        content[0]= (byte)0xEF;
+        content[1]= (byte)0xBB;
+        content[2]= (byte)0xBF;
+        System.arraycopy( utf8, 0, content, 3, utf8.length );
+        final MappedCharStream stream= stream( content );
+        assertEquals( 'a', stream.BeginToken() );
+        assertEquals( 'é', stream.readChar() );
+        assertEquals( '€', stream.readChar() );
+        assertEquals( "aé€", stream.GetImage() );
+        try {
+            stream.readChar();
+            fail( "Expected the end" );
+        } catch (IOException expected) {}
+    }
+
+    @Test
+    public void backupAndImage() throws IOException {
+        final MappedCharStream stream= stream( "message" );
+        stream.BeginToken();
+        for (int i=1; i<7; i++)
+            stream.readChar();
+        stream.backup( 3 );
+        assertEquals( "mess", stream.GetImage() );
+        assertEquals( "ss", new String(stream.GetSuffix(2)) );
+        assertEquals( 'a', stream.readChar() );
+    }
+
+    /** Lines end with \n, \r or \r\n. Columns are 1-based, with tabs as per tab size. */
+    @Test
+    public void linesAndColumns() throws IOException {
+        final MappedCharStream stream= stream( "a\r\nb\rc\n\td" );
+        final int expected[][]= { {1,1}, {1,2}, {1,3}, {2,1}, {2,2}, {3,1}, {3,2}, {4,1}, {4,2} };
+        for (int[] lineColumn: expected) {
+            stream.BeginToken();
+            assertEquals( lineColumn[0], stream.getBeginLine() );
+            assertEquals( lineColumn[1], stream.getBeginColumn() );
+        }
+
+        final MappedCharStream tabs= stream( "\td" );
+        tabs.setTabSize( 4 );
+        tabs.readChar();
+        tabs.BeginToken();
+        assertEquals( 5, tabs.getBeginColumn() );
+        assertEquals( 5, tabs.getEndColumn() );
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.protopick.validate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+import io.github.protopick.parse.ParserContext;
+
+/** DocumentValidator of message v.Doc in src/test/config/validate/v/doc.proto. */
+public class DocumentValidatorTest {
+    private static final DocumentValidator validator;
+    static {
+        final ParserContext context= new ParserContext();
+        context.includePaths= new String[] { "src/test/config/validate" };
+        context.parse( "v/doc.proto" );
+        context.waitUntilComplete();
+        validator= DocumentValidator.compile( context, "v.Doc" );
+    }
+
+    @Test
+    public void compilesByFullNameWithOrWithoutLeadingDot() {
+        final ParserContext context= new ParserContext();
+        context.includePaths= new String[] { "src/test/config/validate" };
+        context.parse( "v/doc.proto" );
+        context.waitUntilComplete();
+        assertNull( DocumentValidator.compile(context, ".v.Doc").validate("{\"small\": 1}") );
+        assertNull( DocumentValidator.compile(context, "v.Doc.Inner").validate("{\"label\": \"a\"}") );
+        try {
+            DocumentValidator.compile( context, "v.Missing" );
+        } catch (IllegalArgumentException e) {
+            assertEquals( "No type v.Missing", e.getMessage() );
+            return;
+        }
+        throw new AssertionError( "Compiled a missing type" );
+    }
+
+    @Test
+    public void acceptsValidDocuments() throws IOException {
+        assertNull( validator.validate("{}") );
+        final String document= "{\"_id\": {\"$oid\": \"5f0c6b6e8b3a4e2f9c1d2e3f\"}, \"small\": -5, "
+            + "\"big\": {\"$numberLong\": \"5\"}, \"ratio\": 0.5, \"weight\": 3, \"count\": 7, "
+            + "\"total\": 5000000000, \"name\": \"x\", \"active\": true, \"tags\": [\"a\", \"b\"], \"color\": \"GREEN\", "
+            + "\"inner\": {\"label\": \"l\", \"children\": [{\"children\": []}]}, "
+            + "\"scores\": [{\"key\": \"k\", \"value\": 1}]}";
+        assertNull( validator.validate(document) );
+        assertNull( validator.validate(new StringReader(document)) );
+    }
+
+    @Test
+    public void classifiesNumbers() {
+        assertEquals( "$.small: expected \"bsonType\": \"int\", not long", validator.validate("{\"small\": 5000000000}") );
+        assertEquals( "$.small: expected \"bsonType\": \"int\", not double", validator.validate("{\"small\": 5.0}") );
+        assertEquals( "$.big: expected \"bsonType\": \"long\", not int", validator.validate("{\"big\": 5}") );
+        assertNull( validator.validate("{\"big\": 5000000000}") );
+        assertNull( validator.validate("{\"big\": {\"$numberLong\": \"5\"}}") );
+        assertEquals( "$.ratio: expected \"bsonType\": \"double\", not int", validator.validate("{\"ratio\": 1}") );
+        assertNull( validator.validate("{\"ratio\": 1.0}") );
+        assertNull( validator.validate("{\"ratio\": {\"$numberDouble\": \"1\"}}") );
+        // float is "type": "number"
+        assertNull( validator.validate("{\"weight\": {\"$numberLong\": \"5\"}}") );
+        assertNull( validator.validate("{\"weight\": {\"$numberDecimal\": \"5.5\"}}") );
+        assertEquals( "$.weight: expected \"type\": \"number\", not string", validator.validate("{\"weight\": \"5\"}") );
+    }
+
+    @Test
+    public void unsignedMeansMinimumZero() {
+        assertNull( validator.validate("{\"count\": 0}") );
+        assertNull( validator.validate("{\"count\": -0}") );
+        assertNull( validator.validate("{\"total\": {\"$numberLong\": \"-0\"}}") );
+        assertEquals( "$.count: expected \"minimum\": 0", validator.validate("{\"count\": -1}") );
+        assertEquals( "$.total: expected \"minimum\": 0", validator.validate("{\"total\": {\"$numberLong\": \"-1\"}}") );
+        assertEquals( "$.total: expected \"minimum\": 0", validator.validate("{\"total\": -5000000000}") );
+        assertEquals( "$.count: expected \"bsonType\": \"int\", not double", validator.validate("{\"count\": -0.0}") );
+    }
+
+    @Test
+    public void enums() {
+        assertNull( validator.validate("{\"color\": \"RED\"}") );
+        assertEquals( "$.color: not one of \"enum\" values: BLUE", validator.validate("{\"color\": \"BLUE\"}") );
+        assertEquals( "$.color: expected one of \"enum\" values, not int", validator.validate("{\"color\": 0}") );
+    }
+
+    @Test
+    public void pathsOfViolations() {
+        assertEquals( "$.tags[2]: expected \"bsonType\": \"string\", not int",
+                      validator.validate("{\"tags\": [\"a\", \"b\", 3]}") );
+        assertEquals( "$.tags: expected \"type\": \"array\", not string", validator.validate("{\"tags\": \"a\"}") );
+        assertEquals( "$.inner.children[0].children[1].label: expected \"bsonType\": \"string\", not bool",
+                      validator.validate("{\"inner\": {\"children\": [{\"children\": [{}, {\"label\": false}]}]}}") );
+        assertEquals( "$.scores[0].value: expected \"bsonType\": \"int\", not string",
+                      validator.validate("{\"scores\": [{\"key\": \"k\", \"value\": \"v\"}]}") );
+        assertEquals( "$: expected \"bsonType\": \"object\", not array", validator.validate("[]") );
+    }
+
+    @Test
+    public void additionalProperties() {
+        assertEquals( "$.extra: not allowed (\"additionalProperties\": false)",
+                      validator.validate("{\"small\": 1, \"extra\": 2}") );
+        assertEquals( "$.inner.children[0].extra: not allowed (\"additionalProperties\": false)",
+                      validator.validate("{\"inner\": {\"children\": [{\"extra\": {\"deep\": [1]}}]}}") );
+        // "_id" only at the top level
+        assertEquals( "$.inner._id: not allowed (\"additionalProperties\": false)",
+                      validator.validate("{\"inner\": {\"_id\": {\"$oid\": \"5f0c6b6e8b3a4e2f9c1d2e3f\"}}}") );
+        assertEquals( "$.scores[0].other: not allowed (\"additionalProperties\": false)",
+                      validator.validate("{\"scores\": [{\"key\": \"k\", \"other\": 1}]}") );
+    }
+
+    @Test
+    public void malformedDocuments() {
+        assertEquals( "Malformed JSON at offset 12: Expected a property name.", validator.validate("{\"small\": 1,") );
+        assertEquals( "Malformed JSON at offset 12: Invalid number.", validator.validate("{\"small\": -}") );
+        assertEquals( "Malformed JSON at offset 3: Unexpected content after the document.", validator.validate("{} {}") );
+        // Malformed, even where the schema would fail anyway: we check the syntax first
+        assertEquals( "Malformed JSON at offset 9: Unexpected character 'x'.", validator.validate("{\"name\": x}") );
+        final StringBuilder deep= new StringBuilder( "{\"inner\": " );
+        for (int i=0; i<JsonCursor.MAX_DEPTH; i++)
+            deep.append( "{\"children\": [" );
+        assertEquals( "Nested deeper than 100 levels, at offset 710.", validator.validate(deep) );
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.protopick.validate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class JsonCursorTest {
+    private static String typeOf (String value) throws IOException {
+        return JsonCursor.TYPE_NAMES[ new JsonCursor(value).readValue() ];
+    }
+
+    private static boolean isBelowZero (String value) throws IOException {
+        final JsonCursor cursor= new JsonCursor( value );
+        cursor.readValue();
+        return cursor.belowZero;
+    }
+
+    private static String malformed (String value) throws IOException {
+        try {
+            final JsonCursor cursor= new JsonCursor( value );
+            cursor.skipRest( cursor.readValue() );
+        } catch (JsonCursor.MalformedException e) {
+            return e.getMessage();
+        }
+        fail( "Not malformed: " +value );
+        return null;
+    }
+
+    @Test
+    public void classifiesNumbersAsDriversDo() throws IOException {
+        assertEquals( "int", typeOf("5") );
+        assertEquals( "int", typeOf("0") );
+        assertEquals( "int", typeOf("2147483647") );
+        assertEquals( "int", typeOf("-2147483648") );
+        assertEquals( "long", typeOf("2147483648") );
+        assertEquals( "long", typeOf("-2147483649") );
+        assertEquals( "long", typeOf("9223372036854775807") );
+        assertEquals( "long", typeOf("-9223372036854775808") );
+        assertEquals( "double", typeOf("9223372036854775808") );
+        assertEquals( "double", typeOf("-9223372036854775809") );
+        assertEquals( "double", typeOf("5.0") );
+        assertEquals( "double", typeOf("5e3") );
+        assertEquals( "double", typeOf("-1.5E-3") );
+    }
+
+    @Test
+    public void readsExtendedJsonWrappers() throws IOException {
+        assertEquals( "long", typeOf("{\"$numberLong\": \"5\"}") );
+        assertEquals( "int", typeOf("{\"$numberInt\": \"5\"}") );
+        assertEquals( "double", typeOf("{\"$numberDouble\": \"NaN\"}") );
+        assertEquals( "decimal", typeOf("{\"$numberDecimal\": \"1.5\"}") );
+        assertEquals( "objectId", typeOf("{\"$oid\": \"5f0c6b6e8b3a4e2f9c1d2e3f\"}") );
+        assertEquals( "binData", typeOf("{\"$binary\": {\"base64\": \"AA==\", \"subType\": \"00\"}}") );
+        assertEquals( "other", typeOf("{\"$date\": {\"$numberLong\": \"0\"}}") );
+        // Not a wrapper, unless first
+        assertEquals( "object", typeOf("{\"a\": 1, \"$numberLong\": \"5\"}") );
+    }
+
+    @Test
+    public void signOfZero() throws IOException {
+        assertFalse( isBelowZero("0") );
+        assertFalse( isBelowZero("-0") );
+        assertFalse( isBelowZero("-0.0") );
+        assertFalse( isBelowZero("-0e5") );
+        assertFalse( isBelowZero("{\"$numberLong\": \"-0\"}") );
+        assertFalse( isBelowZero("{\"$numberDouble\": \"-0.0\"}") );
+        assertFalse( isBelowZero("{\"$numberDecimal\": \"-0\"}") );
+        assertTrue( isBelowZero("-1") );
+        assertTrue( isBelowZero("-0.001") );
+        assertTrue( isBelowZero("-9223372036854775809") );
+        assertTrue( isBelowZero("{\"$numberLong\": \"-1\"}") );
+        assertTrue( isBelowZero("{\"$numberDouble\": \"NaN\"}") );
+    }
+
+    @Test
+    public void decodesStrings() throws IOException {
+        final JsonCursor cursor= new JsonCursor( new StringReader("\"a\\\"\\u00e9\\n\"") );
+        assertEquals( JsonCursor.STRING, cursor.readValue() );
+        assertTrue( cursor.isString("a\"\u00e9\n") );
+        assertEquals( "a\"\u00e9\n".hashCode(), cursor.hash );
+    }
+
+    @Test
+    public void rejectsMalformedInput() throws IOException {
+        assertEquals( "Malformed JSON at offset 0: Unexpected end.", malformed("") );
+        assertEquals( "Malformed JSON at offset 2: Invalid number.", malformed("-x") );
+        assertEquals( "Malformed JSON at offset 2: Invalid number.", malformed("1.") );
+        assertEquals( "Malformed JSON at offset 2: Unexpected character 'x'.", malformed("12x") );
+        assertEquals( "Malformed JSON at offset 4: Expected true.", malformed("trux") );
+        assertEquals( "Malformed JSON at offset 4: Unterminated string.", malformed("\"abc") );
+        assertEquals( "Malformed JSON at offset 3: Invalid escape \\x.", malformed("\"\\x\"") );
+        assertEquals( "Malformed JSON at offset 6: Expected ':'.", malformed("{\"a\" 1}") );
+        assertEquals( "Malformed JSON at offset 9: Expected ',' or '}'.", malformed("{\"a\": 1 \"b\": 2}") );
+        assertEquals( "Malformed JSON at offset 4: Expected ',' or ']'.", malformed("[1 2]") );
+        assertEquals( "Malformed JSON at offset 3: Unexpected end.", malformed("[1,") );
+        assertEquals( "Malformed JSON at offset 17: Expected a string.", malformed("{\"$numberLong\": 5}") );
+        assertEquals( "Malformed JSON at offset 19: Invalid $numberLong.", malformed("{\"$numberLong\": \"x\"}") );
+        assertEquals( "Malformed JSON at offset 14: Invalid $oid.", malformed("{\"$oid\": \"abc\"}") );
+    }
+
+    @Test
+    public void limitsDepth() throws IOException {
+        final StringBuilder deepest= new StringBuilder();
+        for (int i=0; i<JsonCursor.MAX_DEPTH; i++)
+            deepest.append( '[' );
+        for (int i=0; i<JsonCursor.MAX_DEPTH; i++)
+            deepest.append( ']' );
+        final JsonCursor cursor= new JsonCursor( deepest );
+        cursor.skipRest( cursor.readValue() );
+        assertEquals( -1, cursor.peek() );
+
+        assertEquals( "Nested deeper than 100 levels, at offset 101.", malformed("[" +deepest+ "]") );
+    }
+}